@@ -2,6 +2,9 @@
 plugins {
     java
     application
+
+    // Microbenchmarks of the storage in src/jmh/java, run with `gradle jmh`
+    id("me.champeau.gradle.jmh") version "0.4.8"
 }
 
 java {
@@ -36,6 +39,14 @@ val run by tasks.getting(JavaExec::class) {
     standardInput = System.`in`
 }
 
+// Drives the service with `gradle load --args="..."`, see ru.mail.polis.load.LoadGenerator for the options
+val load by tasks.registering(JavaExec::class) {
+    classpath = sourceSets["main"].runtimeClasspath
+    main = "ru.mail.polis.load.LoadGenerator"
+    // The embedded node gets the same heap as the server has
+    maxHeapSize = "128m"
+}
+
 tasks {
     test {
         maxHeapSize = "128m"
@@ -43,6 +54,20 @@ tasks {
     }
 }
 
+jmh {
+    jmhVersion = "1.21"
+    // The allocation rate is reported next to the time of every benchmark
+    profilers = listOf("gc")
+    fork = 1
+    warmupIterations = 3
+    warmup = "1s"
+    iterations = 5
+    timeOnIteration = "1s"
+    // The same heap as the server has
+    jvmArgs = listOf("-Xms128m", "-Xmx128m")
+    resultFormat = "JSON"
+}
+
 application {
     // Define the main class for the application
     mainClassName = "ru.mail.polis.Server"
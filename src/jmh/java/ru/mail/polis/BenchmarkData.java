@@ -0,0 +1,64 @@
+package ru.mail.polis;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Generates the keys and the values of the benchmarks, the same ones for the same arguments,
+ * so the runs of different revisions measure the same data.
+ */
+public final class BenchmarkData {
+    private static final long SEED = 42;
+
+    private BenchmarkData() {
+        // Not supposed to be instantiated
+    }
+
+    /**
+     * Returns the distinct random keys in random order.
+     */
+    @NotNull
+    public static ByteBuffer[] keys(final int count, final int size) {
+        final Random random = new Random(SEED);
+        final Set<ByteBuffer> keys = new HashSet<>();
+        while (keys.size() < count) {
+            final byte[] key = new byte[size];
+            random.nextBytes(key);
+            keys.add(ByteBuffer.wrap(key));
+        }
+        final ByteBuffer[] result = keys.toArray(new ByteBuffer[0]);
+        // The order of the hash set depends on the keys only, shuffle it to look up the keys randomly
+        for (int i = result.length - 1; i > 0; i--) {
+            final int j = random.nextInt(i + 1);
+            final ByteBuffer key = result[i];
+            result[i] = result[j];
+            result[j] = key;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the keys in ascending order.
+     */
+    @NotNull
+    public static ByteBuffer[] sortedKeys(final int count, final int size) {
+        final ByteBuffer[] keys = keys(count, size);
+        Arrays.sort(keys);
+        return keys;
+    }
+
+    /**
+     * Returns the random value, the rows of a benchmark share it, so only the keys take the heap.
+     */
+    @NotNull
+    public static ByteBuffer value(final int size) {
+        final byte[] value = new byte[size];
+        new Random(SEED).nextBytes(value);
+        return ByteBuffer.wrap(value);
+    }
+}
@@ -0,0 +1,61 @@
+package ru.mail.polis.dao.vasekha;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import ru.mail.polis.BenchmarkData;
+import ru.mail.polis.dao.DAO;
+import ru.mail.polis.dao.DAOFactory;
+
+/**
+ * Measures how the throughput of {@link MyDAO} shared by the threads scales with their number.
+ * Every operation writes a new random key and reads it back, so the memTable is flushed as it would be
+ * under the server load. All the processors are used by default, pass {@code -t} to measure fewer threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(Threads.MAX)
+public class ConcurrencyBenchmark {
+    private static final int KEY_SIZE = 16;
+    private static final int VALUE_SIZE = 256;
+
+    private File folder;
+    private DAO dao;
+    private ByteBuffer value;
+
+    @Setup
+    public void setUp() throws IOException {
+        folder = ru.mail.polis.Files.createTempDirectory();
+        dao = DAOFactory.create(folder);
+        value = BenchmarkData.value(VALUE_SIZE);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        dao.close();
+        ru.mail.polis.Files.recursiveDelete(folder);
+    }
+
+    @Benchmark
+    public ByteBuffer upsertAndGet() throws IOException {
+        final byte[] key = new byte[KEY_SIZE];
+        ThreadLocalRandom.current().nextBytes(key);
+        final ByteBuffer keyBuffer = ByteBuffer.wrap(key);
+        dao.upsert(keyBuffer, value.duplicate());
+        return dao.get(keyBuffer);
+    }
+}
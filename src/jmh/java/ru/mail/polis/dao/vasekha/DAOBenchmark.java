@@ -0,0 +1,115 @@
+package ru.mail.polis.dao.vasekha;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import ru.mail.polis.BenchmarkData;
+import ru.mail.polis.Record;
+import ru.mail.polis.dao.DAO;
+
+/**
+ * Measures the point lookups and the range scans of {@link MyDAO}
+ * which keeps the keys in the given number of the SSTables.
+ * The keys are spread over the tables evenly and the tables are not compacted.
+ * The keys fit the memTable of the heap limited as the server one, so every pass over them writes one table.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DAOBenchmark {
+    private static final int KEYS = 20_000;
+    private static final int SCANNED_RECORDS = 100;
+    private static final long FLUSH_THRESHOLD_BYTES = Long.MAX_VALUE;
+    private static final DAOOptions OPTIONS = DAOOptions.DEFAULT.withCompactionStrategy(ssTables -> null);
+
+    @Param({"1", "4", "16"})
+    public int ssTables;
+
+    @Param({"16", "128"})
+    public int keySize;
+
+    @Param({"16", "1024"})
+    public int valueSize;
+
+    private File folder;
+    private DAO dao;
+    private ByteBuffer[] keys;
+    private ByteBuffer[] absentKeys;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        folder = ru.mail.polis.Files.createTempDirectory();
+        final ByteBuffer[] allKeys = BenchmarkData.keys(KEYS * 2, keySize);
+        keys = new ByteBuffer[KEYS];
+        absentKeys = new ByteBuffer[KEYS];
+        System.arraycopy(allKeys, 0, keys, 0, KEYS);
+        System.arraycopy(allKeys, KEYS, absentKeys, 0, KEYS);
+        final ByteBuffer value = BenchmarkData.value(valueSize);
+        // Closing the DAO flushes its memTable, so every pass leaves a table of its own
+        for (int table = 0; table < ssTables; table++) {
+            try (DAO writer = new MyDAO(folder, FLUSH_THRESHOLD_BYTES, OPTIONS)) {
+                for (int i = table; i < KEYS; i += ssTables) {
+                    writer.upsert(keys[i], value);
+                }
+            }
+        }
+        dao = new MyDAO(folder, FLUSH_THRESHOLD_BYTES, OPTIONS);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        dao.close();
+        ru.mail.polis.Files.recursiveDelete(folder);
+    }
+
+    @Benchmark
+    public ByteBuffer getPresent() throws IOException {
+        return dao.get(keys[nextIndex()]);
+    }
+
+    /**
+     * Looks up the key which no table has, so every table is rejected by its Bloom filter or searched in vain.
+     */
+    @Benchmark
+    public boolean getAbsent() throws IOException {
+        try {
+            dao.get(absentKeys[nextIndex()]);
+            return true;
+        } catch (NoSuchElementException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Reads the records following the key, the range scan merges all the tables.
+     */
+    @Benchmark
+    public void scan(final Blackhole blackhole) throws IOException {
+        final Iterator<Record> records = dao.iterator(keys[nextIndex()]);
+        for (int i = 0; i < SCANNED_RECORDS && records.hasNext(); i++) {
+            blackhole.consume(records.next());
+        }
+    }
+
+    private int nextIndex() {
+        final int index = next;
+        next = next + 1 == KEYS ? 0 : next + 1;
+        return index;
+    }
+}
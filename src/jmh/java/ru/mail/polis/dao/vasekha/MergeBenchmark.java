@@ -0,0 +1,119 @@
+package ru.mail.polis.dao.vasekha;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import ru.mail.polis.BenchmarkData;
+import ru.mail.polis.storage.Row;
+import ru.mail.polis.storage.RowCursor;
+import ru.mail.polis.storage.SSTable;
+import ru.mail.polis.storage.Value;
+
+/**
+ * Measures the merge of the rows of the {@link SSTable}s into the alive rows by {@link MyDAO#aliveRowIterator}
+ * and the compaction of the tables.
+ * Every key is stored in two tables on average, the newer table has the newer row,
+ * and every tenth key of a table is a tombstone.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MergeBenchmark {
+    private static final int KEYS = 100_000;
+    private static final int SCANNED_ROWS = 1_000;
+
+    @Param({"1", "4", "16"})
+    public int ssTables;
+
+    @Param({"16", "128"})
+    public int keySize;
+
+    @Param({"16", "1024"})
+    public int valueSize;
+
+    private File folder;
+    private final List<SSTable> tables = new ArrayList<>();
+    private ByteBuffer[] keys;
+    private Path compactedPath;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        folder = ru.mail.polis.Files.createTempDirectory();
+        keys = BenchmarkData.keys(KEYS, keySize);
+        final ByteBuffer[] sortedKeys = keys.clone();
+        Arrays.sort(sortedKeys);
+        final ByteBuffer value = BenchmarkData.value(valueSize);
+        final Random random = new Random(ssTables);
+        for (int generation = 0; generation < ssTables; generation++) {
+            final List<Row> rows = new ArrayList<>();
+            for (final ByteBuffer key : sortedKeys) {
+                if (ssTables == 1 || random.nextInt(ssTables) < 2) {
+                    final boolean removed = rows.size() % 10 == 9;
+                    rows.add(Row.of(key, removed ? Value.remove(generation) : Value.of(generation, value)));
+                }
+            }
+            final Path path = folder.toPath().resolve(generation + ".db");
+            SSTable.writeToFile(path, rows.iterator());
+            tables.add(new SSTable(path));
+        }
+        compactedPath = folder.toPath().resolve("compacted.db");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        ru.mail.polis.Files.recursiveDelete(folder);
+    }
+
+    /**
+     * Merges the rows following the key.
+     */
+    @Benchmark
+    public void scan(final Blackhole blackhole) {
+        final ByteBuffer from = keys[next];
+        next = next + 1 == KEYS ? 0 : next + 1;
+        final Iterator<Row> rows = MyDAO.aliveRowIterator(cursors(from));
+        for (int i = 0; i < SCANNED_ROWS && rows.hasNext(); i++) {
+            blackhole.consume(rows.next());
+        }
+    }
+
+    /**
+     * Writes all the alive rows to the new table as the compaction does.
+     * The throughput in MB/s is the size of the result divided by the time.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void compact() throws IOException {
+        Files.deleteIfExists(compactedPath);
+        SSTable.writeToFile(compactedPath, MyDAO.aliveRowIterator(cursors(Value.EMPTY_BUFFER)));
+    }
+
+    private List<RowCursor> cursors(final ByteBuffer from) {
+        final List<RowCursor> cursors = new ArrayList<>(tables.size());
+        for (int i = tables.size() - 1; i >= 0; i--) {
+            cursors.add(tables.get(i).cursor(from));
+        }
+        return cursors;
+    }
+}
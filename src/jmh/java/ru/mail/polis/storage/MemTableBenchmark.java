@@ -0,0 +1,61 @@
+package ru.mail.polis.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import ru.mail.polis.BenchmarkData;
+
+/**
+ * Measures the writes to the {@link MemTable}s.
+ * The table is replaced once it grows above the flush threshold, as {@code MyDAO} does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MemTableBenchmark {
+    private static final int KEYS = 1 << 16;
+    private static final long FLUSH_THRESHOLD_BYTES = 16 * 1024 * 1024;
+
+    @Param({"heap", "arena"})
+    public String memTable;
+
+    @Param({"16", "128"})
+    public int keySize;
+
+    @Param({"16", "1024"})
+    public int valueSize;
+
+    private ByteBuffer[] keys;
+    private ByteBuffer value;
+    private MemTable table;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        keys = BenchmarkData.keys(KEYS, keySize);
+        value = BenchmarkData.value(valueSize);
+        table = newTable();
+    }
+
+    @Benchmark
+    public void upsert() throws IOException {
+        table.upsert(keys[next++ & (KEYS - 1)], value);
+        if (table.getSizeBytes() >= FLUSH_THRESHOLD_BYTES) {
+            table = newTable();
+        }
+    }
+
+    private MemTable newTable() {
+        return "arena".equals(memTable) ? new ArenaMemTable() : new HeapMemTable();
+    }
+}
@@ -0,0 +1,121 @@
+package ru.mail.polis.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import ru.mail.polis.BenchmarkData;
+
+/**
+ * Measures the reads of the {@link SSTable} written with the default options and the writes of the tables.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SSTableBenchmark {
+    private static final int ROWS = 100_000;
+    private static final int WRITTEN_ROWS = 10_000;
+    private static final int SCANNED_ROWS = 100;
+
+    @Param({"16", "128"})
+    public int keySize;
+
+    @Param({"16", "1024"})
+    public int valueSize;
+
+    private File folder;
+    private List<Row> rows;
+    private ByteBuffer[] keys;
+    private SSTable table;
+    private Path writtenPath;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        folder = ru.mail.polis.Files.createTempDirectory();
+        keys = BenchmarkData.keys(ROWS, keySize);
+        final ByteBuffer[] sortedKeys = keys.clone();
+        Arrays.sort(sortedKeys);
+        final ByteBuffer value = BenchmarkData.value(valueSize);
+        rows = new ArrayList<>(ROWS);
+        for (final ByteBuffer key : sortedKeys) {
+            rows.add(Row.of(key, value));
+        }
+        final Path path = folder.toPath().resolve("read.db");
+        SSTable.writeToFile(path, rows.iterator());
+        table = new SSTable(path);
+        writtenPath = folder.toPath().resolve("written.db");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        ru.mail.polis.Files.recursiveDelete(folder);
+    }
+
+    /**
+     * Positions the iterator at the key and reads the row there.
+     */
+    @Benchmark
+    public Row seek() {
+        return table.iterator(nextKey()).next();
+    }
+
+    /**
+     * Reads the rows following the key.
+     */
+    @Benchmark
+    public void scan(final Blackhole blackhole) {
+        final Iterator<Row> iterator = table.iterator(nextKey());
+        for (int i = 0; i < SCANNED_ROWS && iterator.hasNext(); i++) {
+            blackhole.consume(iterator.next());
+        }
+    }
+
+    /**
+     * Moves the cursor over the rows following the key without creating them.
+     */
+    @Benchmark
+    public void cursorScan(final Blackhole blackhole) {
+        final RowCursor cursor = table.cursor(nextKey());
+        for (int i = 0; i < SCANNED_ROWS && cursor.isValid(); i++) {
+            blackhole.consume(cursor.getTimestamp());
+            cursor.next();
+        }
+    }
+
+    @Benchmark
+    public Row get() {
+        return table.get(nextKey());
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void writeToFile() throws IOException {
+        Files.deleteIfExists(writtenPath);
+        SSTable.writeToFile(writtenPath, rows.subList(0, WRITTEN_ROWS).iterator());
+    }
+
+    private ByteBuffer nextKey() {
+        final ByteBuffer key = keys[next];
+        next = next + 1 == ROWS ? 0 : next + 1;
+        return key;
+    }
+}
@@ -16,16 +16,24 @@
 
 package ru.mail.polis.dao;
 
+import com.google.common.collect.Iterators;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import ru.mail.polis.Record;
 import ru.mail.polis.exception.NoSuchElementExceptionLite;
+import ru.mail.polis.storage.Row;
+import ru.mail.polis.storage.TokenRanges;
+import ru.mail.polis.storage.Value;
 
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.TreeMap;
 
 /**
  * Storage interface.
@@ -86,6 +94,88 @@ public interface DAO extends Closeable {
         }
     }
 
+    /**
+     * Obtains the newest value of given key, which is a tombstone if the key has been removed,
+     * so that the replicas of the key can resolve their conflicts by the timestamps.
+     *
+     * @return the value or null if the key has never been written
+     */
+    @Nullable
+    Value getValue(@NotNull ByteBuffer key) throws IOException;
+
+    /**
+     * Stores the value, which may be a tombstone, keeping its timestamp.
+     */
+    void putValue(
+            @NotNull ByteBuffer key,
+            @NotNull Value value) throws IOException;
+
+    /**
+     * Provides iterator over the newest {@link Row}s starting at "from" key (inclusive) in ascending order
+     * of the keys, tombstones included, so that the replicas can exchange their rows with the timestamps.
+     */
+    @NotNull
+    Iterator<Row> rowIterator(@NotNull ByteBuffer from) throws IOException;
+
+    /**
+     * Sums the {@link Row#getDigest() digests} of the newest rows, tombstones included, by the ranges of their keys.
+     * The replicas which have equal sums of a range are supposed to store the same rows of it.
+     *
+     * @return the sums at the indexes of the ranges
+     */
+    @NotNull
+    default long[] rangeDigests(@NotNull TokenRanges ranges) throws IOException {
+        final long[] sums = new long[ranges.size()];
+        final Iterator<Row> rows = rowIterator(Value.EMPTY_BUFFER);
+        while (rows.hasNext()) {
+            final Row row = rows.next();
+            sums[ranges.rangeOf(row.getKey())] += row.getDigest();
+        }
+        return sums;
+    }
+
+    /**
+     * Provides the rows of the given ranges, tombstones included, ordered by key.
+     *
+     * @param ranges the ranges of the keys
+     * @param wanted the indexes of the ranges
+     */
+    @NotNull
+    default Iterator<Row> rowIterator(@NotNull TokenRanges ranges, @NotNull BitSet wanted) throws IOException {
+        return Iterators.filter(rowIterator(Value.EMPTY_BUFFER), row -> wanted.get(ranges.rangeOf(row.getKey())));
+    }
+
+    /**
+     * Obtains values corresponding to given keys, keys without values are absent from the result.
+     */
+    @NotNull
+    default Map<ByteBuffer, ByteBuffer> getAll(@NotNull Collection<ByteBuffer> keys) throws IOException {
+        final Map<ByteBuffer, ByteBuffer> result = new TreeMap<>();
+        for (final ByteBuffer key : keys) {
+            try {
+                result.put(key, get(key));
+            } catch (NoSuchElementException e) {
+                // Absent keys are skipped
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Obtains the newest values of the given keys, tombstones included, keys never written are absent from the result.
+     */
+    @NotNull
+    default Map<ByteBuffer, Value> getValues(@NotNull Collection<ByteBuffer> keys) throws IOException {
+        final Map<ByteBuffer, Value> result = new TreeMap<>();
+        for (final ByteBuffer key : keys) {
+            final Value value = getValue(key);
+            if (value != null) {
+                result.put(key, value);
+            }
+        }
+        return result;
+    }
+
     /**
      * Inserts or updates value by given key.
      */
@@ -98,6 +188,28 @@ public interface DAO extends Closeable {
      */
     void remove(@NotNull ByteBuffer key) throws IOException;
 
+    /**
+     * Inserts, updates or removes values by given keys, null value removes the key.
+     */
+    default void upsertAll(@NotNull Map<ByteBuffer, ByteBuffer> values) throws IOException {
+        for (final Map.Entry<ByteBuffer, ByteBuffer> entry : values.entrySet()) {
+            if (entry.getValue() == null) {
+                remove(entry.getKey());
+            } else {
+                upsert(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Stores the values, which may be tombstones, keeping their timestamps.
+     */
+    default void putValues(@NotNull Map<ByteBuffer, Value> values) throws IOException {
+        for (final Map.Entry<ByteBuffer, Value> entry : values.entrySet()) {
+            putValue(entry.getKey(), entry.getValue());
+        }
+    }
+
     /**
      * Perform compaction
      */
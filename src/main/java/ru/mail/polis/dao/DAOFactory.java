@@ -21,6 +21,7 @@ import java.io.IOException;
 
 import org.jetbrains.annotations.NotNull;
 
+import ru.mail.polis.dao.vasekha.DAOOptions;
 import ru.mail.polis.dao.vasekha.MyDAO;
 
 /**
@@ -55,6 +56,7 @@ public final class DAOFactory {
             throw new IllegalArgumentException("Path is not a directory: " + data);
         }
 
-        return new MyDAO(data, MAX_HEAP / 24);
+        // MemTables live in the direct memory, which is limited by the heap size by default
+        return new MyDAO(data, MAX_HEAP / 8, DAOOptions.DEFAULT.withOffHeapMemTables(true));
     }
 }
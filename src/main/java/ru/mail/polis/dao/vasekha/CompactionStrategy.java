@@ -0,0 +1,23 @@
+package ru.mail.polis.dao.vasekha;
+
+import java.util.NavigableMap;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import ru.mail.polis.storage.SSTable;
+
+/**
+ * Chooses the tables to be merged by the background compaction of {@link MyDAO}.
+ */
+public interface CompactionStrategy {
+    /**
+     * Returns the tables to be merged or null if there is nothing to compact.
+     * The tables must be contiguous by generation, so the result of their merge
+     * may take the generation of the newest one and keep the order of the data.
+     *
+     * @param ssTables all the tables keyed by generation
+     */
+    @Nullable
+    NavigableMap<Long, SSTable> select(@NotNull NavigableMap<Long, SSTable> ssTables);
+}
@@ -0,0 +1,230 @@
+package ru.mail.polis.dao.vasekha;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jetbrains.annotations.NotNull;
+
+import ru.mail.polis.storage.ArenaMemTable;
+import ru.mail.polis.storage.SyncMode;
+import ru.mail.polis.storage.TableOptions;
+
+/**
+ * Parameters of {@link MyDAO}.
+ */
+public final class DAOOptions {
+    public static final DAOOptions DEFAULT = new DAOOptions(
+            2,
+            TableOptions.DEFAULT,
+            SizeTieredCompactionStrategy.DEFAULT,
+            SyncMode.PERIODIC,
+            100,
+            false,
+            8 * 1024 * 1024,
+            TimeUnit.DAYS.toMillis(10));
+
+    private final int maxFlushingTables;
+    private final TableOptions tableOptions;
+    private final CompactionStrategy compactionStrategy;
+    private final SyncMode syncMode;
+    private final long syncIntervalMillis;
+    private final boolean offHeapMemTables;
+    private final long blockCacheBytes;
+    private final long tombstoneGracePeriodMillis;
+
+    private DAOOptions(
+            final int maxFlushingTables,
+            @NotNull final TableOptions tableOptions,
+            @NotNull final CompactionStrategy compactionStrategy,
+            @NotNull final SyncMode syncMode,
+            final long syncIntervalMillis,
+            final boolean offHeapMemTables,
+            final long blockCacheBytes,
+            final long tombstoneGracePeriodMillis) {
+        this.maxFlushingTables = maxFlushingTables;
+        this.tableOptions = tableOptions;
+        this.compactionStrategy = compactionStrategy;
+        this.syncMode = syncMode;
+        this.syncIntervalMillis = syncIntervalMillis;
+        this.offHeapMemTables = offHeapMemTables;
+        this.blockCacheBytes = blockCacheBytes;
+        this.tombstoneGracePeriodMillis = tombstoneGracePeriodMillis;
+    }
+
+    /**
+     * Returns the options with the given number of frozen memTables after which writers wait for the flusher.
+     */
+    @NotNull
+    public DAOOptions withMaxFlushingTables(final int maxFlushingTables) {
+        if (maxFlushingTables <= 0) {
+            throw new IllegalArgumentException("Max flushing tables must be positive");
+        }
+        return new DAOOptions(
+                maxFlushingTables,
+                tableOptions,
+                compactionStrategy,
+                syncMode,
+                syncIntervalMillis,
+                offHeapMemTables,
+                blockCacheBytes,
+                tombstoneGracePeriodMillis);
+    }
+
+    /**
+     * Returns the options with the given parameters of the written files.
+     */
+    @NotNull
+    public DAOOptions withTableOptions(@NotNull final TableOptions tableOptions) {
+        return new DAOOptions(
+                maxFlushingTables,
+                tableOptions,
+                compactionStrategy,
+                syncMode,
+                syncIntervalMillis,
+                offHeapMemTables,
+                blockCacheBytes,
+                tombstoneGracePeriodMillis);
+    }
+
+    /**
+     * Returns the options with the given strategy of the background compaction.
+     */
+    @NotNull
+    public DAOOptions withCompactionStrategy(@NotNull final CompactionStrategy compactionStrategy) {
+        return new DAOOptions(
+                maxFlushingTables,
+                tableOptions,
+                compactionStrategy,
+                syncMode,
+                syncIntervalMillis,
+                offHeapMemTables,
+                blockCacheBytes,
+                tombstoneGracePeriodMillis);
+    }
+
+    /**
+     * Returns the options with the given durability of the commit log.
+     */
+    @NotNull
+    public DAOOptions withSyncMode(@NotNull final SyncMode syncMode) {
+        return new DAOOptions(
+                maxFlushingTables,
+                tableOptions,
+                compactionStrategy,
+                syncMode,
+                syncIntervalMillis,
+                offHeapMemTables,
+                blockCacheBytes,
+                tombstoneGracePeriodMillis);
+    }
+
+    /**
+     * Returns the options with the given period of forcing the commit log in {@link SyncMode#PERIODIC} mode.
+     */
+    @NotNull
+    public DAOOptions withSyncIntervalMillis(final long syncIntervalMillis) {
+        if (syncIntervalMillis <= 0) {
+            throw new IllegalArgumentException("Sync interval must be positive");
+        }
+        return new DAOOptions(
+                maxFlushingTables,
+                tableOptions,
+                compactionStrategy,
+                syncMode,
+                syncIntervalMillis,
+                offHeapMemTables,
+                blockCacheBytes,
+                tombstoneGracePeriodMillis);
+    }
+
+    /**
+     * Returns the options with the memTables kept in the direct memory, see {@link ArenaMemTable},
+     * so the flush threshold is limited by -XX:MaxDirectMemorySize instead of the heap size.
+     */
+    @NotNull
+    public DAOOptions withOffHeapMemTables(final boolean offHeapMemTables) {
+        return new DAOOptions(
+                maxFlushingTables,
+                tableOptions,
+                compactionStrategy,
+                syncMode,
+                syncIntervalMillis,
+                offHeapMemTables,
+                blockCacheBytes,
+                tombstoneGracePeriodMillis);
+    }
+
+    /**
+     * Returns the options with the cache of the decompressed blocks of the given size, 0 disables the cache.
+     */
+    @NotNull
+    public DAOOptions withBlockCacheBytes(final long blockCacheBytes) {
+        if (blockCacheBytes < 0) {
+            throw new IllegalArgumentException("Block cache size must not be negative");
+        }
+        return new DAOOptions(
+                maxFlushingTables,
+                tableOptions,
+                compactionStrategy,
+                syncMode,
+                syncIntervalMillis,
+                offHeapMemTables,
+                blockCacheBytes,
+                tombstoneGracePeriodMillis);
+    }
+
+    /**
+     * Returns the options with the given age after which the compactions may drop the tombstones.
+     * The rows older than a tombstone may still arrive from the other replicas with the hints and the repairs,
+     * so the period must outlast them, or the removed values would come back.
+     */
+    @NotNull
+    public DAOOptions withTombstoneGracePeriodMillis(final long tombstoneGracePeriodMillis) {
+        if (tombstoneGracePeriodMillis < 0) {
+            throw new IllegalArgumentException("Tombstone grace period must not be negative");
+        }
+        return new DAOOptions(
+                maxFlushingTables,
+                tableOptions,
+                compactionStrategy,
+                syncMode,
+                syncIntervalMillis,
+                offHeapMemTables,
+                blockCacheBytes,
+                tombstoneGracePeriodMillis);
+    }
+
+    public int getMaxFlushingTables() {
+        return maxFlushingTables;
+    }
+
+    @NotNull
+    public TableOptions getTableOptions() {
+        return tableOptions;
+    }
+
+    @NotNull
+    public CompactionStrategy getCompactionStrategy() {
+        return compactionStrategy;
+    }
+
+    @NotNull
+    public SyncMode getSyncMode() {
+        return syncMode;
+    }
+
+    public long getSyncIntervalMillis() {
+        return syncIntervalMillis;
+    }
+
+    public boolean isOffHeapMemTables() {
+        return offHeapMemTables;
+    }
+
+    public long getBlockCacheBytes() {
+        return blockCacheBytes;
+    }
+
+    public long getTombstoneGracePeriodMillis() {
+        return tombstoneGracePeriodMillis;
+    }
+}
@@ -0,0 +1,259 @@
+package ru.mail.polis.dao.vasekha;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import ru.mail.polis.storage.SSTable;
+
+/**
+ * The list of the live SSTables of {@link MyDAO}, the tables are opened from it instead of the directory listing.
+ * The manifest is replaced atomically after every flush and compaction, so the tables it lists are always
+ * a consistent set and the table files it does not list are the leftovers of the interrupted ones.
+ * File format: magic | version | entries count | entries | checksum
+ * Entry format: generation | file name size | file name | rows count | size |
+ * first key size | first key | last key size | last key
+ * where the key sizes are -1 for the empty table. The checksum is CRC32C of everything before it.
+ */
+final class Manifest {
+    static final String FILE_NAME = "MANIFEST";
+    private static final long MAGIC = 0x4D41_4E49_4645_5354L;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = Long.BYTES + Integer.BYTES * 2;
+    private final Path path;
+    private final Path tmpPath;
+    /**
+     * The entries written last by generation, the key ranges of the tables are read once.
+     */
+    private Map<Long, Entry> entries = new HashMap<>();
+
+    /**
+     * Creates the manifest of the folder, nothing is written until the tables are {@link #write written}.
+     *
+     * @param folder    the folder of the tables
+     * @param tmpSuffix the suffix of the file the manifest is written to before it replaces the previous one
+     */
+    Manifest(@NotNull final Path folder, @NotNull final String tmpSuffix) {
+        this.path = folder.resolve(FILE_NAME);
+        this.tmpPath = folder.resolve(FILE_NAME + tmpSuffix);
+    }
+
+    /**
+     * Reads the entries of the manifest.
+     *
+     * @return the entries ordered by generation or null if there is no manifest in the folder
+     * @throws IOException if the manifest cannot be read or it is corrupted
+     */
+    @Nullable
+    List<Entry> read() throws IOException {
+        final ByteBuffer buffer;
+        try {
+            buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        final int checksumOffset = buffer.limit() - Integer.BYTES;
+        if (checksumOffset < HEADER_SIZE || buffer.getLong(0) != MAGIC) {
+            throw new IOException("Invalid manifest " + path);
+        }
+        final int version = buffer.getInt(Long.BYTES);
+        if (version != VERSION) {
+            throw new IOException("Unsupported version " + version + " of manifest " + path);
+        }
+        final Checksum checksum = new CRC32C();
+        checksum.update(buffer.array(), 0, checksumOffset);
+        if ((int) checksum.getValue() != buffer.getInt(checksumOffset)) {
+            throw new IOException("Checksum mismatch of manifest " + path);
+        }
+        final int count = buffer.getInt(Long.BYTES + Integer.BYTES);
+        buffer.position(HEADER_SIZE).limit(checksumOffset);
+        final List<Entry> result = new ArrayList<>(count);
+        try {
+            for (int i = 0; i < count; i++) {
+                final long generation = buffer.getLong();
+                final byte[] fileName = new byte[buffer.getInt()];
+                buffer.get(fileName);
+                final int rowsCount = buffer.getInt();
+                final long sizeBytes = buffer.getLong();
+                result.add(new Entry(
+                        generation,
+                        new String(fileName, StandardCharsets.UTF_8),
+                        rowsCount,
+                        sizeBytes,
+                        getKey(buffer),
+                        getKey(buffer)));
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("Invalid entries of manifest " + path, e);
+        }
+        final Map<Long, Entry> read = new HashMap<>();
+        for (final Entry entry : result) {
+            read.put(entry.generation, entry);
+        }
+        synchronized (this) {
+            entries = read;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the entry of the generation read or written last, if any.
+     */
+    @Nullable
+    synchronized Entry get(final long generation) {
+        return entries.get(generation);
+    }
+
+    /**
+     * Replaces the manifest with the one listing the given tables.
+     * The manifests must be written in the same order as the tables are replaced, so the older set
+     * never overwrites the newer one.
+     * The folder is synced once the manifest is replaced, so the manifest and the renamed tables survive a crash.
+     *
+     * @param ssTables the live tables by generation
+     * @throws IOException if the manifest cannot be written, the previous one is left in place then
+     */
+    synchronized void write(@NotNull final NavigableMap<Long, SSTable> ssTables) throws IOException {
+        final Map<Long, Entry> written = new HashMap<>();
+        int size = HEADER_SIZE + Integer.BYTES;
+        for (final Map.Entry<Long, SSTable> table : ssTables.entrySet()) {
+            final String fileName = table.getValue().getPath().getFileName().toString();
+            Entry entry = entries.get(table.getKey());
+            if (entry == null || !entry.fileName.equals(fileName)) {
+                entry = Entry.of(table.getKey(), table.getValue());
+            }
+            written.put(entry.generation, entry);
+            size += entry.serializedSize();
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putLong(MAGIC).putInt(VERSION).putInt(written.size());
+        for (final Long generation : ssTables.keySet()) {
+            written.get(generation).putTo(buffer);
+        }
+        final Checksum checksum = new CRC32C();
+        checksum.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) checksum.getValue());
+        buffer.flip();
+        try (FileChannel channel = FileChannel.open(
+                tmpPath,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(tmpPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        syncFolder();
+        entries = written;
+    }
+
+    /**
+     * Makes the renames of the manifest and of the tables it lists durable, the files they replace,
+     * such as the commit logs of the flushed tables, may be deleted only after that.
+     */
+    private void syncFolder() throws IOException {
+        try (FileChannel folder = FileChannel.open(path.getParent(), StandardOpenOption.READ)) {
+            folder.force(true);
+        }
+    }
+
+    @Nullable
+    private static ByteBuffer getKey(@NotNull final ByteBuffer buffer) {
+        final int keySize = buffer.getInt();
+        if (keySize < 0) {
+            return null;
+        }
+        final ByteBuffer key = buffer.slice().limit(keySize);
+        buffer.position(buffer.position() + keySize);
+        return key.asReadOnlyBuffer();
+    }
+
+    private static void putKey(@NotNull final ByteBuffer buffer, @Nullable final ByteBuffer key) {
+        if (key == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(key.remaining()).put(key.duplicate());
+        }
+    }
+
+    /**
+     * The table listed in the manifest.
+     */
+    static final class Entry {
+        final long generation;
+        @NotNull
+        final String fileName;
+        final int rowsCount;
+        final long sizeBytes;
+        @Nullable
+        final ByteBuffer firstKey;
+        @Nullable
+        final ByteBuffer lastKey;
+
+        Entry(
+                final long generation,
+                @NotNull final String fileName,
+                final int rowsCount,
+                final long sizeBytes,
+                @Nullable final ByteBuffer firstKey,
+                @Nullable final ByteBuffer lastKey) {
+            this.generation = generation;
+            this.fileName = fileName;
+            this.rowsCount = rowsCount;
+            this.sizeBytes = sizeBytes;
+            this.firstKey = firstKey;
+            this.lastKey = lastKey;
+        }
+
+        @NotNull
+        static Entry of(final long generation, @NotNull final SSTable ssTable) {
+            return new Entry(
+                    generation,
+                    ssTable.getPath().getFileName().toString(),
+                    ssTable.getRowsCount(),
+                    ssTable.getSizeBytes(),
+                    ssTable.getFirstKey(),
+                    ssTable.getLastKey());
+        }
+
+        /**
+         * Returns whether the opened table is the one listed, the size and the rows of the file are checked
+         * to detect the file replaced or truncated behind the manifest.
+         */
+        boolean matches(@NotNull final SSTable ssTable) {
+            return ssTable.getSizeBytes() == sizeBytes && ssTable.getRowsCount() == rowsCount;
+        }
+
+        private int serializedSize() {
+            return Long.BYTES + Integer.BYTES + fileName.getBytes(StandardCharsets.UTF_8).length
+                    + Integer.BYTES + Long.BYTES
+                    + Integer.BYTES + (firstKey == null ? 0 : firstKey.remaining())
+                    + Integer.BYTES + (lastKey == null ? 0 : lastKey.remaining());
+        }
+
+        private void putTo(@NotNull final ByteBuffer buffer) {
+            final byte[] name = fileName.getBytes(StandardCharsets.UTF_8);
+            buffer.putLong(generation).putInt(name.length).put(name).putInt(rowsCount).putLong(sizeBytes);
+            putKey(buffer, firstKey);
+            putKey(buffer, lastKey);
+        }
+    }
+}
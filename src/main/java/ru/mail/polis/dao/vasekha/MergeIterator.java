@@ -0,0 +1,162 @@
+package ru.mail.polis.dao.vasekha;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.jetbrains.annotations.NotNull;
+
+import ru.mail.polis.storage.Row;
+import ru.mail.polis.storage.RowCursor;
+
+/**
+ * Merges the sorted rows of the tables keeping only the newest row of every key.
+ * The cursors of the tables are kept in the binary heap ordered by the key and then by the table,
+ * the keys are compared in place, so the rows which are shadowed or skipped are never created.
+ * The row with the greatest timestamp wins, the newer table wins the equal timestamps.
+ */
+final class MergeIterator implements Iterator<Row> {
+    private final RowCursor[] cursors;
+    /**
+     * The indexes of the cursors which have the rows left, the heap of them.
+     */
+    private final int[] heap;
+    /**
+     * The indexes of the cursors at the same key taken out of the heap.
+     */
+    private final int[] group;
+    private final boolean dropTombstones;
+    private int size;
+    private Row next;
+
+    /**
+     * Creates the merge of the tables.
+     *
+     * @param newestFirst    the cursors over the rows of the tables from the newest table to the oldest one
+     * @param dropTombstones whether the keys which are removed are skipped
+     */
+    MergeIterator(@NotNull final List<RowCursor> newestFirst, final boolean dropTombstones) {
+        this.cursors = newestFirst.toArray(new RowCursor[0]);
+        this.heap = new int[cursors.length];
+        this.group = new int[cursors.length];
+        this.dropTombstones = dropTombstones;
+        for (int source = 0; source < cursors.length; source++) {
+            if (cursors[source].isValid()) {
+                heap[size++] = source;
+            }
+        }
+        for (int i = size / 2 - 1; i >= 0; i--) {
+            siftDown(i);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            next = advance();
+        }
+        return next != null;
+    }
+
+    @Override
+    public Row next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException("No more rows");
+        }
+        final Row result = next;
+        next = null;
+        return result;
+    }
+
+    private Row advance() {
+        while (size > 0) {
+            final int top = heap[0];
+            // The least of the other keys is at one of the children of the top
+            if (!isTopKey(1, top) && !isTopKey(2, top)) {
+                final RowCursor cursor = cursors[top];
+                final Row row = dropTombstones && cursor.isRemoved() ? null : cursor.row();
+                cursor.next();
+                if (cursor.isValid()) {
+                    siftDown(0);
+                } else {
+                    removeTop();
+                }
+                if (row != null) {
+                    return row;
+                }
+                continue;
+            }
+            int groupSize = 0;
+            int newest = top;
+            while (size > 0 && (heap[0] == top || cursors[heap[0]].compareKey(cursors[top]) == 0)) {
+                final int source = heap[0];
+                if (cursors[source].getTimestamp() > cursors[newest].getTimestamp()) {
+                    newest = source;
+                }
+                group[groupSize++] = source;
+                removeTop();
+            }
+            final Row row = dropTombstones && cursors[newest].isRemoved() ? null : cursors[newest].row();
+            for (int i = 0; i < groupSize; i++) {
+                final int source = group[i];
+                cursors[source].next();
+                if (cursors[source].isValid()) {
+                    heap[size++] = source;
+                    siftUp(size - 1);
+                }
+            }
+            if (row != null) {
+                return row;
+            }
+        }
+        return null;
+    }
+
+    private boolean isTopKey(final int index, final int top) {
+        return index < size && cursors[heap[index]].compareKey(cursors[top]) == 0;
+    }
+
+    private void removeTop() {
+        heap[0] = heap[--size];
+        siftDown(0);
+    }
+
+    private void siftDown(final int from) {
+        int i = from;
+        final int source = heap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && less(heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (!less(heap[child], source)) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = source;
+    }
+
+    private void siftUp(final int from) {
+        int i = from;
+        final int source = heap[i];
+        while (i > 0) {
+            final int parent = (i - 1) / 2;
+            if (!less(source, heap[parent])) {
+                break;
+            }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = source;
+    }
+
+    private boolean less(final int first, final int second) {
+        final int compare = cursors[first].compareKey(cursors[second]);
+        return compare < 0 || compare == 0 && first < second;
+    }
+}
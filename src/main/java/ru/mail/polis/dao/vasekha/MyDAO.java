@@ -3,136 +3,1058 @@ package ru.mail.polis.dao.vasekha;
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.file.FileVisitOption;
-import java.nio.file.FileVisitResult;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
-import java.nio.file.SimpleFileVisitor;
-import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
-import java.util.EnumSet;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import com.google.common.collect.Iterators;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ru.mail.polis.dao.DAO;
-import ru.mail.polis.dao.Iters;
 import ru.mail.polis.Record;
+import ru.mail.polis.exception.NoSuchElementExceptionLite;
+import ru.mail.polis.metrics.Histogram;
+import ru.mail.polis.metrics.MetricsRegistry;
+import ru.mail.polis.storage.ArenaMemTable;
+import ru.mail.polis.storage.BlockCache;
+import ru.mail.polis.storage.CommitLog;
+import ru.mail.polis.storage.HeapMemTable;
 import ru.mail.polis.storage.MemTable;
 import ru.mail.polis.storage.Row;
+import ru.mail.polis.storage.RowCursor;
 import ru.mail.polis.storage.SSTable;
-import ru.mail.polis.storage.Time;
+import ru.mail.polis.storage.SyncMode;
+import ru.mail.polis.storage.Table;
+import ru.mail.polis.storage.TableOptions;
+import ru.mail.polis.storage.TokenRanges;
 import ru.mail.polis.storage.Value;
 
 public final class MyDAO implements DAO {
     private static final Logger log = LoggerFactory.getLogger(MyDAO.class);
     private static final String SUFFIX = ".db";
     private static final String SUFFIX_TMP = ".tmp";
+    private static final String SUFFIX_LOG = ".log";
+    private static final String SUFFIX_CORRUPTED = ".corrupted";
+    private static final String REVISION_SEPARATOR = "-";
+    private static final double NANOS = 1e-9;
+    private static final long MIN_FLUSH_RETRY_MILLIS = 100;
+    private static final long MAX_FLUSH_RETRY_MILLIS = TimeUnit.SECONDS.toMillis(10);
     private final File folder;
     private final long flushThresholdBytes;
-    private final MemTable memTable;
-    private final Collection<SSTable> ssTables;
+    private final int maxFlushingTables;
+    private final TableOptions tableOptions;
+    private final CompactionStrategy compactionStrategy;
+    private final SyncMode syncMode;
+    private final long tombstoneGracePeriodMillis;
+    private final boolean offHeapMemTables;
+    @Nullable
+    private final BlockCache blockCache;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Condition flushed = lock.writeLock().newCondition();
+    private final Object compactionLock = new Object();
+    private final ScheduledExecutorService flusher;
+    private final ExecutorService compactor;
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+    private final ScheduledExecutorService syncer;
+    /**
+     * Lists the SSTables of {@link #tables}, it is locked while the SSTables are replaced and the manifest
+     * is written, so the manifests follow the order of the replacements.
+     */
+    private final Manifest manifest;
+    private volatile TableSet tables;
+    /**
+     * The error of the last failed flush unless a flush has succeeded since then, it is thrown to the writers
+     * instead of blocking them while the failed flushes are retried.
+     */
+    @Nullable
+    private volatile IOException flushFailure;
+    /**
+     * The rows shadowed within the SSTables as of the last {@link #rangeDigests(TokenRanges)} call.
+     */
+    @Nullable
+    private volatile ShadowedDigests shadowedDigests;
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private final Histogram flushNanos = metrics.histogram(
+            "dao_flush_duration_seconds", "Time to write a memTable to the SSTable", NANOS);
+    private final Histogram compactionNanos = metrics.histogram(
+            "dao_compaction_duration_seconds", "Time to merge the SSTables", NANOS);
+    private final Histogram probedTables = metrics.histogram(
+            "dao_sstables_probed", "SSTables read by a lookup, not counting the ones rejected by Bloom filters", 1);
+    /**
+     * The log of the current memTable, replaced together with it under the write lock.
+     */
+    private CommitLog commitLog;
 
     /**
      * Creates persistence DAO.
      *
      * @param folder              the folder in which files will be written and read
      * @param flushThresholdBytes threshold of size of the memTable
-     * @throws IOException if an I/O error is thrown by a visitor method
+     * @throws IOException if the tables cannot be opened or the commit logs cannot be replayed
      */
     public MyDAO(@NotNull final File folder, final long flushThresholdBytes) throws IOException {
+        this(folder, flushThresholdBytes, DAOOptions.DEFAULT);
+    }
+
+    /**
+     * Creates persistence DAO.
+     *
+     * @param folder              the folder in which files will be written and read
+     * @param flushThresholdBytes threshold of size of the memTable
+     * @param options             parameters of flushes, compactions and written files
+     * @throws IOException if the tables cannot be opened or the commit logs cannot be replayed
+     */
+    public MyDAO(
+            @NotNull final File folder,
+            final long flushThresholdBytes,
+            @NotNull final DAOOptions options) throws IOException {
         this.folder = folder;
         this.flushThresholdBytes = flushThresholdBytes;
-        memTable = new MemTable();
-        ssTables = new ArrayList<>();
-        Files.walkFileTree(folder.toPath(), EnumSet.noneOf(FileVisitOption.class), 1, new SimpleFileVisitor<>() {
-            @Override
-            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
-                if (file.toString().endsWith(SUFFIX)) {
+        this.maxFlushingTables = options.getMaxFlushingTables();
+        this.tableOptions = options.getTableOptions();
+        this.compactionStrategy = options.getCompactionStrategy();
+        this.syncMode = options.getSyncMode();
+        this.tombstoneGracePeriodMillis = options.getTombstoneGracePeriodMillis();
+        this.offHeapMemTables = options.isOffHeapMemTables();
+        this.blockCache = options.getBlockCacheBytes() == 0 ? null : new BlockCache(options.getBlockCacheBytes());
+        this.manifest = new Manifest(folder.toPath(), SUFFIX_TMP);
+        final long start = System.nanoTime();
+        final NavigableMap<Long, Path> tablePaths = new TreeMap<>();
+        final NavigableMap<Long, Path> commitLogs = new TreeMap<>();
+        listFiles(tablePaths, commitLogs);
+        final NavigableMap<Long, SSTable> ssTables = openTables(tablePaths);
+        replayCommitLogs(commitLogs, ssTables);
+        manifest.write(ssTables);
+        for (final Path commitLog : commitLogs.values()) {
+            Files.delete(commitLog);
+        }
+        long generation = ssTables.isEmpty() ? 0 : ssTables.lastKey() + 1;
+        if (!commitLogs.isEmpty()) {
+            generation = Math.max(generation, commitLogs.lastKey() + 1);
+        }
+        this.tables = TableSet.create(newMemTable(), ssTables, generation);
+        this.commitLog = new CommitLog(logPath(generation), syncMode);
+        final ScheduledThreadPoolExecutor flusher = new ScheduledThreadPoolExecutor(
+                1, new ThreadFactoryBuilder().setNameFormat("flusher-%d").build());
+        // The retries waiting for their delay are left to close, which flushes the remaining memTables itself
+        flusher.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        this.flusher = flusher;
+        this.compactor = Executors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder().setNameFormat("compactor-%d").build());
+        this.syncer = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("log-syncer-%d").build());
+        if (syncMode == SyncMode.PERIODIC) {
+            final long interval = options.getSyncIntervalMillis();
+            syncer.scheduleWithFixedDelay(this::syncCommitLog, interval, interval, TimeUnit.MILLISECONDS);
+        }
+        registerMetrics();
+        final long openNanos = System.nanoTime() - start;
+        metrics.gauge("dao_open_duration_seconds", "Time to open the tables and replay the commit logs", NANOS,
+                () -> openNanos);
+        scheduleCompaction();
+    }
+
+    /**
+     * Collects the tables listed in the manifest, or all the tables in the folder if there is no manifest yet,
+     * and the commit logs. Deletes the temporary files and the tables the manifest does not list,
+     * they are left by the flushes and the compactions which have not completed.
+     * The files which are not named as the tables and the logs and the directories are left alone.
+     */
+    private void listFiles(
+            @NotNull final NavigableMap<Long, Path> tablePaths,
+            @NotNull final NavigableMap<Long, Path> commitLogs) throws IOException {
+        final List<Manifest.Entry> entries = manifest.read();
+        final Set<String> listed = new HashSet<>();
+        if (entries != null) {
+            for (final Manifest.Entry entry : entries) {
+                listed.add(entry.fileName);
+                tablePaths.put(entry.generation, folder.toPath().resolve(entry.fileName));
+            }
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(folder.toPath(), Files::isRegularFile)) {
+            for (final Path file : files) {
+                final String fileName = file.getFileName().toString();
+                if (fileName.endsWith(SUFFIX_TMP)) {
+                    log.info("Deleting temporary file {}", fileName);
+                    Files.delete(file);
+                } else if (fileName.endsWith(SUFFIX)) {
+                    final long generation = generation(fileName);
+                    if (generation < 0) {
+                        log.error("Cannot parse generation of SSTable " + fileName);
+                    } else if (entries != null && !listed.contains(fileName)) {
+                        log.info("Deleting SSTable {} not listed in the manifest", fileName);
+                        Files.delete(file);
+                    } else if (entries == null) {
+                        final Path previous = tablePaths.get(generation);
+                        if (previous == null || revision(previous) < revision(file)) {
+                            tablePaths.put(generation, file);
+                        }
+                    }
+                } else if (fileName.endsWith(SUFFIX_LOG)) {
                     try {
-                        ssTables.add(new SSTable(file));
-                    } catch (IllegalArgumentException iae) {
-                        log.error("Cannot create SSTable from " + file.getFileName() + ": " + iae.getMessage());
+                        final long generation = Long.parseLong(
+                                fileName.substring(0, fileName.length() - SUFFIX_LOG.length()));
+                        commitLogs.put(generation, file);
+                    } catch (NumberFormatException nfe) {
+                        log.error("Cannot parse generation of commit log " + fileName);
                     }
                 }
-                return FileVisitResult.CONTINUE;
             }
+        }
+    }
+
+    /**
+     * Opens the tables in parallel.
+     * A table listed in the manifest which is missing, corrupted or does not match its entry fails the open,
+     * as the manifest written without it would make the next open delete it.
+     * The table found without the manifest which cannot be opened is renamed aside and skipped.
+     */
+    @NotNull
+    private NavigableMap<Long, SSTable> openTables(@NotNull final NavigableMap<Long, Path> tablePaths)
+            throws IOException {
+        final NavigableMap<Long, SSTable> ssTables = new TreeMap<>();
+        if (tablePaths.isEmpty()) {
+            return ssTables;
+        }
+        final ExecutorService opener = Executors.newFixedThreadPool(
+                Math.min(tablePaths.size(), Runtime.getRuntime().availableProcessors()),
+                new ThreadFactoryBuilder().setNameFormat("table-opener-%d").build());
+        try {
+            final Map<Long, Future<SSTable>> opened = new TreeMap<>();
+            for (final Map.Entry<Long, Path> entry : tablePaths.entrySet()) {
+                opened.put(entry.getKey(), opener.submit(() -> openTable(entry.getKey(), entry.getValue())));
+            }
+            for (final Map.Entry<Long, Future<SSTable>> entry : opened.entrySet()) {
+                final SSTable ssTable = entry.getValue().get();
+                if (ssTable != null) {
+                    ssTables.put(entry.getKey(), ssTable);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while opening the tables", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Cannot open the tables", e.getCause());
+        } finally {
+            opener.shutdownNow();
+        }
+        return ssTables;
+    }
+
+    @Nullable
+    private SSTable openTable(final long generation, @NotNull final Path path) throws IOException {
+        final String fileName = path.getFileName().toString();
+        final Manifest.Entry entry = manifest.get(generation);
+        if (entry == null) {
+            try {
+                return new SSTable(path, blockCache);
+            } catch (IllegalArgumentException iae) {
+                final Path corrupted = path.resolveSibling(fileName + SUFFIX_CORRUPTED);
+                log.error("Cannot create SSTable from " + fileName + ", moving it to " + corrupted.getFileName()
+                        + ": " + iae.getMessage());
+                Files.move(path, corrupted, StandardCopyOption.REPLACE_EXISTING);
+                return null;
+            }
+        }
+        final SSTable ssTable;
+        try {
+            ssTable = new SSTable(path, blockCache);
+        } catch (NoSuchFileException e) {
+            throw new IOException("SSTable " + fileName + " listed in the manifest is missing", e);
+        } catch (IllegalArgumentException iae) {
+            throw new IOException("SSTable " + fileName + " listed in the manifest is corrupted", iae);
+        }
+        if (!entry.matches(ssTable)) {
+            throw new IOException("SSTable " + fileName + " does not match the manifest");
+        }
+        return ssTable;
+    }
+
+    private void registerMetrics() {
+        metrics.gauge("dao_memtable_bytes", "Size of the memTable receiving the writes",
+                () -> tables.memTable.getSizeBytes());
+        metrics.gauge("dao_flushing_memtables", "MemTables waiting to be flushed", () -> tables.flushing.size());
+        metrics.gauge("dao_sstables", "SSTables on disk", () -> tables.ssTables.size());
+        metrics.gauge("dao_sstables_bytes", "Size of the SSTables on disk", () -> {
+            long sizeBytes = 0;
+            for (final SSTable ssTable : tables.ssTables.values()) {
+                sizeBytes += ssTable.getSizeBytes();
+            }
+            return sizeBytes;
         });
+        final BlockCache cache = blockCache;
+        if (cache != null) {
+            metrics.gauge("dao_block_cache_bytes", "Size of the cached blocks", cache::getSizeBytes);
+            metrics.counter("dao_block_cache_hits_total", "Blocks found in the cache", cache::getHits);
+            metrics.counter("dao_block_cache_misses_total", "Blocks read from the SSTables", cache::getMisses);
+            metrics.counter("dao_block_cache_evictions_total", "Blocks evicted from the cache", cache::getEvictions);
+        }
+    }
+
+    /**
+     * Flushes the rows of the logs left by the memTables which have not been flushed before the process stopped.
+     * The log whose table exists has been flushed, but not deleted yet.
+     * The logs are deleted by the caller once the manifest lists their tables.
+     */
+    private void replayCommitLogs(
+            @NotNull final NavigableMap<Long, Path> commitLogs,
+            @NotNull final NavigableMap<Long, SSTable> ssTables) throws IOException {
+        for (final Map.Entry<Long, Path> entry : commitLogs.entrySet()) {
+            final long generation = entry.getKey();
+            if (!ssTables.containsKey(generation)) {
+                final MemTable memTable = newMemTable();
+                final int rows = CommitLog.replay(entry.getValue(), memTable);
+                log.info("Replayed {} rows from {}", rows, entry.getValue().getFileName());
+                if (memTable.getSizeBytes() > 0) {
+                    ssTables.put(generation, writeTable(generation, memTable));
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the folder of the files of the DAO.
+     */
+    @NotNull
+    public File getFolder() {
+        return folder;
+    }
+
+    /**
+     * Returns the metrics of the tables, flushes and compactions.
+     */
+    @NotNull
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the cache of the decompressed blocks of the tables or null if it is disabled.
+     */
+    @Nullable
+    public BlockCache getBlockCache() {
+        return blockCache;
+    }
+
+    /**
+     * Merges the rows keeping only the newest one of every key, tombstones included.
+     *
+     * @param newestFirst the cursors over the tables from the newest one to the oldest one
+     */
+    @NotNull
+    private static Iterator<Row> mergedRowIterator(@NotNull final List<RowCursor> newestFirst) {
+        return new MergeIterator(newestFirst, false);
     }
 
     @NotNull
-    private Iterator<Row> aliveRowIterator(@NotNull final ByteBuffer from) {
-        final Collection<Iterator<Row>> iterators = new ArrayList<>();
-        iterators.add(memTable.iterator(from));
-        for (final SSTable ssTable : ssTables) {
-            iterators.add(ssTable.iterator(from));
+    static Iterator<Row> aliveRowIterator(@NotNull final List<RowCursor> newestFirst) {
+        return new MergeIterator(newestFirst, true);
+    }
+
+    @NotNull
+    private static List<RowCursor> cursors(
+            @NotNull final TableSet snapshot,
+            @NotNull final ByteBuffer from) {
+        final List<RowCursor> cursors = new ArrayList<>(snapshot.newestFirst.size());
+        cursors.add(RowCursor.of(snapshot.memTable.iterator(from)));
+        for (final MemTable memTable : snapshot.flushing.descendingMap().values()) {
+            cursors.add(RowCursor.of(memTable.iterator(from)));
+        }
+        for (final SSTable ssTable : snapshot.ssTables.descendingMap().values()) {
+            cursors.add(ssTable.cursor(from));
         }
-        final Iterator<Row> mergeSorted = Iterators.mergeSorted(iterators, Row.COMPARATOR);
-        final Iterator<Row> collapsed = Iters.collapseEquals(mergeSorted, Row::getKey);
-        return Iterators.filter(collapsed, row -> !row.getValue().isRemoved());
+        return cursors;
     }
 
     @NotNull
     @Override
     public Iterator<Record> iterator(@NotNull final ByteBuffer from) {
-        final Iterator<Row> alive = aliveRowIterator(from);
+        final Iterator<Row> alive = aliveRowIterator(cursors(tables, from));
         return Iterators.transform(alive, row -> Record.of(row.getKey(), row.getValue().getData()));
     }
 
+    @NotNull
     @Override
-    public void upsert(@NotNull final ByteBuffer key, @NotNull final ByteBuffer value) throws IOException {
-        memTable.upsert(key, value);
-        if (memTable.getSizeBytes() >= flushThresholdBytes) {
-            flushMemTable();
+    public Iterator<Row> rowIterator(@NotNull final ByteBuffer from) {
+        return mergedRowIterator(cursors(tables, from));
+    }
+
+    /**
+     * Merges only the SSTables which have rows in the ranges, the rows of a key are always in the same range,
+     * so the skipped tables shadow nothing. The SSTables count their rows by the ranges once.
+     */
+    @NotNull
+    @Override
+    public Iterator<Row> rowIterator(
+            @NotNull final TokenRanges ranges,
+            @NotNull final BitSet wanted) throws IOException {
+        final TableSet current = tables;
+        final List<RowCursor> cursors = new ArrayList<>(current.newestFirst.size());
+        cursors.add(RowCursor.of(current.memTable.iterator(Value.EMPTY_BUFFER)));
+        for (final MemTable memTable : current.flushing.descendingMap().values()) {
+            cursors.add(RowCursor.of(memTable.iterator(Value.EMPTY_BUFFER)));
+        }
+        for (final SSTable ssTable : current.ssTables.descendingMap().values()) {
+            if (ssTable.hasRowsIn(ranges, wanted)) {
+                cursors.add(ssTable.cursor(Value.EMPTY_BUFFER));
+            }
+        }
+        return Iterators.filter(mergedRowIterator(cursors), row -> wanted.get(ranges.rangeOf(row.getKey())));
+    }
+
+    /**
+     * Adds up the sums of all the tables, the SSTables compute theirs once, and subtracts the rows
+     * shadowed by the rows of the same keys with the greater timestamps. The shadowed rows of the SSTables
+     * are cached, so only the keys of the tables flushed since the last call and of the memTables are looked up
+     * in the older tables. The sums of the ranges written meanwhile may be off until the next call.
+     */
+    @NotNull
+    @Override
+    public long[] rangeDigests(@NotNull final TokenRanges ranges) throws IOException {
+        final TableSet current = tables;
+        final long[] sums = new long[ranges.size()];
+        for (final Table table : current.newestFirst) {
+            table.addDigests(ranges, sums);
+        }
+        final List<SSTable> ssTables =
+                Collections.unmodifiableList(new ArrayList<>(current.ssTables.descendingMap().values()));
+        if (!ssTables.isEmpty()) {
+            final ShadowedDigests cached = shadowedDigests;
+            final long[] shadowed;
+            final int older;
+            if (cached != null && cached.isOlderPartOf(ssTables, ranges)) {
+                shadowed = cached.getSums();
+                older = ssTables.size() - cached.newestFirst.size();
+            } else {
+                // Nothing is shadowed within the oldest table alone
+                shadowed = new long[ranges.size()];
+                older = ssTables.size() - 1;
+            }
+            if (older > 0) {
+                addShadowed(ssTables.subList(0, older), ssTables.subList(older, ssTables.size()), ranges, shadowed);
+                shadowedDigests = new ShadowedDigests(ssTables, ranges, shadowed);
+            }
+            for (int i = 0; i < sums.length; i++) {
+                sums[i] -= shadowed[i];
+            }
+        }
+        final List<Table> memTables = current.newestFirst.subList(0, current.newestFirst.size() - ssTables.size());
+        final long[] shadowed = new long[ranges.size()];
+        addShadowed(memTables, ssTables, ranges, shadowed);
+        for (int i = 0; i < sums.length; i++) {
+            sums[i] -= shadowed[i];
+        }
+        return sums;
+    }
+
+    /**
+     * Adds the digests of the rows which the newer tables bring into shadow, given the ones shadowed
+     * within the older tables are already counted: every row of the newer tables but the newest one
+     * of its key and the newest row of the older tables if a newer table has a newer one.
+     */
+    private static void addShadowed(
+            @NotNull final List<? extends Table> newer,
+            @NotNull final List<? extends Table> older,
+            @NotNull final TokenRanges ranges,
+            @NotNull final long[] shadowed) throws IOException {
+        for (int i = 0; i < newer.size(); i++) {
+            final Iterator<Row> rows = newer.get(i).iterator(Value.EMPTY_BUFFER);
+            while (rows.hasNext()) {
+                Row newest = rows.next();
+                final ByteBuffer key = newest.getKey();
+                // The rows of the key have been taken into account along with the one of the newer table
+                if (contains(newer.subList(0, i), key)) {
+                    continue;
+                }
+                long sum = 0;
+                for (final Table table : newer.subList(i + 1, newer.size())) {
+                    final Row row = table.get(key);
+                    if (row == null) {
+                        continue;
+                    }
+                    if (isNewer(row, newest)) {
+                        sum += newest.getDigest();
+                        newest = row;
+                    } else {
+                        sum += row.getDigest();
+                    }
+                }
+                final Row newestOlder = newest(older, key);
+                if (newestOlder != null) {
+                    sum += isNewer(newestOlder, newest) ? newest.getDigest() : newestOlder.getDigest();
+                }
+                shadowed[ranges.rangeOf(key)] += sum;
+            }
+        }
+    }
+
+    /**
+     * Returns the row of the key with the greatest timestamp, the newer table wins the equal ones.
+     */
+    @Nullable
+    private static Row newest(@NotNull final List<? extends Table> newestFirst, @NotNull final ByteBuffer key) {
+        Row newest = null;
+        for (final Table table : newestFirst) {
+            final Row row = table.get(key);
+            if (row != null && (newest == null || isNewer(row, newest))) {
+                newest = row;
+            }
+        }
+        return newest;
+    }
+
+    /**
+     * Probes all the tables the Bloom filters do not reject and takes the row with the greatest timestamp,
+     * as the rows written by the other nodes may get into the newer tables after the newer rows.
+     */
+    @NotNull
+    @Override
+    public ByteBuffer get(@NotNull final ByteBuffer key) throws NoSuchElementException {
+        final Value value = getValue(key);
+        if (value == null || value.isRemoved()) {
+            throw new NoSuchElementExceptionLite("Not found");
+        }
+        return value.getData();
+    }
+
+    @Nullable
+    @Override
+    public Value getValue(@NotNull final ByteBuffer key) {
+        final List<Table> newestFirst = tables.newestFirst;
+        Row newest = null;
+        int probed = 0;
+        try {
+            for (int i = 0; i < newestFirst.size(); i++) {
+                final Table table = newestFirst.get(i);
+                if (table instanceof SSTable) {
+                    if (!((SSTable) table).mightContain(key)) {
+                        continue;
+                    }
+                    probed++;
+                }
+                final Row row = table.get(key);
+                if (row != null && (newest == null || isNewer(row, newest))) {
+                    newest = row;
+                }
+            }
+            return newest == null ? null : newest.getValue();
+        } finally {
+            probedTables.record(probed);
+        }
+    }
+
+    /**
+     * Returns whether the row of the older table wins over the one of the newer table,
+     * the newer table wins the equal timestamps as {@link MergeIterator} does.
+     */
+    private static boolean isNewer(@NotNull final Row older, @NotNull final Row newer) {
+        return older.getValue().getTimestamp() > newer.getValue().getTimestamp();
+    }
+
+    private static boolean contains(@NotNull final List<? extends Table> tables, @NotNull final ByteBuffer key) {
+        for (int i = 0; i < tables.size(); i++) {
+            if (tables.get(i).get(key) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @NotNull
+    @Override
+    public Map<ByteBuffer, ByteBuffer> getAll(@NotNull final Collection<ByteBuffer> keys) {
+        final Map<ByteBuffer, ByteBuffer> result = new TreeMap<>();
+        for (final Map.Entry<ByteBuffer, Value> entry : getValues(keys).entrySet()) {
+            if (!entry.getValue().isRemoved()) {
+                result.put(entry.getKey(), entry.getValue().getData());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Sorts the keys and passes all of them to every table from the newest to the oldest one,
+     * so each table is searched in one pass, and takes the rows with the greatest timestamps.
+     */
+    @NotNull
+    @Override
+    public Map<ByteBuffer, Value> getValues(@NotNull final Collection<ByteBuffer> keys) {
+        final List<ByteBuffer> sortedKeys = new ArrayList<>(new TreeSet<>(keys));
+        final Row[] rows = new Row[sortedKeys.size()];
+        final Row[] found = new Row[sortedKeys.size()];
+        for (final Table table : tables.newestFirst) {
+            Arrays.fill(found, null);
+            table.getAll(sortedKeys, found);
+            for (int i = 0; i < rows.length; i++) {
+                if (found[i] != null && (rows[i] == null || isNewer(found[i], rows[i]))) {
+                    rows[i] = found[i];
+                }
+            }
+        }
+        final Map<ByteBuffer, Value> result = new TreeMap<>();
+        for (int i = 0; i < rows.length; i++) {
+            if (rows[i] != null) {
+                result.put(sortedKeys.get(i), rows[i].getValue());
+            }
         }
+        return result;
+    }
+
+    @Override
+    public void upsert(@NotNull final ByteBuffer key, @NotNull final ByteBuffer value) throws IOException {
+        apply(Collections.singletonList(Row.of(key, value)));
     }
 
     @Override
     public void remove(@NotNull final ByteBuffer key) throws IOException {
-        memTable.remove(key);
-        if (memTable.getSizeBytes() >= flushThresholdBytes) {
-            flushMemTable();
+        apply(Collections.singletonList(Row.remove(key)));
+    }
+
+    /**
+     * Stores the value whatever its timestamp is, the lookups take the row with the greatest timestamp.
+     */
+    @Override
+    public void putValue(@NotNull final ByteBuffer key, @NotNull final Value value) throws IOException {
+        apply(Collections.singletonList(Row.of(key, value)));
+    }
+
+    /**
+     * Applies the values with a single append to the commit log.
+     */
+    @Override
+    public void upsertAll(@NotNull final Map<ByteBuffer, ByteBuffer> values) throws IOException {
+        final List<Row> rows = new ArrayList<>(values.size());
+        for (final Map.Entry<ByteBuffer, ByteBuffer> entry : values.entrySet()) {
+            final ByteBuffer value = entry.getValue();
+            rows.add(value == null ? Row.remove(entry.getKey()) : Row.of(entry.getKey(), value));
+        }
+        apply(rows);
+    }
+
+    /**
+     * Applies the values with a single append to the commit log.
+     */
+    @Override
+    public void putValues(@NotNull final Map<ByteBuffer, Value> values) throws IOException {
+        final List<Row> rows = new ArrayList<>(values.size());
+        for (final Map.Entry<ByteBuffer, Value> entry : values.entrySet()) {
+            rows.add(Row.of(entry.getKey(), entry.getValue()));
+        }
+        apply(rows);
+    }
+
+    /**
+     * Logs the rows and puts them to the memTable.
+     * The read lock keeps the log and the memTable from being replaced in between.
+     *
+     * @throws IOException if the rows cannot be logged or the flushes fail and there is no room for another memTable
+     */
+    private void apply(@NotNull final List<Row> rows) throws IOException {
+        final IOException failure = flushFailure;
+        if (failure != null && tables.flushing.size() >= maxFlushingTables) {
+            throw new IOException("Cannot write while the memTables are not flushed", failure);
+        }
+        final long sizeBytes;
+        lock.readLock().lock();
+        try {
+            commitLog.appendAll(rows);
+            final MemTable memTable = tables.memTable;
+            for (int i = 0; i < rows.size(); i++) {
+                memTable.put(rows.get(i));
+            }
+            sizeBytes = memTable.getSizeBytes();
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (sizeBytes >= flushThresholdBytes) {
+            scheduleFlush();
+        }
+    }
+
+    private void syncCommitLog() {
+        lock.readLock().lock();
+        try {
+            commitLog.sync();
+        } catch (IOException e) {
+            log.error("Cannot sync commit log", e);
+        } finally {
+            lock.readLock().unlock();
         }
     }
 
     @Override
     public void close() throws IOException {
-        if (memTable.getSizeBytes() > 0) {
-            flushMemTable();
+        syncer.shutdown();
+        lock.writeLock().lock();
+        try {
+            if (tables.memTable.getSizeBytes() > 0) {
+                freezeMemTable();
+            }
+            // The log of the new memTable has no file as nothing has been written to it
+            commitLog.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        try {
+            flusher.shutdown();
+            try {
+                if (!flusher.awaitTermination(1, TimeUnit.MINUTES)) {
+                    throw new IOException("Cannot wait for the flusher to terminate");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the flusher", e);
+            }
+            // Retry the flushes which have failed in background
+            for (final Map.Entry<Long, MemTable> entry : tables.flushing.entrySet()) {
+                flush(entry.getKey(), entry.getValue());
+            }
+        } finally {
+            // The compactor thread does not outlive the DAO even if the flushes have failed
+            compactor.shutdown();
+        }
+        try {
+            if (!compactor.awaitTermination(1, TimeUnit.MINUTES)) {
+                throw new IOException("Cannot wait for the compactor to terminate");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the compactor", e);
+        }
+    }
+
+    /**
+     * Freezes the memTable unless another writer has already done it
+     * while this one was waiting for the lock.
+     * Blocks while there are too many tables waiting for the flusher unless the flushes fail.
+     */
+    private void scheduleFlush() throws IOException {
+        lock.writeLock().lock();
+        try {
+            while (tables.flushing.size() >= maxFlushingTables) {
+                if (flushFailure != null) {
+                    // The memTable is frozen by the first writer after the flusher recovers
+                    return;
+                }
+                flushed.await();
+            }
+            if (tables.memTable.getSizeBytes() >= flushThresholdBytes) {
+                freezeMemTable();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the flusher", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Moves the memTable to the flushing ones and submits it to the flusher.
+     * Must be called under the write lock.
+     */
+    private void freezeMemTable() {
+        final TableSet current = tables;
+        final long generation = current.generation;
+        final MemTable memTable = current.memTable;
+        try {
+            commitLog.close();
+        } catch (IOException e) {
+            log.error("Cannot close commit log of generation " + generation, e);
         }
+        tables = current.markAsFlushing(newMemTable());
+        commitLog = new CommitLog(logPath(tables.generation), syncMode);
+        flusher.execute(() -> flushInBackground(generation, memTable, MIN_FLUSH_RETRY_MILLIS));
     }
 
-    private void flushMemTable() throws IOException {
-        final String tmpFileName = Time.getTimeNanos() + SUFFIX_TMP;
-        memTable.flush(Path.of(folder.getAbsolutePath(), tmpFileName));
-        final String finalFileName = Time.getTimeNanos() + SUFFIX;
-        Files.move(
-                Path.of(folder.getAbsolutePath(), tmpFileName),
-                Path.of(folder.getAbsolutePath(), finalFileName),
-                StandardCopyOption.ATOMIC_MOVE);
-        ssTables.add(new SSTable(Path.of(folder.getAbsolutePath(), finalFileName)));
+    /**
+     * Flushes the memTable, the failed flush is retried with the doubling delay until it succeeds
+     * or the DAO is closed.
+     */
+    private void flushInBackground(final long generation, @NotNull final MemTable memTable, final long retryMillis) {
+        try {
+            flush(generation, memTable);
+        } catch (IOException e) {
+            if (!tables.flushing.containsKey(generation)) {
+                // The table has replaced the memTable, the next flush lists it in the manifest
+                log.error("Cannot complete the flush of generation " + generation, e);
+                return;
+            }
+            log.error("Cannot flush memTable of generation " + generation + ", retrying in " + retryMillis + " ms", e);
+            lock.writeLock().lock();
+            try {
+                flushFailure = e;
+                flushed.signalAll();
+            } finally {
+                lock.writeLock().unlock();
+            }
+            final long nextRetryMillis = Math.min(retryMillis * 2, MAX_FLUSH_RETRY_MILLIS);
+            try {
+                flusher.schedule(
+                        () -> flushInBackground(generation, memTable, nextRetryMillis),
+                        retryMillis,
+                        TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException rejected) {
+                // The DAO is being closed, close retries the flush itself
+            }
+        }
+    }
+
+    private void flush(final long generation, @NotNull final MemTable memTable) throws IOException {
+        final long start = System.nanoTime();
+        final SSTable ssTable = writeTable(generation, memTable);
+        flushNanos.record(System.nanoTime() - start);
+        synchronized (manifest) {
+            final TableSet flushedTables;
+            lock.writeLock().lock();
+            try {
+                flushedTables = tables.moveToFlushed(generation, ssTable);
+                tables = flushedTables;
+                flushFailure = null;
+                flushed.signalAll();
+            } finally {
+                lock.writeLock().unlock();
+            }
+            // The manifest syncs the folder, so the log is deleted only after the rename of the table is durable
+            manifest.write(flushedTables.ssTables);
+            // The table cannot be compacted away before its log is gone, or a crash would replay the log over it
+            Files.deleteIfExists(logPath(generation));
+        }
+        scheduleCompaction();
+    }
+
+    @NotNull
+    private SSTable writeTable(final long generation, @NotNull final MemTable memTable) throws IOException {
+        final Path tmpPath = Path.of(folder.getAbsolutePath(), generation + SUFFIX_TMP);
+        final Path finalPath = tablePath(generation, 0);
+        try {
+            memTable.flush(tmpPath, tableOptions);
+            Files.move(tmpPath, finalPath, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            deleteTmp(tmpPath, e);
+            throw e;
+        }
+        return new SSTable(finalPath, blockCache);
+    }
+
+    /**
+     * Deletes the file left by the failed write, the writer creates a new file and would fail on it
+     * when the write is retried.
+     */
+    private static void deleteTmp(@NotNull final Path tmpPath, @NotNull final Exception cause) {
+        try {
+            Files.deleteIfExists(tmpPath);
+        } catch (IOException e) {
+            cause.addSuppressed(e);
+        }
+    }
+
+    @NotNull
+    private MemTable newMemTable() {
+        return offHeapMemTables ? new ArenaMemTable() : new HeapMemTable();
+    }
+
+    /**
+     * Returns the path of the table file, the revision is incremented every time the table
+     * is replaced by the result of the compaction, so the file listed in the manifest is never overwritten.
+     */
+    @NotNull
+    private Path tablePath(final long generation, final int revision) {
+        final String name = revision == 0 ? Long.toString(generation) : generation + REVISION_SEPARATOR + revision;
+        return Path.of(folder.getAbsolutePath(), name + SUFFIX);
+    }
+
+    /**
+     * Returns the generation of the table file name or -1 if it is not the name of a table.
+     */
+    private static long generation(@NotNull final String fileName) {
+        final String name = fileName.substring(0, fileName.length() - SUFFIX.length());
+        final int separator = name.indexOf(REVISION_SEPARATOR);
+        try {
+            final long generation = Long.parseLong(separator < 0 ? name : name.substring(0, separator));
+            if (separator >= 0) {
+                Integer.parseInt(name.substring(separator + 1));
+            }
+            return generation;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static int revision(@NotNull final Path path) {
+        final String fileName = path.getFileName().toString();
+        final String name = fileName.substring(0, fileName.length() - SUFFIX.length());
+        final int separator = name.indexOf(REVISION_SEPARATOR);
+        return separator < 0 ? 0 : Integer.parseInt(name.substring(separator + 1));
     }
 
+    @NotNull
+    private Path logPath(final long generation) {
+        return Path.of(folder.getAbsolutePath(), generation + SUFFIX_LOG);
+    }
+
+    /**
+     * Submits the background compaction unless it is already pending.
+     */
+    private void scheduleCompaction() {
+        if (compactor.isShutdown() || !compactionScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            compactor.execute(() -> {
+                compactionScheduled.set(false);
+                try {
+                    compactSelected();
+                } catch (IOException e) {
+                    log.error("Cannot compact tables", e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The compactor has just been shut down
+            compactionScheduled.set(false);
+        }
+    }
+
+    /**
+     * Merges the tables selected by the strategy until it finds nothing to compact.
+     */
+    private void compactSelected() throws IOException {
+        while (!compactor.isShutdown()) {
+            synchronized (compactionLock) {
+                final NavigableMap<Long, SSTable> ssTables = tables.ssTables;
+                final NavigableMap<Long, SSTable> selected = compactionStrategy.select(ssTables);
+                if (selected == null) {
+                    return;
+                }
+                // Tombstones may shadow values in the older tables unless the oldest table is merged too
+                merge(selected, selected.firstKey().equals(ssTables.firstKey()));
+            }
+        }
+    }
+
+    /**
+     * Merges all the tables into a single one.
+     * The memTable is flushed first, reads and writes are not blocked while the tables are merged.
+     * Smaller merges are run in background after flushes according to the {@link CompactionStrategy}.
+     * The tombstones are dropped only once they are older than the grace period of {@link DAOOptions}.
+     */
     @Override
     public void compact() throws IOException {
-        final Iterator<Row> alive = aliveRowIterator(Value.EMPTY_BUFFER);
-        final String tmpFileName = Time.getTimeNanos() + SUFFIX_TMP;
-        SSTable.writeToFile(Path.of(folder.getAbsolutePath(), tmpFileName), alive);
-        for (final SSTable ssTable : ssTables) {
+        synchronized (compactionLock) {
+            final TableSet snapshot;
+            lock.writeLock().lock();
+            try {
+                if (tables.memTable.getSizeBytes() > 0) {
+                    freezeMemTable();
+                }
+                while (!tables.flushing.isEmpty()) {
+                    final IOException failure = flushFailure;
+                    if (failure != null) {
+                        throw new IOException("Cannot compact while the memTables are not flushed", failure);
+                    }
+                    flushed.await();
+                }
+                snapshot = tables;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the flusher", e);
+            } finally {
+                lock.writeLock().unlock();
+            }
+            if (!snapshot.ssTables.isEmpty()) {
+                merge(snapshot.ssTables, true);
+            }
+        }
+    }
+
+    /**
+     * Merges the tables contiguous by generation and atomically replaces them with the result.
+     * Must be called under the compaction lock.
+     *
+     * @param selected         the tables to be merged
+     * @param dropTombstones   whether the tombstones older than the grace period may be omitted from the result,
+     *                         the younger ones are kept as the older rows of their keys may still arrive
+     */
+    private void merge(
+            @NotNull final NavigableMap<Long, SSTable> selected,
+            final boolean dropTombstones) throws IOException {
+        final long start = System.nanoTime();
+        // The result replaces the newest merged table, so it keeps its place among the generations
+        final long generation = selected.lastKey();
+        final List<RowCursor> cursors = new ArrayList<>(selected.size());
+        for (final SSTable ssTable : selected.descendingMap().values()) {
+            cursors.add(ssTable.cursor(Value.EMPTY_BUFFER));
+        }
+        final Path tmpPath = Path.of(folder.getAbsolutePath(), generation + SUFFIX_TMP);
+        final Path finalPath = tablePath(generation, revision(selected.lastEntry().getValue().getPath()) + 1);
+        final Iterator<Row> rows;
+        if (dropTombstones) {
+            final long expired = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - tombstoneGracePeriodMillis);
+            rows = Iterators.filter(
+                    mergedRowIterator(cursors),
+                    row -> !row.getValue().isRemoved() || row.getValue().getTimestamp() >= expired);
+        } else {
+            rows = mergedRowIterator(cursors);
+        }
+        try {
+            SSTable.writeToFile(tmpPath, rows, tableOptions);
+            Files.move(tmpPath, finalPath, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            // Otherwise every later compaction of the same newest table would fail on the file
+            deleteTmp(tmpPath, e);
+            throw e;
+        }
+        final SSTable result = new SSTable(finalPath, blockCache);
+        compactionNanos.record(System.nanoTime() - start);
+        synchronized (manifest) {
+            final TableSet compactedTables;
+            lock.writeLock().lock();
+            try {
+                compactedTables = tables.replaceCompacted(selected.keySet(), generation, result);
+                tables = compactedTables;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            manifest.write(compactedTables.ssTables);
+        }
+        // Until the manifest is written the merged tables are the live ones, and the result is left over
+        for (final SSTable ssTable : selected.values()) {
             Files.delete(ssTable.getPath());
         }
-        ssTables.clear();
-        memTable.clear();
-        final String finalFileName = Time.getTimeNanos() + SUFFIX;
-        Files.move(
-                Path.of(folder.getAbsolutePath(), tmpFileName),
-                Path.of(folder.getAbsolutePath(), finalFileName),
-                StandardCopyOption.ATOMIC_MOVE);
-        ssTables.add(new SSTable(Path.of(folder.getAbsolutePath(), finalFileName)));
     }
-}
\ No newline at end of file
+}
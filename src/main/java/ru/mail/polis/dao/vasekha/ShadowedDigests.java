@@ -0,0 +1,45 @@
+package ru.mail.polis.dao.vasekha;
+
+import java.util.List;
+
+import org.jetbrains.annotations.NotNull;
+
+import ru.mail.polis.storage.SSTable;
+import ru.mail.polis.storage.TokenRanges;
+
+/**
+ * Immutable sums of the digests of the rows shadowed within the given SSTables by the ranges,
+ * computed by {@link MyDAO#rangeDigests(TokenRanges)} and reused while the SSTables are the same.
+ * The SSTables never change, so the sums stay valid until the tables are replaced.
+ */
+final class ShadowedDigests {
+    @NotNull
+    final List<SSTable> newestFirst;
+    @NotNull
+    final TokenRanges ranges;
+    @NotNull
+    private final long[] sums;
+
+    ShadowedDigests(
+            @NotNull final List<SSTable> newestFirst,
+            @NotNull final TokenRanges ranges,
+            @NotNull final long[] sums) {
+        this.newestFirst = newestFirst;
+        this.ranges = ranges;
+        this.sums = sums.clone();
+    }
+
+    /**
+     * Returns whether the sums may be extended to the given tables, that is the cached tables are
+     * the oldest ones of them, as it is after the flushes.
+     */
+    boolean isOlderPartOf(@NotNull final List<SSTable> tables, @NotNull final TokenRanges ranges) {
+        final int newer = tables.size() - newestFirst.size();
+        return this.ranges == ranges && newer >= 0 && tables.subList(newer, tables.size()).equals(newestFirst);
+    }
+
+    @NotNull
+    long[] getSums() {
+        return sums.clone();
+    }
+}
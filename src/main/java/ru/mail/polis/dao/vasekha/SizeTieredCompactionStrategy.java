@@ -0,0 +1,89 @@
+package ru.mail.polis.dao.vasekha;
+
+import java.util.Map;
+import java.util.NavigableMap;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import ru.mail.polis.storage.SSTable;
+
+/**
+ * Merges the runs of adjacent tables of similar size.
+ * A table joins the run if its size is within [low, high] of the average size of the run,
+ * or if both the table and the run are smaller than the small table size.
+ */
+public final class SizeTieredCompactionStrategy implements CompactionStrategy {
+    public static final SizeTieredCompactionStrategy DEFAULT =
+            new SizeTieredCompactionStrategy(4, 32, 0.5, 1.5, 1024 * 1024);
+
+    private final int minThreshold;
+    private final int maxThreshold;
+    private final double low;
+    private final double high;
+    private final long smallTableBytes;
+
+    /**
+     * Creates the strategy.
+     *
+     * @param minThreshold    the minimal number of tables to be merged at once
+     * @param maxThreshold    the maximal number of tables to be merged at once
+     * @param low             the lower bound of the size of a table relative to the run
+     * @param high            the upper bound of the size of a table relative to the run
+     * @param smallTableBytes the size below which all the tables fall into the same run
+     */
+    public SizeTieredCompactionStrategy(
+            final int minThreshold,
+            final int maxThreshold,
+            final double low,
+            final double high,
+            final long smallTableBytes) {
+        if (minThreshold < 2 || maxThreshold < minThreshold) {
+            throw new IllegalArgumentException("Invalid thresholds");
+        }
+        if (low <= 0 || high < 1 || low > 1) {
+            throw new IllegalArgumentException("Invalid bounds");
+        }
+        this.minThreshold = minThreshold;
+        this.maxThreshold = maxThreshold;
+        this.low = low;
+        this.high = high;
+        this.smallTableBytes = smallTableBytes;
+    }
+
+    @Nullable
+    @Override
+    public NavigableMap<Long, SSTable> select(@NotNull final NavigableMap<Long, SSTable> ssTables) {
+        long first = 0;
+        int count = 0;
+        long sizeBytes = 0;
+        long last = 0;
+        for (final Map.Entry<Long, SSTable> entry : ssTables.entrySet()) {
+            final long size = entry.getValue().getSizeBytes();
+            if (count > 0 && !fits(size, sizeBytes / count)) {
+                if (count >= minThreshold) {
+                    break;
+                }
+                count = 0;
+                sizeBytes = 0;
+            }
+            if (count == 0) {
+                first = entry.getKey();
+            }
+            last = entry.getKey();
+            count++;
+            sizeBytes += size;
+            if (count == maxThreshold) {
+                break;
+            }
+        }
+        return count >= minThreshold ? ssTables.subMap(first, true, last, true) : null;
+    }
+
+    private boolean fits(final long size, final long average) {
+        if (size <= smallTableBytes && average <= smallTableBytes) {
+            return true;
+        }
+        return size >= average * low && size <= average * high;
+    }
+}
@@ -0,0 +1,100 @@
+package ru.mail.polis.dao.vasekha;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import org.jetbrains.annotations.NotNull;
+
+import ru.mail.polis.storage.MemTable;
+import ru.mail.polis.storage.SSTable;
+import ru.mail.polis.storage.Table;
+
+/**
+ * Immutable snapshot of the tables of {@link MyDAO}.
+ * Tables are keyed by generation, the newer table has the greater generation.
+ */
+final class TableSet {
+    @NotNull
+    final MemTable memTable;
+    @NotNull
+    final NavigableMap<Long, MemTable> flushing;
+    @NotNull
+    final NavigableMap<Long, SSTable> ssTables;
+    /**
+     * All the tables ordered from the newest to the oldest one for point lookups.
+     */
+    @NotNull
+    final List<Table> newestFirst;
+    final long generation;
+
+    private TableSet(
+            @NotNull final MemTable memTable,
+            @NotNull final NavigableMap<Long, MemTable> flushing,
+            @NotNull final NavigableMap<Long, SSTable> ssTables,
+            final long generation) {
+        this.memTable = memTable;
+        this.flushing = Collections.unmodifiableNavigableMap(flushing);
+        this.ssTables = Collections.unmodifiableNavigableMap(ssTables);
+        this.generation = generation;
+        final List<Table> tables = new ArrayList<>(1 + flushing.size() + ssTables.size());
+        tables.add(memTable);
+        tables.addAll(flushing.descendingMap().values());
+        tables.addAll(ssTables.descendingMap().values());
+        this.newestFirst = Collections.unmodifiableList(tables);
+    }
+
+    /**
+     * Creates the table set with the given empty memTable.
+     *
+     * @param memTable   the table which receives the writes
+     * @param ssTables   the tables which are already stored on disk
+     * @param generation the generation which will be assigned to the next table
+     */
+    @NotNull
+    static TableSet create(
+            @NotNull final MemTable memTable,
+            @NotNull final NavigableMap<Long, SSTable> ssTables,
+            final long generation) {
+        return new TableSet(memTable, new TreeMap<>(), new TreeMap<>(ssTables), generation);
+    }
+
+    /**
+     * Freezes the current memTable and starts the given one.
+     */
+    @NotNull
+    TableSet markAsFlushing(@NotNull final MemTable newMemTable) {
+        final NavigableMap<Long, MemTable> newFlushing = new TreeMap<>(flushing);
+        newFlushing.put(generation, memTable);
+        return new TableSet(newMemTable, newFlushing, ssTables, generation + 1);
+    }
+
+    /**
+     * Replaces the frozen memTable with the table it has been flushed to.
+     */
+    @NotNull
+    TableSet moveToFlushed(final long flushedGeneration, @NotNull final SSTable ssTable) {
+        final NavigableMap<Long, MemTable> newFlushing = new TreeMap<>(flushing);
+        newFlushing.remove(flushedGeneration);
+        final NavigableMap<Long, SSTable> newSSTables = new TreeMap<>(ssTables);
+        newSSTables.put(flushedGeneration, ssTable);
+        return new TableSet(memTable, newFlushing, newSSTables, generation);
+    }
+
+    /**
+     * Replaces the compacted tables with the result of their compaction.
+     */
+    @NotNull
+    TableSet replaceCompacted(
+            @NotNull final Collection<Long> compacted,
+            final long resultGeneration,
+            @NotNull final SSTable result) {
+        final NavigableMap<Long, SSTable> newSSTables = new TreeMap<>(ssTables);
+        newSSTables.keySet().removeAll(compacted);
+        newSSTables.put(resultGeneration, result);
+        return new TableSet(memTable, flushing, newSSTables, generation);
+    }
+}
@@ -0,0 +1,85 @@
+package ru.mail.polis.load;
+
+import java.util.Random;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Picks the ids of the keys the requests go to.
+ */
+interface KeyDistribution {
+    /**
+     * Returns the id of the key in [0, keys).
+     *
+     * @param random the source of the randomness of the calling thread
+     * @param keys   the number of the keys written so far
+     */
+    long next(@NotNull Random random, long keys);
+
+    /**
+     * Returns whether the writes add the new keys instead of overwriting the picked ones.
+     */
+    default boolean isAppending() {
+        return false;
+    }
+
+    /**
+     * Returns the distribution by its name.
+     *
+     * <ul>
+     * <li>uniform: every key is equally popular;</li>
+     * <li>zipfian: a few keys are very popular, the popular keys are scattered over the key space,
+     * so they are neither neighbours in the tables nor the newest ones;</li>
+     * <li>latest: the recently written keys are the popular ones and the writes add the new keys,
+     * as the timelines and the logs are read.</li>
+     * </ul>
+     *
+     * @param name  the name of the distribution
+     * @param keys  the number of the keys to be picked from at the start
+     * @param theta the skew of the zipfian and the latest distributions
+     * @throws IllegalArgumentException if the name is unknown or the parameters are invalid
+     */
+    @NotNull
+    static KeyDistribution of(@NotNull final String name, final long keys, final double theta) {
+        switch (name) {
+            case "uniform":
+                if (keys <= 0) {
+                    throw new IllegalArgumentException("Nothing to pick from");
+                }
+                return (random, count) -> (long) (random.nextDouble() * count);
+            case "zipfian": {
+                final Zipfian zipfian = new Zipfian(keys, theta);
+                return (random, count) -> Math.floorMod(scramble(zipfian.next(random)), count);
+            }
+            case "latest": {
+                final Zipfian zipfian = new Zipfian(keys, theta);
+                return new KeyDistribution() {
+                    @Override
+                    public long next(@NotNull final Random random, final long count) {
+                        return Math.max(0, count - 1 - zipfian.next(random));
+                    }
+
+                    @Override
+                    public boolean isAppending() {
+                        return true;
+                    }
+                };
+            }
+            default:
+                throw new IllegalArgumentException("Unknown distribution " + name);
+        }
+    }
+
+    /**
+     * Mixes the bits of the rank as the finalizer of MurmurHash3 does, so the neighbouring ranks land far apart.
+     */
+    static long scramble(final long rank) {
+        long h = rank;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
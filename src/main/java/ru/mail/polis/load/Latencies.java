@@ -0,0 +1,53 @@
+package ru.mail.polis.load;
+
+import java.util.Arrays;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * All the latencies of the requests of a kind, so the percentiles are exact.
+ * A recorder belongs to a single thread, the recorders of the threads are merged at the end.
+ */
+final class Latencies {
+    private long[] values = new long[1024];
+    private int count;
+    private boolean sorted = true;
+
+    void record(final long nanos) {
+        if (count == values.length) {
+            values = Arrays.copyOf(values, count * 2);
+        }
+        values[count++] = nanos;
+        sorted = false;
+    }
+
+    void addAll(@NotNull final Latencies other) {
+        if (count + other.count > values.length) {
+            values = Arrays.copyOf(values, Math.max(count + other.count, count * 2));
+        }
+        System.arraycopy(other.values, 0, values, count, other.count);
+        count += other.count;
+        sorted = false;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the least latency which is not less than the given share of the latencies or 0 if there are none.
+     *
+     * @param quantile the share in [0, 1]
+     */
+    long getValueAtQuantile(final double quantile) {
+        if (count == 0) {
+            return 0;
+        }
+        if (!sorted) {
+            Arrays.sort(values, 0, count);
+            sorted = true;
+        }
+        final int rank = (int) Math.ceil(quantile * count);
+        return values[Math.max(0, rank - 1)];
+    }
+}
@@ -0,0 +1,431 @@
+package ru.mail.polis.load;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import one.nio.http.HttpClient;
+import one.nio.http.HttpException;
+import one.nio.http.Response;
+import one.nio.net.ConnectionString;
+import one.nio.pool.PoolException;
+import org.jetbrains.annotations.NotNull;
+
+import ru.mail.polis.Files;
+import ru.mail.polis.dao.DAO;
+import ru.mail.polis.dao.DAOFactory;
+import ru.mail.polis.load.OperationMix.Operation;
+import ru.mail.polis.service.Service;
+import ru.mail.polis.service.ServiceFactory;
+
+/**
+ * Drives /v0/entity with the mix of the requests to the keys of the given distribution and reports the latencies.
+ * The keys are named key0, key1, ... as the wrk scripts name them.
+ *
+ * <p>With a rate the load is open: every connection sends its requests on the schedule whatever the responses are,
+ * and the latency of a request is counted from the time it was scheduled at, as wrk2 does,
+ * so the stalls of the server are not hidden by the requests which were not sent while waiting
+ * (the coordinated omission). Without a rate every connection sends the next request once the response comes.
+ *
+ * <p>Run with {@code gradle load --args="--embedded --rate=2000 --distribution=zipfian"}, the options are:
+ * <ul>
+ * <li>--url=http://localhost:8080: the node to load, several nodes are given separated by commas
+ * and the connections are spread over them;</li>
+ * <li>--embedded: starts the node in this process with the storage in a temporary folder instead;</li>
+ * <li>--connections=1: the number of the connections, each one is served by its own thread;</li>
+ * <li>--rate=0: the requests per second of all the connections, 0 for the closed loop;</li>
+ * <li>--duration=30 and --warmup=5: the seconds the requests are measured and sent before that;</li>
+ * <li>--keys=100000: the number of the keys the requests go to;</li>
+ * <li>--preload: writes all the keys before the run;</li>
+ * <li>--distribution=uniform: uniform, zipfian or latest, see {@link KeyDistribution#of};</li>
+ * <li>--theta=0.99: the skew of the zipfian and the latest distributions;</li>
+ * <li>--mix=get=90,put=9,delete=1: the weights of the requests;</li>
+ * <li>--value-size=1024: the bytes of a written value or their range, e.g. 64..4096.</li>
+ * </ul>
+ */
+public final class LoadGenerator {
+    private static final int TIMEOUT_MILLIS = 10_000;
+    private static final double[] QUANTILES = {0.5, 0.75, 0.9, 0.99, 0.999, 0.9999, 1};
+    private static final Set<String> FLAGS = Set.of("embedded", "preload");
+    private static final Map<String, String> DEFAULTS = Map.of(
+            "url", "http://localhost:8080",
+            "connections", "1",
+            "rate", "0",
+            "duration", "30",
+            "warmup", "5",
+            "keys", "100000",
+            "distribution", "uniform",
+            "theta", "0.99",
+            "mix", "get=90,put=9,delete=1",
+            "value-size", "1024");
+
+    private final int connections;
+    private final double rate;
+    private final long durationNanos;
+    private final long warmupNanos;
+    private final AtomicLong keys;
+    private final KeyDistribution distribution;
+    private final OperationMix mix;
+    private final ValueSize valueSize;
+    private final byte[] values;
+
+    private LoadGenerator(@NotNull final Map<String, String> options) {
+        this.connections = Integer.parseInt(options.get("connections"));
+        this.rate = Double.parseDouble(options.get("rate"));
+        this.durationNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(options.get("duration")));
+        this.warmupNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(options.get("warmup")));
+        final long keysCount = Long.parseLong(options.get("keys"));
+        this.keys = new AtomicLong(keysCount);
+        this.distribution = KeyDistribution.of(
+                options.get("distribution"),
+                keysCount,
+                Double.parseDouble(options.get("theta")));
+        this.mix = OperationMix.parse(options.get("mix"));
+        this.valueSize = ValueSize.parse(options.get("value-size"));
+        if (connections <= 0 || !(rate >= 0) || durationNanos <= 0 || warmupNanos < 0) {
+            throw new IllegalArgumentException("Invalid connections, rate, duration or warmup");
+        }
+        // The values are the slices of the same random bytes, so generating them costs nothing
+        this.values = new byte[valueSize.getMax() * 2 + 1];
+        new Random().nextBytes(values);
+    }
+
+    /**
+     * Runs the load, see the options above.
+     */
+    public static void main(final String[] args) throws IOException, InterruptedException {
+        final Map<String, String> options;
+        final LoadGenerator generator;
+        try {
+            options = parse(args);
+            generator = new LoadGenerator(options);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+            return;
+        }
+        if (!options.containsKey("embedded")) {
+            generator.run(List.of(options.get("url").split(",")), options);
+            return;
+        }
+        final File data = Files.createTempDirectory();
+        final int port = freePort();
+        final DAO dao = DAOFactory.create(data);
+        final Service service = ServiceFactory.create(port, dao);
+        service.start();
+        try {
+            generator.run(Collections.singletonList("http://localhost:" + port), options);
+        } finally {
+            service.stop();
+            dao.close();
+            Files.recursiveDelete(data);
+        }
+    }
+
+    private void run(
+            @NotNull final List<String> urls,
+            @NotNull final Map<String, String> options) throws InterruptedException {
+        if (options.containsKey("preload")) {
+            preload(urls);
+        }
+        report(load(urls), options);
+    }
+
+    @NotNull
+    private static Map<String, String> parse(@NotNull final String[] args) {
+        final Map<String, String> options = new HashMap<>(DEFAULTS);
+        for (final String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Invalid option " + arg + ", see the javadoc of LoadGenerator");
+            }
+            final int equals = arg.indexOf('=');
+            final String name = equals < 0 ? arg.substring(2) : arg.substring(2, equals);
+            if (equals < 0 ? !FLAGS.contains(name) : !DEFAULTS.containsKey(name)) {
+                throw new IllegalArgumentException("Unknown option " + arg + ", see the javadoc of LoadGenerator");
+            }
+            options.put(name, equals < 0 ? "" : arg.substring(equals + 1));
+        }
+        return options;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket()) {
+            socket.setReuseAddress(true);
+            socket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1);
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * Writes all the keys in the closed loop, each connection writes its share of them.
+     */
+    private void preload(@NotNull final List<String> urls) throws InterruptedException {
+        final long count = keys.get();
+        final long started = System.nanoTime();
+        final Worker[] workers = workers(urls);
+        final Thread[] threads = new Thread[connections];
+        for (int i = 0; i < connections; i++) {
+            final Worker worker = workers[i];
+            final int first = i;
+            threads[i] = new Thread(() -> {
+                for (long id = first; id < count; id += connections) {
+                    worker.send(Operation.PUT, id);
+                }
+                worker.close();
+            }, "preload-" + i);
+            threads[i].start();
+        }
+        final Stats stats = new Stats();
+        for (int i = 0; i < connections; i++) {
+            threads[i].join();
+            stats.addAll(workers[i].stats);
+        }
+        System.out.printf(Locale.ROOT, "Preloaded %d keys in %.1f s, %d errors%n",
+                count, (System.nanoTime() - started) / 1e9, stats.errors(Operation.PUT));
+    }
+
+    @NotNull
+    private Stats load(@NotNull final List<String> urls) throws InterruptedException {
+        final long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        final long measured = start + warmupNanos;
+        final long end = measured + durationNanos;
+        final Worker[] workers = workers(urls);
+        final Thread[] threads = new Thread[connections];
+        for (int i = 0; i < connections; i++) {
+            final Worker worker = workers[i];
+            final int index = i;
+            threads[i] = new Thread(() -> {
+                worker.run(index, start, measured, end);
+                worker.close();
+            }, "load-" + i);
+            threads[i].start();
+        }
+        final Stats stats = new Stats();
+        for (int i = 0; i < connections; i++) {
+            threads[i].join();
+            stats.addAll(workers[i].stats);
+        }
+        return stats;
+    }
+
+    @NotNull
+    private Worker[] workers(@NotNull final List<String> urls) {
+        final Worker[] workers = new Worker[connections];
+        for (int i = 0; i < connections; i++) {
+            workers[i] = new Worker(urls.get(i % urls.size()));
+        }
+        return workers;
+    }
+
+    private void report(@NotNull final Stats stats, @NotNull final Map<String, String> options) {
+        System.out.printf(Locale.ROOT, "%s keys of %s, %s, %d connections, %s%n",
+                options.get("distribution"),
+                options.get("keys"),
+                options.get("mix"),
+                connections,
+                rate == 0 ? "closed loop" : "open loop at " + options.get("rate") + " req/s");
+        final Latencies all = new Latencies();
+        long errors = 0;
+        for (final Operation operation : Operation.values()) {
+            all.addAll(stats.latencies(operation));
+            errors += stats.errors(operation);
+        }
+        System.out.printf(Locale.ROOT, "%d requests in %d s, %.1f req/s, %d errors%n",
+                all.getCount() + errors,
+                TimeUnit.NANOSECONDS.toSeconds(durationNanos),
+                (all.getCount() + errors) * 1e9 / durationNanos,
+                errors);
+        final StringBuilder header = new StringBuilder(
+                String.format(Locale.ROOT, "%-8s%10s%8s", "", "count", "errors"));
+        for (final double quantile : QUANTILES) {
+            header.append(String.format(Locale.ROOT, "%10s", quantile == 1 ? "max" : "p" + quantile * 100));
+        }
+        System.out.println(header.append("  (ms)"));
+        for (final Operation operation : Operation.values()) {
+            if (stats.latencies(operation).getCount() + stats.errors(operation) > 0) {
+                printLatencies(operation.name(), stats.latencies(operation), stats.errors(operation));
+            }
+        }
+        printLatencies("ALL", all, errors);
+        if (!stats.failures.isEmpty()) {
+            System.out.println("Failures: " + stats.failures);
+        }
+    }
+
+    private static void printLatencies(
+            @NotNull final String name,
+            @NotNull final Latencies latencies,
+            final long errors) {
+        final StringBuilder line = new StringBuilder(
+                String.format(Locale.ROOT, "%-8s%10d%8d", name, latencies.getCount(), errors));
+        for (final double quantile : QUANTILES) {
+            line.append(String.format(Locale.ROOT, "%10.3f", latencies.getValueAtQuantile(quantile) / 1e6));
+        }
+        System.out.println(line);
+    }
+
+    /**
+     * The latencies of the successful requests, the number of the failed ones and the reasons of the failures.
+     */
+    private static final class Stats {
+        final Map<Operation, Latencies> latencies = new EnumMap<>(Operation.class);
+        final Map<Operation, Long> errors = new EnumMap<>(Operation.class);
+        final Map<String, Long> failures = new TreeMap<>();
+
+        Stats() {
+            for (final Operation operation : Operation.values()) {
+                latencies.put(operation, new Latencies());
+                errors.put(operation, 0L);
+            }
+        }
+
+        @NotNull
+        Latencies latencies(@NotNull final Operation operation) {
+            return latencies.get(operation);
+        }
+
+        long errors(@NotNull final Operation operation) {
+            return errors.get(operation);
+        }
+
+        void fail(@NotNull final Operation operation, @NotNull final String reason) {
+            errors.merge(operation, 1L, Long::sum);
+            failures.merge(operation + " " + reason, 1L, Long::sum);
+        }
+
+        void addAll(@NotNull final Stats other) {
+            for (final Operation operation : Operation.values()) {
+                latencies(operation).addAll(other.latencies(operation));
+                errors.merge(operation, other.errors(operation), Long::sum);
+            }
+            other.failures.forEach((reason, count) -> failures.merge(reason, count, Long::sum));
+        }
+    }
+
+    /**
+     * Sends the requests over its own connection, it is used by a single thread.
+     */
+    private final class Worker {
+        private final HttpClient client;
+        private final Stats stats = new Stats();
+        private final Stats warmupStats = new Stats();
+
+        Worker(@NotNull final String url) {
+            this.client = new HttpClient(new ConnectionString(url + "?timeout=" + TIMEOUT_MILLIS));
+        }
+
+        /**
+         * Sends the requests until the end, the ones scheduled before the measured time are not recorded.
+         * The schedules of the connections are shifted, so the requests of all of them come evenly.
+         */
+        void run(final int index, final long start, final long measured, final long end) {
+            final Random random = ThreadLocalRandom.current();
+            final double intervalNanos = rate == 0 ? 0 : connections * 1e9 / rate;
+            final long offset = (long) (index * intervalNanos / connections);
+            for (long i = 0; ; i++) {
+                final long scheduled;
+                if (rate == 0) {
+                    scheduled = Math.max(start, System.nanoTime());
+                } else {
+                    scheduled = start + offset + (long) (i * intervalNanos);
+                }
+                if (scheduled >= end) {
+                    return;
+                }
+                for (long delay = scheduled - System.nanoTime(); delay > 0; delay = scheduled - System.nanoTime()) {
+                    LockSupport.parkNanos(delay);
+                }
+                final Operation operation = mix.next(random);
+                final long id;
+                if (operation == Operation.PUT && distribution.isAppending()) {
+                    id = keys.getAndIncrement();
+                } else {
+                    id = distribution.next(random, keys.get());
+                }
+                send(scheduled >= measured ? stats : warmupStats, operation, id, scheduled, random);
+            }
+        }
+
+        void send(@NotNull final Operation operation, final long id) {
+            send(stats, operation, id, System.nanoTime(), ThreadLocalRandom.current());
+        }
+
+        private void send(
+                @NotNull final Stats recorded,
+                @NotNull final Operation operation,
+                final long id,
+                final long scheduled,
+                @NotNull final Random random) {
+            final String uri = "/v0/entity?id=key" + id;
+            final Response response;
+            try {
+                switch (operation) {
+                    case GET:
+                        response = client.get(uri);
+                        break;
+                    case PUT:
+                        response = client.put(uri, value(random));
+                        break;
+                    case DELETE:
+                        response = client.delete(uri);
+                        break;
+                    default:
+                        throw new IllegalStateException("Unknown operation " + operation);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                recorded.fail(operation, "interrupted");
+                return;
+            } catch (IOException | PoolException | HttpException e) {
+                recorded.fail(operation, e.getClass().getSimpleName());
+                return;
+            }
+            final long latency = System.nanoTime() - scheduled;
+            if (isExpected(operation, response.getStatus())) {
+                recorded.latencies(operation).record(latency);
+            } else {
+                recorded.fail(operation, Integer.toString(response.getStatus()));
+            }
+        }
+
+        void close() {
+            client.close();
+        }
+
+        @NotNull
+        private byte[] value(@NotNull final Random random) {
+            final int size = valueSize.next(random);
+            final byte[] value = new byte[size];
+            System.arraycopy(values, random.nextInt(values.length - size), value, 0, size);
+            return value;
+        }
+    }
+
+    private static boolean isExpected(@NotNull final Operation operation, final int status) {
+        switch (operation) {
+            case GET:
+                return status == 200 || status == 404;
+            case PUT:
+                return status == 201;
+            case DELETE:
+                return status == 202;
+            default:
+                return false;
+        }
+    }
+}
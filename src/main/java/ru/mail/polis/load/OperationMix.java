@@ -0,0 +1,74 @@
+package ru.mail.polis.load;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The shares of the reads, the writes and the removals among the requests.
+ */
+final class OperationMix {
+    private final Operation[] operations;
+    private final double[] thresholds;
+
+    enum Operation {
+        GET, PUT, DELETE
+    }
+
+    private OperationMix(@NotNull final Map<Operation, Double> weights) {
+        this.operations = weights.keySet().toArray(new Operation[0]);
+        this.thresholds = new double[operations.length];
+        double total = 0;
+        for (final double weight : weights.values()) {
+            total += weight;
+        }
+        double sum = 0;
+        for (int i = 0; i < operations.length; i++) {
+            sum += weights.get(operations[i]);
+            thresholds[i] = sum / total;
+        }
+    }
+
+    /**
+     * Parses the mix written as the comma separated weights, e.g. get=90,put=9,delete=1.
+     * The operations which are not mentioned are not requested.
+     *
+     * @throws IllegalArgumentException if the mix is malformed
+     */
+    @NotNull
+    static OperationMix parse(@NotNull final String mix) {
+        final Map<Operation, Double> weights = new EnumMap<>(Operation.class);
+        for (final String part : mix.split(",")) {
+            final int equals = part.indexOf('=');
+            if (equals < 0) {
+                throw new IllegalArgumentException("Invalid mix " + mix);
+            }
+            final Operation operation = Operation.valueOf(part.substring(0, equals).trim().toUpperCase(Locale.ROOT));
+            final double weight = Double.parseDouble(part.substring(equals + 1));
+            if (!(weight >= 0) || Double.isInfinite(weight)) {
+                throw new IllegalArgumentException("Invalid weight of " + operation + " in " + mix);
+            }
+            if (weight > 0) {
+                weights.put(operation, weight);
+            }
+        }
+        if (weights.isEmpty()) {
+            throw new IllegalArgumentException("Nothing is requested by " + mix);
+        }
+        return new OperationMix(weights);
+    }
+
+    @NotNull
+    Operation next(@NotNull final Random random) {
+        final double u = random.nextDouble();
+        for (int i = 0; i < thresholds.length - 1; i++) {
+            if (u < thresholds[i]) {
+                return operations[i];
+            }
+        }
+        return operations[operations.length - 1];
+    }
+}
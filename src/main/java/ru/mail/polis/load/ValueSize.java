@@ -0,0 +1,42 @@
+package ru.mail.polis.load;
+
+import java.util.Random;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The sizes of the written values, either fixed or uniform in a range.
+ */
+final class ValueSize {
+    private final int min;
+    private final int max;
+
+    private ValueSize(final int min, final int max) {
+        this.min = min;
+        this.max = max;
+    }
+
+    /**
+     * Parses the size written as the number of bytes or as the range min..max of them, both inclusive.
+     *
+     * @throws IllegalArgumentException if the size is malformed
+     */
+    @NotNull
+    static ValueSize parse(@NotNull final String size) {
+        final int dots = size.indexOf("..");
+        final int min = Integer.parseInt(dots < 0 ? size : size.substring(0, dots));
+        final int max = dots < 0 ? min : Integer.parseInt(size.substring(dots + 2));
+        if (min < 0 || max < min) {
+            throw new IllegalArgumentException("Invalid value size " + size);
+        }
+        return new ValueSize(min, max);
+    }
+
+    int next(@NotNull final Random random) {
+        return min == max ? min : min + random.nextInt(max - min + 1);
+    }
+
+    int getMax() {
+        return max;
+    }
+}
@@ -0,0 +1,64 @@
+package ru.mail.polis.load;
+
+import java.util.Random;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Zipfian ranks in [0, items): the rank r is picked with the probability proportional to 1 / (r + 1)^theta,
+ * so the rank 0 is the most popular one.
+ * The ranks are generated in constant time by the method of Gray et al.,
+ * "Quickly Generating Billion-Record Synthetic Databases", the same one YCSB uses.
+ */
+final class Zipfian {
+    private final long items;
+    private final double zetaN;
+    private final double alpha;
+    private final double eta;
+    private final double secondThreshold;
+
+    /**
+     * Creates the distribution over the ranks.
+     *
+     * @param items the number of the ranks
+     * @param theta the skew in (0, 1), YCSB takes 0.99
+     * @throws IllegalArgumentException if there are no items or the skew is out of the range
+     */
+    Zipfian(final long items, final double theta) {
+        if (items <= 0) {
+            throw new IllegalArgumentException("Nothing to pick from");
+        }
+        if (!(theta > 0 && theta < 1)) {
+            throw new IllegalArgumentException("Invalid skew " + theta);
+        }
+        this.items = items;
+        this.zetaN = zeta(items, theta);
+        this.alpha = 1 / (1 - theta);
+        this.eta = (1 - Math.pow(2.0 / items, 1 - theta)) / (1 - zeta(2, theta) / zetaN);
+        this.secondThreshold = 1 + Math.pow(0.5, theta);
+    }
+
+    long next(@NotNull final Random random) {
+        final double u = random.nextDouble();
+        final double uz = u * zetaN;
+        if (uz < 1) {
+            return 0;
+        }
+        if (uz < secondThreshold && items > 1) {
+            return 1;
+        }
+        final long rank = (long) (items * Math.pow(eta * u - eta + 1, alpha));
+        return Math.min(rank, items - 1);
+    }
+
+    /**
+     * Returns the sum of 1 / i^theta for i in [1, n], it takes O(n) once per distribution.
+     */
+    private static double zeta(final long n, final double theta) {
+        double sum = 0;
+        for (long i = 1; i <= n; i++) {
+            sum += 1 / Math.pow(i, theta);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,117 @@
+package ru.mail.polis.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Lock-free histogram of the non-negative values with the logarithmic buckets.
+ * Every power of two is split into {@link #SUB_BUCKETS} buckets of equal width, so the bucket of a value
+ * is within 1/32 of it and the values below {@link #SUB_BUCKETS} * 2 are counted exactly.
+ * Recording is a few bit operations and two atomic increments, so the histograms are always on,
+ * the counts of a histogram take about 15 KB.
+ */
+public final class Histogram {
+    static final int SUB_BUCKET_BITS = 5;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final int BUCKETS = index(Long.MAX_VALUE) + 1;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder sum = new LongAdder();
+
+    Histogram() {
+        // Created by the registry
+    }
+
+    /**
+     * Counts the value, the negative values are counted as zeros.
+     */
+    public void record(final long value) {
+        final long clamped = Math.max(0, value);
+        counts.incrementAndGet(index(clamped));
+        sum.add(clamped);
+    }
+
+    /**
+     * Returns the sum of the recorded values.
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * Returns the number of the recorded values.
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the least value which is not less than the given share of the recorded values,
+     * rounded up to the bound of its bucket, or 0 if nothing has been recorded.
+     *
+     * @param quantile the share in [0, 1]
+     */
+    public long getValueAtQuantile(final double quantile) {
+        final long[] snapshot = snapshot();
+        long count = 0;
+        for (final long bucketCount : snapshot) {
+            count += bucketCount;
+        }
+        final long rank = (long) Math.ceil(quantile * count);
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen > 0 && seen >= rank) {
+                return upperBound(i);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the counts of the buckets, they are read one by one while the values may be recorded.
+     */
+    @NotNull
+    long[] snapshot() {
+        final long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+        }
+        return snapshot;
+    }
+
+    static int index(final long value) {
+        return index(value, SUB_BUCKET_BITS);
+    }
+
+    /**
+     * Returns the index of the bucket of the value in the histogram with the given number of the buckets
+     * per power of two, the buckets of the fewer bits are the unions of the buckets of the more bits.
+     */
+    static int index(final long value, final int subBucketBits) {
+        final int subBuckets = 1 << subBucketBits;
+        if (value < subBuckets) {
+            return (int) value;
+        }
+        final int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        final int subBucket = (int) (value >>> (exponent - subBucketBits)) & (subBuckets - 1);
+        return (exponent - subBucketBits + 1) * subBuckets + subBucket;
+    }
+
+    /**
+     * Returns the greatest value of the bucket.
+     */
+    static long upperBound(final int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int shift = index / SUB_BUCKETS - 1;
+        final long lower = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+}
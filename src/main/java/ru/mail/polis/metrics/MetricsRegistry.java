@@ -0,0 +1,220 @@
+package ru.mail.polis.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongSupplier;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Named metrics exposed in the text format of Prometheus.
+ * The histograms are recorded by their owners directly, the counters and the gauges are read
+ * from their owners at the scrape, so the registry is not touched on the hot paths at all.
+ * The metrics of the same name differ by their labels, given as the pairs of the label names and values.
+ */
+public final class MetricsRegistry {
+    /**
+     * The buckets of the histograms per power of two exposed to the scrapes, fewer than the recorded ones,
+     * so a histogram of the nanoseconds takes about a hundred samples.
+     */
+    private static final int EXPOSED_SUB_BUCKET_BITS = 2;
+    private final ConcurrentMap<String, Family> families = new ConcurrentSkipListMap<>();
+
+    /**
+     * Returns the histogram of the name and the labels, creating it if there is none.
+     *
+     * @param name   the name of the metric
+     * @param help   the description of the metric
+     * @param unit   the multiplier which converts the recorded values to the exposed ones,
+     *               e.g. 1e-9 to expose the nanoseconds as seconds
+     * @param labels the label names and values
+     */
+    @NotNull
+    public Histogram histogram(
+            @NotNull final String name,
+            @NotNull final String help,
+            final double unit,
+            @NotNull final String... labels) {
+        final Family family = family(name, help, Type.HISTOGRAM);
+        final Object metric = family.metrics.computeIfAbsent(labels(labels), key -> new Histogram());
+        family.unit = unit;
+        return (Histogram) metric;
+    }
+
+    /**
+     * Registers the counter which only grows.
+     */
+    public void counter(
+            @NotNull final String name,
+            @NotNull final String help,
+            @NotNull final LongSupplier value,
+            @NotNull final String... labels) {
+        family(name, help, Type.COUNTER).metrics.put(labels(labels), value);
+    }
+
+    /**
+     * Registers the gauge which goes up and down.
+     */
+    public void gauge(
+            @NotNull final String name,
+            @NotNull final String help,
+            @NotNull final LongSupplier value,
+            @NotNull final String... labels) {
+        family(name, help, Type.GAUGE).metrics.put(labels(labels), value);
+    }
+
+    /**
+     * Registers the gauge which value is converted at the scrape.
+     *
+     * @param unit the multiplier which converts the value to the exposed one, e.g. 1e-9 to expose
+     *             the nanoseconds as seconds
+     */
+    public void gauge(
+            @NotNull final String name,
+            @NotNull final String help,
+            final double unit,
+            @NotNull final LongSupplier value,
+            @NotNull final String... labels) {
+        final Family family = family(name, help, Type.GAUGE);
+        family.metrics.put(labels(labels), value);
+        family.unit = unit;
+    }
+
+    /**
+     * Appends all the metrics to the output in the order of their names.
+     * The buckets of a histogram are written up to the last one which is not empty.
+     */
+    public void scrape(@NotNull final StringBuilder out) {
+        for (final Map.Entry<String, Family> entry : families.entrySet()) {
+            final String name = entry.getKey();
+            final Family family = entry.getValue();
+            out.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(family.type.name).append('\n');
+            for (final Map.Entry<String, Object> metric : family.metrics.entrySet()) {
+                final String labels = metric.getKey();
+                if (family.type == Type.HISTOGRAM) {
+                    scrapeHistogram(out, name, labels, (Histogram) metric.getValue(), family.unit);
+                } else {
+                    sample(out, name, labels, null);
+                    final long value = ((LongSupplier) metric.getValue()).getAsLong();
+                    if (family.unit == 1) {
+                        out.append(value).append('\n');
+                    } else {
+                        out.append(value * family.unit).append('\n');
+                    }
+                }
+            }
+        }
+    }
+
+    private static void scrapeHistogram(
+            @NotNull final StringBuilder out,
+            @NotNull final String name,
+            @NotNull final String labels,
+            @NotNull final Histogram histogram,
+            final double unit) {
+        final long[] counts = histogram.snapshot();
+        int last = counts.length - 1;
+        while (last > 0 && counts[last] == 0) {
+            last--;
+        }
+        long count = 0;
+        for (int i = 0; i < counts.length; i++) {
+            count += counts[i];
+            // Only the bounds of the coarser buckets are exposed, the finer ones serve the quantiles in process
+            if (isExposedBound(i)) {
+                sample(out, name + "_bucket", labels, Double.toString(Histogram.upperBound(i) * unit));
+                out.append(count).append('\n');
+                if (i >= last) {
+                    break;
+                }
+            }
+        }
+        sample(out, name + "_bucket", labels, "+Inf");
+        out.append(count).append('\n');
+        sample(out, name + "_sum", labels, null);
+        out.append(histogram.getSum() * unit).append('\n');
+        sample(out, name + "_count", labels, null);
+        out.append(count).append('\n');
+    }
+
+    /**
+     * Returns whether the bucket is the last one of its coarser bucket.
+     */
+    private static boolean isExposedBound(final int index) {
+        final long bound = Histogram.upperBound(index);
+        return bound == Long.MAX_VALUE
+                || Histogram.index(bound, EXPOSED_SUB_BUCKET_BITS)
+                != Histogram.index(bound + 1, EXPOSED_SUB_BUCKET_BITS);
+    }
+
+    /**
+     * Appends the name and the labels of the sample followed by the space.
+     */
+    private static void sample(
+            @NotNull final StringBuilder out,
+            @NotNull final String name,
+            @NotNull final String labels,
+            @Nullable final String le) {
+        out.append(name);
+        if (!labels.isEmpty() || le != null) {
+            out.append('{').append(labels);
+            if (le != null) {
+                out.append(labels.isEmpty() ? "" : ",").append("le=\"").append(le).append('"');
+            }
+            out.append('}');
+        }
+        out.append(' ');
+    }
+
+    @NotNull
+    private Family family(@NotNull final String name, @NotNull final String help, @NotNull final Type type) {
+        final Family family = families.computeIfAbsent(name, key -> new Family(help, type));
+        if (family.type != type) {
+            throw new IllegalArgumentException("Metric " + name + " is a " + family.type.name);
+        }
+        return family;
+    }
+
+    @NotNull
+    private static String labels(@NotNull final String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be the pairs of the names and the values");
+        }
+        final StringBuilder result = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                result.append(',');
+            }
+            final String value = labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+            result.append(labels[i]).append("=\"").append(value).append('"');
+        }
+        return result.toString();
+    }
+
+    private enum Type {
+        COUNTER("counter"),
+        GAUGE("gauge"),
+        HISTOGRAM("histogram");
+
+        final String name;
+
+        Type(@NotNull final String name) {
+            this.name = name;
+        }
+    }
+
+    private static final class Family {
+        final String help;
+        final Type type;
+        final ConcurrentMap<String, Object> metrics = new ConcurrentSkipListMap<>();
+        volatile double unit = 1;
+
+        Family(@NotNull final String help, @NotNull final Type type) {
+            this.help = help;
+            this.type = type;
+        }
+    }
+}
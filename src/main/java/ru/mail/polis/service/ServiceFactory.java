@@ -16,12 +16,18 @@
 
 package ru.mail.polis.service;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
 
 import org.jetbrains.annotations.NotNull;
 
 import ru.mail.polis.dao.DAO;
+import ru.mail.polis.dao.vasekha.MyDAO;
 import ru.mail.polis.service.vasekha.MyService;
+import ru.mail.polis.service.vasekha.ServiceOptions;
+import ru.mail.polis.service.vasekha.Topology;
 
 /**
  * Constructs {@link Service} instances.
@@ -30,6 +36,7 @@ import ru.mail.polis.service.vasekha.MyService;
  */
 public final class ServiceFactory {
     private static final long MAX_HEAP = 128 * 1024 * 1024;
+    private static final String HINTS = "hints";
 
     private ServiceFactory() {
         // Not supposed to be instantiated
@@ -51,6 +58,47 @@ public final class ServiceFactory {
             throw new IllegalArgumentException("Port out of range");
         }
 
-        return new MyService(port, dao);
+        final String me = MyService.endpoint(port);
+        return new MyService(port, dao, new Topology(Collections.singleton(me), me), options(dao));
+    }
+
+    /**
+     * Construct a storage instance which is a node of the cluster.
+     *
+     * @param port     port to bind HTTP server to
+     * @param dao      DAO to store the data owned by the node
+     * @param topology endpoints of all the nodes including this one, such as http://localhost:8080
+     * @return a storage instance
+     */
+    @NotNull public static Service create(
+            final int port,
+            @NotNull final DAO dao,
+            @NotNull final Set<String> topology) throws IOException {
+        if (Runtime.getRuntime().maxMemory() > MAX_HEAP) {
+            throw new IllegalStateException("The heap is too big. Consider setting Xmx.");
+        }
+
+        if (port <= 0 || 65536 <= port) {
+            throw new IllegalArgumentException("Port out of range");
+        }
+
+        final String me = MyService.endpoint(port);
+        if (!topology.contains(me)) {
+            throw new IllegalArgumentException("Topology doesn't contain " + me);
+        }
+
+        return new MyService(port, dao, new Topology(topology, me), options(dao));
+    }
+
+    @NotNull
+    private static ServiceOptions options(@NotNull final DAO dao) {
+        if (!(dao instanceof MyDAO)) {
+            return ServiceOptions.DEFAULT;
+        }
+        final MyDAO myDAO = (MyDAO) dao;
+        // The writes missed by the other nodes are kept next to the data of this one
+        return ServiceOptions.DEFAULT
+                .withHintsDirectory(new File(myDAO.getFolder(), HINTS))
+                .withStorageMetrics(myDAO.getMetrics());
     }
 }
@@ -0,0 +1,222 @@
+package ru.mail.polis.service.vasekha;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Charsets;
+import one.nio.http.Request;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ru.mail.polis.dao.DAO;
+import ru.mail.polis.storage.Row;
+import ru.mail.polis.storage.TokenRanges;
+
+/**
+ * Repairs the ranges this node shares with another replica without streaming the whole data:
+ * the nodes exchange the Merkle trees over the {@link DAO#rangeDigests(TokenRanges) digests} of the shared ranges
+ * and send each other only the rows of the ranges which differ.
+ * The rows keep their timestamps, so the newest value of every key wins on both nodes.
+ * The leaves of the tree are the ranges whose replicas include both nodes in ascending order,
+ * so the two nodes build the trees of the same shape.
+ * Leaves body: (leaf index)*, all big-endian ints.
+ */
+final class AntiEntropy {
+    static final String TREE_PATH = "/v0/repair/tree";
+    static final String ROWS_PATH = "/v0/repair/rows";
+    private static final Logger log = LoggerFactory.getLogger(AntiEntropy.class);
+    private final DAO dao;
+    private final Topology topology;
+    private final Transport transport;
+    /**
+     * The indexes of the ranges shared with every other node.
+     */
+    private final Map<String, List<Integer>> sharedRanges = new HashMap<>();
+
+    /**
+     * Sends the requests of the repair to the other nodes.
+     */
+    interface Transport {
+        /**
+         * Sends the request to the node.
+         *
+         * @return the body of the successful response
+         * @throws IOException if the node is unavailable or fails
+         */
+        @NotNull
+        byte[] invoke(@NotNull String node, @NotNull Request request) throws IOException;
+    }
+
+    /**
+     * Creates the repair of the ranges of this node.
+     *
+     * @param dao           the storage of this node
+     * @param topology      the nodes of the cluster
+     * @param replicasCount the number of the replicas of every key
+     * @param transport     the sender of the requests
+     */
+    AntiEntropy(
+            @NotNull final DAO dao,
+            @NotNull final Topology topology,
+            final int replicasCount,
+            @NotNull final Transport transport) {
+        this.dao = dao;
+        this.topology = topology;
+        this.transport = transport;
+        for (final String node : topology.getNodes()) {
+            if (!topology.isMe(node)) {
+                sharedRanges.put(node, new ArrayList<>());
+            }
+        }
+        for (int range = 0; range < topology.getRanges().size(); range++) {
+            final List<String> replicas = topology.rangeReplicas(range, replicasCount);
+            if (replicas.contains(topology.getMe())) {
+                for (final String node : replicas) {
+                    if (!topology.isMe(node)) {
+                        sharedRanges.get(node).add(range);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Repairs the ranges shared with the node in both directions.
+     *
+     * @return the number of the rows sent and received
+     * @throws IOException if the node is unavailable or fails
+     */
+    long repair(@NotNull final String node) throws IOException {
+        final String query = "?node=" + URLEncoder.encode(topology.getMe(), Charsets.UTF_8);
+        final byte[] remoteTree = transport.invoke(node, new Request(Request.METHOD_GET, TREE_PATH + query, true));
+        final List<Integer> leaves;
+        try {
+            leaves = tree(node).diff(MerkleTree.decode(remoteTree));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Node " + node + " has sent invalid tree", e);
+        }
+        if (leaves.isEmpty()) {
+            return 0;
+        }
+        final List<Row> received;
+        try {
+            received = BatchEncoding.decodeRows(transport.invoke(node, request(
+                    Request.METHOD_POST,
+                    ROWS_PATH + query,
+                    encodeLeaves(leaves))));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Node " + node + " has sent invalid rows", e);
+        }
+        // The own rows are taken before the received ones are stored, so the latter are not sent back
+        final List<Row> sent = rows(node, leaves);
+        transport.invoke(node, request(Request.METHOD_PUT, ROWS_PATH + query, BatchEncoding.encodeRows(sent)));
+        apply(received);
+        log.info("Repaired {} ranges shared with {}: sent {} rows, received {} rows",
+                leaves.size(), node, sent.size(), received.size());
+        return sent.size() + received.size();
+    }
+
+    /**
+     * Builds the tree of the ranges shared with the node.
+     *
+     * @throws IllegalArgumentException if the node is not another node of the cluster
+     */
+    @NotNull
+    MerkleTree tree(@NotNull final String node) throws IOException {
+        final List<Integer> shared = shared(node);
+        final long[] digests = dao.rangeDigests(topology.getRanges());
+        final long[] leaves = new long[shared.size()];
+        for (int i = 0; i < leaves.length; i++) {
+            leaves[i] = digests[shared.get(i)];
+        }
+        return MerkleTree.of(leaves);
+    }
+
+    /**
+     * Returns the rows of the given leaves of the tree shared with the node, tombstones included.
+     * The ranges are spread over the keys, so the tables which have rows in the requested ranges are scanned,
+     * but only the rows of these ranges are sent.
+     *
+     * @throws IllegalArgumentException if the node is not another node of the cluster or a leaf is invalid
+     */
+    @NotNull
+    List<Row> rows(@NotNull final String node, @NotNull final List<Integer> leaves) throws IOException {
+        final List<Integer> shared = shared(node);
+        final TokenRanges ranges = topology.getRanges();
+        final BitSet wanted = new BitSet(ranges.size());
+        for (final int leaf : leaves) {
+            if (leaf < 0 || leaf >= shared.size()) {
+                throw new IllegalArgumentException("Invalid leaf " + leaf);
+            }
+            wanted.set(shared.get(leaf));
+        }
+        final List<Row> rows = new ArrayList<>();
+        final Iterator<Row> wantedRows = dao.rowIterator(ranges, wanted);
+        while (wantedRows.hasNext()) {
+            rows.add(wantedRows.next());
+        }
+        return rows;
+    }
+
+    /**
+     * Stores the rows of the other replica, the stored rows which are newer are kept.
+     */
+    void apply(@NotNull final List<Row> rows) throws IOException {
+        for (final Row row : rows) {
+            dao.putValue(row.getKey(), row.getValue());
+        }
+    }
+
+    /**
+     * Decodes the indexes of the leaves.
+     *
+     * @throws IllegalArgumentException if the body is malformed
+     */
+    @NotNull
+    static List<Integer> decodeLeaves(@NotNull final byte[] body) {
+        if (body.length % Integer.BYTES != 0) {
+            throw new IllegalArgumentException("Truncated leaves");
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(body);
+        final List<Integer> leaves = new ArrayList<>(body.length / Integer.BYTES);
+        while (buffer.hasRemaining()) {
+            leaves.add(buffer.getInt());
+        }
+        return leaves;
+    }
+
+    @NotNull
+    private static byte[] encodeLeaves(@NotNull final List<Integer> leaves) {
+        final ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES * leaves.size());
+        for (final int leaf : leaves) {
+            buffer.putInt(leaf);
+        }
+        return buffer.array();
+    }
+
+    @NotNull
+    private List<Integer> shared(@NotNull final String node) {
+        final List<Integer> shared = sharedRanges.get(node);
+        if (shared == null) {
+            throw new IllegalArgumentException("Unknown node " + node);
+        }
+        return Collections.unmodifiableList(shared);
+    }
+
+    @NotNull
+    private static Request request(final int method, @NotNull final String uri, @NotNull final byte[] body) {
+        final Request request = new Request(method, uri, true);
+        request.addHeader("Content-Length: " + body.length);
+        request.setBody(body);
+        return request;
+    }
+}
@@ -0,0 +1,204 @@
+package ru.mail.polis.service.vasekha;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jetbrains.annotations.NotNull;
+
+import ru.mail.polis.storage.Row;
+import ru.mail.polis.storage.Value;
+
+/**
+ * Length-prefixed bodies of the batch requests, all the sizes are big-endian ints.
+ * <ul>
+ * <li>keys: (key size | key)*</li>
+ * <li>values: (value size | value)* in the order of the requested keys, size -1 marks an absent key</li>
+ * <li>updates: (key size | key | value size | value)*, size -1 and no value remove the key</li>
+ * <li>rows: (key size | key | timestamp | value size | value)*, size -1 and no value mark a tombstone,
+ * the timestamp is a big-endian long</li>
+ * </ul>
+ * The decoded keys and values share the body array.
+ */
+final class BatchEncoding {
+    private static final int ABSENT = -1;
+
+    private BatchEncoding() {
+    }
+
+    /**
+     * Decodes the requested keys.
+     *
+     * @throws IllegalArgumentException if the body is malformed
+     */
+    @NotNull
+    static List<ByteBuffer> decodeKeys(@NotNull final byte[] body) {
+        final ByteBuffer buffer = ByteBuffer.wrap(body);
+        final List<ByteBuffer> keys = new ArrayList<>();
+        try {
+            while (buffer.hasRemaining()) {
+                keys.add(slice(buffer, buffer.getInt()));
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated batch", e);
+        }
+        return keys;
+    }
+
+    /**
+     * Decodes the updates, the values of the removed keys are null and the last update of a key wins.
+     *
+     * @throws IllegalArgumentException if the body is malformed
+     */
+    @NotNull
+    static Map<ByteBuffer, ByteBuffer> decodeUpdates(@NotNull final byte[] body) {
+        final ByteBuffer buffer = ByteBuffer.wrap(body);
+        final Map<ByteBuffer, ByteBuffer> updates = new LinkedHashMap<>();
+        try {
+            while (buffer.hasRemaining()) {
+                final ByteBuffer key = slice(buffer, buffer.getInt());
+                final int valueSize = buffer.getInt();
+                updates.put(key, valueSize == ABSENT ? null : slice(buffer, valueSize));
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated batch", e);
+        }
+        return updates;
+    }
+
+    /**
+     * Decodes the values of the keys, the keys with size -1 are absent from the result.
+     *
+     * @throws IllegalArgumentException if the body is malformed
+     */
+    @NotNull
+    static Map<ByteBuffer, ByteBuffer> decodeValues(@NotNull final List<ByteBuffer> keys, @NotNull final byte[] body) {
+        final ByteBuffer buffer = ByteBuffer.wrap(body);
+        final Map<ByteBuffer, ByteBuffer> values = new HashMap<>();
+        try {
+            for (final ByteBuffer key : keys) {
+                final int valueSize = buffer.getInt();
+                if (valueSize != ABSENT) {
+                    values.put(key, slice(buffer, valueSize));
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated batch", e);
+        }
+        return values;
+    }
+
+    /**
+     * Decodes the rows exchanged by the replicas.
+     *
+     * @throws IllegalArgumentException if the body is malformed
+     */
+    @NotNull
+    static List<Row> decodeRows(@NotNull final byte[] body) {
+        final ByteBuffer buffer = ByteBuffer.wrap(body);
+        final List<Row> rows = new ArrayList<>();
+        try {
+            while (buffer.hasRemaining()) {
+                final ByteBuffer key = slice(buffer, buffer.getInt());
+                final long timestamp = buffer.getLong();
+                final int valueSize = buffer.getInt();
+                rows.add(Row.of(key, valueSize == ABSENT
+                        ? Value.remove(timestamp)
+                        : Value.of(timestamp, slice(buffer, valueSize))));
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated batch", e);
+        }
+        return rows;
+    }
+
+    @NotNull
+    static byte[] encodeKeys(@NotNull final List<ByteBuffer> keys) {
+        int size = 0;
+        for (final ByteBuffer key : keys) {
+            size += Integer.BYTES + key.remaining();
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (final ByteBuffer key : keys) {
+            buffer.putInt(key.remaining()).put(key.duplicate());
+        }
+        return buffer.array();
+    }
+
+    @NotNull
+    static byte[] encodeUpdates(@NotNull final Map<ByteBuffer, ByteBuffer> updates) {
+        int size = 0;
+        for (final Map.Entry<ByteBuffer, ByteBuffer> entry : updates.entrySet()) {
+            final ByteBuffer value = entry.getValue();
+            size += Integer.BYTES * 2 + entry.getKey().remaining() + (value == null ? 0 : value.remaining());
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (final Map.Entry<ByteBuffer, ByteBuffer> entry : updates.entrySet()) {
+            final ByteBuffer value = entry.getValue();
+            buffer.putInt(entry.getKey().remaining()).put(entry.getKey().duplicate());
+            if (value == null) {
+                buffer.putInt(ABSENT);
+            } else {
+                buffer.putInt(value.remaining()).put(value.duplicate());
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Encodes the values of the keys in the order of the keys.
+     */
+    @NotNull
+    static byte[] encodeValues(
+            @NotNull final List<ByteBuffer> keys,
+            @NotNull final Map<ByteBuffer, ByteBuffer> values) {
+        int size = 0;
+        for (final ByteBuffer key : keys) {
+            final ByteBuffer value = values.get(key);
+            size += Integer.BYTES + (value == null ? 0 : value.remaining());
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (final ByteBuffer key : keys) {
+            final ByteBuffer value = values.get(key);
+            if (value == null) {
+                buffer.putInt(ABSENT);
+            } else {
+                buffer.putInt(value.remaining()).put(value.duplicate());
+            }
+        }
+        return buffer.array();
+    }
+
+    @NotNull
+    static byte[] encodeRows(@NotNull final List<Row> rows) {
+        int size = 0;
+        for (final Row row : rows) {
+            size += Integer.BYTES * 2 + Long.BYTES + row.getKey().remaining() + row.getValue().getData().remaining();
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (final Row row : rows) {
+            final Value value = row.getValue();
+            buffer.putInt(row.getKey().remaining()).put(row.getKey()).putLong(value.getTimestamp());
+            if (value.isRemoved()) {
+                buffer.putInt(ABSENT);
+            } else {
+                buffer.putInt(value.getData().remaining()).put(value.getData());
+            }
+        }
+        return buffer.array();
+    }
+
+    @NotNull
+    private static ByteBuffer slice(@NotNull final ByteBuffer buffer, final int size) {
+        if (size < 0 || size > buffer.remaining()) {
+            throw new IllegalArgumentException("Invalid size " + size);
+        }
+        final ByteBuffer result = buffer.slice().limit(size);
+        buffer.position(buffer.position() + size);
+        return result;
+    }
+}
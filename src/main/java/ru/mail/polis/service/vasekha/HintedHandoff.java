@@ -0,0 +1,324 @@
+package ru.mail.polis.service.vasekha;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ru.mail.polis.storage.Value;
+
+/**
+ * Keeps the writes which have not reached the replicas and delivers them once the replicas are back,
+ * so a short outage of a node needs no repair.
+ * The hints of every node are appended to the file of their own, which is bounded in size:
+ * the hints above the bound are dropped and left to the repair.
+ * To be replayed the file is renamed, so the new hints go to the next file meanwhile.
+ * The replayed file is deleted once it has been delivered as a whole, the hints are resent from its beginning
+ * if the delivery fails, which is harmless as the replicas keep the newest value.
+ * Record format: payload size | payload checksum | key size | key | tombstone flag | timestamp | value
+ * where the flag byte is 1 for a tombstone, 0 otherwise. Payload checksum is CRC32C.
+ * The hints are not forced to the storage device.
+ */
+final class HintedHandoff implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(HintedHandoff.class);
+    private static final String SUFFIX = ".hints";
+    private static final String SUFFIX_REPLAY = ".replay";
+    private static final int HEADER_SIZE = Integer.BYTES * 2;
+    private static final byte LIVE = 0;
+    private static final byte TOMBSTONE = 1;
+    private static final long REPLAY_INTERVAL_MILLIS = 1000;
+    private static final int BATCH_SIZE = 100;
+    private static final long BATCH_PAUSE_MILLIS = 10;
+    private final Map<String, NodeHints> hints = new HashMap<>();
+    private final long maxBytesPerNode;
+    private final Delivery delivery;
+    private final ScheduledExecutorService replayer;
+    private final LongAdder stored = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+
+    /**
+     * Sends the hinted value to the replica.
+     */
+    interface Delivery {
+        /**
+         * Delivers the value.
+         *
+         * @throws IOException if the node has not stored the value
+         */
+        void deliver(@NotNull String node, @NotNull ByteBuffer key, @NotNull Value value) throws IOException;
+    }
+
+    /**
+     * Creates the hints and starts replaying the ones left by the previous run.
+     *
+     * @param directory       the directory of the hint files
+     * @param nodes           the nodes which may get the hints
+     * @param maxBytesPerNode the bound of the hints of a single node
+     * @param delivery        the sender of the hints
+     * @throws IOException if the directory cannot be created
+     */
+    HintedHandoff(
+            @NotNull final File directory,
+            @NotNull final Set<String> nodes,
+            final long maxBytesPerNode,
+            @NotNull final Delivery delivery) throws IOException {
+        Files.createDirectories(directory.toPath());
+        for (final String node : nodes) {
+            final String name = node.replaceAll("[^A-Za-z0-9.-]", "_");
+            hints.put(node, new NodeHints(
+                    directory.toPath().resolve(name + SUFFIX),
+                    directory.toPath().resolve(name + SUFFIX_REPLAY)));
+        }
+        this.maxBytesPerNode = maxBytesPerNode;
+        this.delivery = delivery;
+        this.replayer = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("hints-%d").build());
+        replayer.scheduleWithFixedDelay(
+                this::replay,
+                REPLAY_INTERVAL_MILLIS,
+                REPLAY_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stores the value which has not been written to the node.
+     */
+    void hint(@NotNull final String node, @NotNull final ByteBuffer key, @NotNull final Value value) {
+        final NodeHints nodeHints = hints.get(node);
+        if (nodeHints == null) {
+            throw new IllegalArgumentException("Unknown node " + node);
+        }
+        try {
+            if (nodeHints.append(encode(key, value))) {
+                stored.increment();
+            } else {
+                dropped.increment();
+            }
+        } catch (IOException e) {
+            dropped.increment();
+            log.error("Cannot store hint for " + node, e);
+        }
+    }
+
+    long getStoredCount() {
+        return stored.sum();
+    }
+
+    long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    long getDeliveredCount() {
+        return delivered.sum();
+    }
+
+    @Override
+    public void close() throws IOException {
+        replayer.shutdownNow();
+        try {
+            if (!replayer.awaitTermination(1, TimeUnit.MINUTES)) {
+                throw new IOException("Cannot wait for the hints replayer to terminate");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the hints replayer", e);
+        }
+        for (final NodeHints nodeHints : hints.values()) {
+            nodeHints.close();
+        }
+    }
+
+    private void replay() {
+        for (final Map.Entry<String, NodeHints> entry : hints.entrySet()) {
+            try {
+                entry.getValue().replay(entry.getKey());
+            } catch (IOException e) {
+                log.debug("Cannot deliver hints to {}: {}", entry.getKey(), e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    @NotNull
+    private static ByteBuffer encode(@NotNull final ByteBuffer key, @NotNull final Value value) {
+        final ByteBuffer data = value.isRemoved() ? Value.EMPTY_BUFFER : value.getData();
+        final int size = Integer.BYTES + key.remaining() + Byte.BYTES + Long.BYTES + data.remaining();
+        final ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + size);
+        record.position(HEADER_SIZE);
+        record.putInt(key.remaining()).put(key.duplicate());
+        record.put(value.isRemoved() ? TOMBSTONE : LIVE);
+        record.putLong(value.getTimestamp()).put(data);
+        final Checksum checksum = new CRC32C();
+        checksum.update(record.duplicate().flip().position(HEADER_SIZE));
+        record.putInt(0, size).putInt(Integer.BYTES, (int) checksum.getValue());
+        return record.flip();
+    }
+
+    /**
+     * Returns the next hint of the stream, or null at the end of the stream or at its torn tail.
+     */
+    @Nullable
+    private static Hint read(@NotNull final DataInputStream input) throws IOException {
+        final byte[] payload;
+        final int expectedChecksum;
+        try {
+            final int size = input.readInt();
+            expectedChecksum = input.readInt();
+            if (size < Integer.BYTES + Byte.BYTES + Long.BYTES) {
+                return null;
+            }
+            payload = new byte[size];
+            input.readFully(payload);
+        } catch (EOFException e) {
+            return null;
+        }
+        final Checksum checksum = new CRC32C();
+        checksum.update(payload, 0, payload.length);
+        if ((int) checksum.getValue() != expectedChecksum) {
+            return null;
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(payload);
+        final int keySize = buffer.getInt();
+        if (keySize < 0 || keySize > buffer.remaining() - Byte.BYTES - Long.BYTES) {
+            return null;
+        }
+        final ByteBuffer key = buffer.slice().limit(keySize);
+        buffer.position(buffer.position() + keySize);
+        final byte flag = buffer.get();
+        final long timestamp = buffer.getLong();
+        final Value value = flag == TOMBSTONE ? Value.remove(timestamp) : Value.of(timestamp, buffer.slice());
+        return new Hint(key, value);
+    }
+
+    private static final class Hint {
+        final ByteBuffer key;
+        final Value value;
+
+        Hint(@NotNull final ByteBuffer key, @NotNull final Value value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    /**
+     * The files of the hints of a single node.
+     */
+    private final class NodeHints {
+        private final Path path;
+        private final Path replayPath;
+        private FileChannel channel;
+        private long sizeBytes;
+        private long replaySizeBytes;
+
+        NodeHints(@NotNull final Path path, @NotNull final Path replayPath) throws IOException {
+            this.path = path;
+            this.replayPath = replayPath;
+            this.sizeBytes = Files.exists(path) ? Files.size(path) : 0;
+            this.replaySizeBytes = Files.exists(replayPath) ? Files.size(replayPath) : 0;
+        }
+
+        /**
+         * Appends the record unless the hints of the node would exceed the bound.
+         */
+        synchronized boolean append(@NotNull final ByteBuffer record) throws IOException {
+            if (sizeBytes + replaySizeBytes + record.remaining() > maxBytesPerNode) {
+                return false;
+            }
+            if (channel == null) {
+                channel = FileChannel.open(
+                        path,
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE,
+                        StandardOpenOption.APPEND);
+            }
+            sizeBytes += record.remaining();
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+            return true;
+        }
+
+        /**
+         * Delivers the replayed file left by the failed attempt, if any, otherwise the current file.
+         */
+        void replay(@NotNull final String node) throws IOException, InterruptedException {
+            if (!rotate()) {
+                return;
+            }
+            int count = 0;
+            try (InputStream file = Files.newInputStream(replayPath);
+                 DataInputStream input = new DataInputStream(new BufferedInputStream(file))) {
+                for (Hint hint = read(input); hint != null; hint = read(input)) {
+                    delivery.deliver(node, hint.key, hint.value);
+                    delivered.increment();
+                    if (++count % BATCH_SIZE == 0) {
+                        // Leave the bandwidth and the workers of the node to its clients
+                        Thread.sleep(BATCH_PAUSE_MILLIS);
+                    }
+                }
+            }
+            synchronized (this) {
+                Files.delete(replayPath);
+                replaySizeBytes = 0;
+            }
+            log.info("Delivered {} hints to {}", count, node);
+        }
+
+        /**
+         * Moves the current file to the replayed one unless there is one already.
+         *
+         * @return false if there is nothing to replay
+         */
+        private synchronized boolean rotate() throws IOException {
+            if (replaySizeBytes > 0) {
+                return true;
+            }
+            if (sizeBytes == 0) {
+                return false;
+            }
+            closeChannel();
+            Files.move(path, replayPath, StandardCopyOption.ATOMIC_MOVE);
+            replaySizeBytes = sizeBytes;
+            sizeBytes = 0;
+            return true;
+        }
+
+        synchronized void close() throws IOException {
+            closeChannel();
+        }
+
+        private void closeChannel() throws IOException {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+        }
+    }
+}
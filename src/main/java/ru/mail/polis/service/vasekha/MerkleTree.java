@@ -0,0 +1,103 @@
+package ru.mail.polis.service.vasekha;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Binary hash tree over the digests of the ranges, so the replicas find the ranges which differ
+ * by comparing the subtrees from the root down and skip the equal ones as a whole.
+ * The nodes are kept in the array: the root is at 1 and the children of the node i are at 2i and 2i + 1,
+ * the leaves are padded with zeros to the power of two.
+ * Encoded tree: leaves count | nodes from the root, all big-endian.
+ */
+final class MerkleTree {
+    private static final HashFunction HASH = Hashing.murmur3_128();
+    private final int leavesCount;
+    private final long[] nodes;
+
+    private MerkleTree(final int leavesCount, @NotNull final long[] nodes) {
+        this.leavesCount = leavesCount;
+        this.nodes = nodes;
+    }
+
+    /**
+     * Builds the tree over the digests of the leaves.
+     */
+    @NotNull
+    static MerkleTree of(@NotNull final long[] leaves) {
+        final int width = width(leaves.length);
+        final long[] nodes = new long[width * 2];
+        System.arraycopy(leaves, 0, nodes, width, leaves.length);
+        for (int i = width - 1; i > 0; i--) {
+            nodes[i] = HASH.newHasher().putLong(nodes[2 * i]).putLong(nodes[2 * i + 1]).hash().asLong();
+        }
+        return new MerkleTree(leaves.length, nodes);
+    }
+
+    /**
+     * Decodes the tree.
+     *
+     * @throws IllegalArgumentException if the body is malformed
+     */
+    @NotNull
+    static MerkleTree decode(@NotNull final byte[] body) {
+        final ByteBuffer buffer = ByteBuffer.wrap(body);
+        try {
+            final int leavesCount = buffer.getInt();
+            if (leavesCount < 0 || buffer.remaining() != Long.BYTES * (width(leavesCount) * 2 - 1)) {
+                throw new IllegalArgumentException("Invalid tree of " + leavesCount + " leaves");
+            }
+            final long[] nodes = new long[width(leavesCount) * 2];
+            buffer.asLongBuffer().get(nodes, 1, nodes.length - 1);
+            return new MerkleTree(leavesCount, nodes);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated tree", e);
+        }
+    }
+
+    @NotNull
+    byte[] encode() {
+        final ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + Long.BYTES * (nodes.length - 1));
+        buffer.putInt(leavesCount);
+        buffer.asLongBuffer().put(nodes, 1, nodes.length - 1);
+        return buffer.array();
+    }
+
+    /**
+     * Returns the indexes of the leaves which differ from the ones of the other tree in ascending order.
+     *
+     * @throws IllegalArgumentException if the trees have different numbers of the leaves
+     */
+    @NotNull
+    List<Integer> diff(@NotNull final MerkleTree other) {
+        if (leavesCount != other.leavesCount) {
+            throw new IllegalArgumentException("Trees of " + leavesCount + " and " + other.leavesCount + " leaves");
+        }
+        final List<Integer> leaves = new ArrayList<>();
+        diff(other, 1, leaves);
+        return leaves;
+    }
+
+    private void diff(@NotNull final MerkleTree other, final int node, @NotNull final List<Integer> leaves) {
+        if (node >= nodes.length || nodes[node] == other.nodes[node]) {
+            return;
+        }
+        final int width = nodes.length / 2;
+        if (node >= width) {
+            leaves.add(node - width);
+            return;
+        }
+        diff(other, 2 * node, leaves);
+        diff(other, 2 * node + 1, leaves);
+    }
+
+    private static int width(final int leavesCount) {
+        return leavesCount <= 1 ? 1 : Integer.highestOneBit(leavesCount - 1) << 1;
+    }
+}
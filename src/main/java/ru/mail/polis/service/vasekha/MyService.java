@@ -1,24 +1,247 @@
 package ru.mail.polis.service.vasekha;
 
 import java.io.IOException;
+import java.net.URLEncoder;
 import java.nio.ByteBuffer;
-import java.util.NoSuchElementException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
 
 import one.nio.http.*;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import com.google.common.base.Charsets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+import one.nio.net.ConnectionString;
+import one.nio.net.Socket;
+import one.nio.pool.PoolException;
 import one.nio.server.AcceptorConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.mail.polis.Record;
 import ru.mail.polis.dao.DAO;
+import ru.mail.polis.metrics.Histogram;
+import ru.mail.polis.metrics.MetricsRegistry;
 import ru.mail.polis.service.Service;
+import ru.mail.polis.storage.Row;
+import ru.mail.polis.storage.Time;
+import ru.mail.polis.storage.Value;
 
 public class MyService extends HttpServer implements Service {
+    private static final Logger log = LoggerFactory.getLogger(MyService.class);
+    /**
+     * Marks the requests sent by the coordinators to the replicas.
+     */
+    private static final String REPLICA_HEADER = "X-Replica: ";
+    /**
+     * The timestamp of the written value or the one of the value read from the replica.
+     */
+    private static final String TIMESTAMP_HEADER = "X-Timestamp: ";
+    private static final int PROXY_TIMEOUT_MILLIS = 1000;
+    private static final double NANOS = 1e-9;
+    private static final int[] ENTITY_METHODS = {Request.METHOD_GET, Request.METHOD_PUT, Request.METHOD_DELETE};
+    private static final String[] ENTITY_METHOD_NAMES = {"GET", "PUT", "DELETE"};
     private final DAO dao;
+    private final WorkerPool workers;
+    /**
+     * Runs the blocking calls of the replicas, so the coordinator waits for them in parallel.
+     */
+    private final ExecutorService replicaCalls;
+    /**
+     * The writes which have not reached the replicas, null if they are not kept.
+     */
+    @Nullable
+    private final HintedHandoff hints;
+    private final AntiEntropy antiEntropy;
+    private final Topology topology;
+    /**
+     * Clients of the other nodes, each of them keeps a pool of connections to its node.
+     */
+    private final Map<String, HttpClient> clients = new HashMap<>();
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    @Nullable
+    private final MetricsRegistry storageMetrics;
+    /**
+     * Latencies of the entity requests of the clients by the method.
+     */
+    private final Map<Integer, Histogram> clientNanos = new HashMap<>();
+    /**
+     * Latencies of the entity requests of the other coordinators by the method.
+     */
+    private final Map<Integer, Histogram> replicaNanos = new HashMap<>();
+    /**
+     * The time of {@link #start()} and the time it has taken to send the first response, 0 until it is sent.
+     */
+    private volatile long startNanos;
+    private final AtomicLong firstResponseNanos = new AtomicLong();
 
+    /**
+     * Creates the service of the single node cluster.
+     */
     public MyService(final int port, @NotNull final DAO dao) throws IOException {
+        this(port, dao, new Topology(Collections.singleton(endpoint(port)), endpoint(port)), ServiceOptions.DEFAULT);
+    }
+
+    /**
+     * Creates the service of the node of the cluster.
+     *
+     * @param port     the port to listen to
+     * @param dao      the storage of the keys owned by this node
+     * @param topology the nodes of the cluster, this node is the one at {@link #endpoint(int) the port}
+     * @param options  parameters of the request handling
+     * @throws IOException if the server cannot be created
+     */
+    public MyService(
+            final int port,
+            @NotNull final DAO dao,
+            @NotNull final Topology topology,
+            @NotNull final ServiceOptions options) throws IOException {
         super(getConfig(port));
         this.dao = dao;
+        this.workers = new WorkerPool(options.getWorkers(), options.getQueueCapacity());
+        this.topology = topology;
+        this.replicaCalls = Executors.newFixedThreadPool(
+                Math.max(1, options.getWorkers() * (topology.getNodes().size() - 1)),
+                new ThreadFactoryBuilder().setNameFormat("replica-%d").build());
+        for (final String node : topology.getNodes()) {
+            if (!topology.isMe(node)) {
+                clients.put(node, new HttpClient(new ConnectionString(node + "?timeout=" + PROXY_TIMEOUT_MILLIS)));
+            }
+        }
+        this.hints = options.getHintsDirectory() == null || clients.isEmpty() ? null : new HintedHandoff(
+                options.getHintsDirectory(),
+                clients.keySet(),
+                options.getMaxHintsBytes(),
+                this::deliverHint);
+        this.antiEntropy = new AntiEntropy(
+                dao,
+                topology,
+                ReplicaFactor.parse(null, topology.getNodes().size()).getFrom(),
+                this::call);
+        this.storageMetrics = options.getStorageMetrics();
+        registerMetrics();
+    }
+
+    private void registerMetrics() {
+        for (int i = 0; i < ENTITY_METHODS.length; i++) {
+            final int method = ENTITY_METHODS[i];
+            final String name = ENTITY_METHOD_NAMES[i];
+            clientNanos.put(method, metrics.histogram(
+                    "http_request_duration_seconds", "Latency of the entity requests of the clients", NANOS,
+                    "method", name));
+            replicaNanos.put(method, metrics.histogram(
+                    "replica_request_duration_seconds", "Latency of the entity requests of the other nodes", NANOS,
+                    "method", name));
+        }
+        metrics.gauge("service_first_response_seconds", "Time from the start of the service to its first response",
+                NANOS, firstResponseNanos::get);
+        metrics.gauge("workers_queue_size", "Requests waiting for the workers", workers::getQueueSize);
+        metrics.gauge("workers_queue_capacity", "Requests which may wait for the workers", workers::getQueueCapacity);
+        metrics.gauge("workers_active", "Workers handling the requests", workers::getActiveCount);
+        metrics.counter("workers_started_total", "Requests taken by the workers", workers::getStartedCount);
+        metrics.counter("workers_rejected_total", "Requests rejected with 503", workers::getRejectedCount);
+        metrics.counter("workers_wait_nanoseconds_total", "Time the requests have waited for the workers",
+                workers::getWaitNanos);
+        final HintedHandoff handoff = hints;
+        if (handoff != null) {
+            metrics.counter("hints_stored_total", "Writes kept for the unavailable replicas", handoff::getStoredCount);
+            metrics.counter("hints_dropped_total", "Writes not kept as the hints are full", handoff::getDroppedCount);
+            metrics.counter("hints_delivered_total", "Hints delivered to the replicas", handoff::getDeliveredCount);
+        }
+    }
+
+    /**
+     * Returns the endpoint of the node listening to the port, which identifies the node in the topology.
+     */
+    @NotNull
+    public static String endpoint(final int port) {
+        return "http://localhost:" + port;
+    }
+
+    /**
+     * Returns the pool which handles the requests.
+     */
+    @NotNull
+    public WorkerPool getWorkers() {
+        return workers;
+    }
+
+    /**
+     * Passes the request to the workers, so the selector thread does not wait for the disk.
+     * The response is sent by the worker, the request is rejected with 503 if too many ones are waiting.
+     */
+    @Override
+    public void handleRequest(@NotNull final Request request, @NotNull final HttpSession session) throws IOException {
+        try {
+            workers.execute(() -> {
+                try {
+                    super.handleRequest(request, session);
+                } catch (Exception e) {
+                    log.error("Cannot handle " + request.getURI(), e);
+                    sendError(session);
+                }
+                if (firstResponseNanos.get() == 0) {
+                    firstResponseNanos.compareAndSet(0, Math.max(1, System.nanoTime() - startNanos));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            session.sendResponse(new Response(Response.SERVICE_UNAVAILABLE, Response.EMPTY));
+        }
+    }
+
+    @Override
+    public synchronized void start() {
+        startNanos = System.nanoTime();
+        super.start();
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+        try {
+            if (!workers.shutdown(1, TimeUnit.MINUTES)) {
+                log.error("Cannot wait for the workers to terminate");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        replicaCalls.shutdownNow();
+        if (hints != null) {
+            try {
+                hints.close();
+            } catch (IOException e) {
+                log.error("Cannot close hints", e);
+            }
+        }
+        for (final HttpClient client : clients.values()) {
+            client.close();
+        }
+    }
+
+    private static void sendError(@NotNull final HttpSession session) {
+        try {
+            session.sendResponse(new Response(Response.INTERNAL_ERROR, Response.EMPTY));
+        } catch (IOException e) {
+            log.error("Cannot send error response", e);
+        }
     }
 
     @Override
@@ -27,41 +250,708 @@ public class MyService extends HttpServer implements Service {
         session.sendResponse(response);
     }
 
+    @Override
+    public HttpSession createSession(@NotNull final Socket socket) {
+        return new StreamingSession(socket, this);
+    }
+
     @Path("/v0/status")
     public Response status() {
         return new Response(Response.OK, Response.EMPTY);
     }
 
+    /**
+     * Coordinates the request of the client: sends it to the replicas of the key and answers
+     * once ack of the from replicas have answered, see {@link ReplicaFactor}.
+     * The requests of the other coordinators marked with {@link #REPLICA_HEADER} are served locally.
+     */
     @Path("/v0/entity")
-    public Response entity(@Param("id") final String id, @NotNull final Request request) {
+    public Response entity(
+            @Param("id") final String id,
+            @Param("replicas") final String replicas,
+            @NotNull final Request request) {
         if (id == null || id.equals("")) {
             return new Response(Response.BAD_REQUEST, Response.EMPTY);
         }
+        final int method = request.getMethod();
+        if (method != Request.METHOD_GET && method != Request.METHOD_PUT && method != Request.METHOD_DELETE) {
+            return new Response(Response.METHOD_NOT_ALLOWED, Response.EMPTY);
+        }
+        final long start = System.nanoTime();
         final ByteBuffer key = ByteBuffer.wrap(id.getBytes(Charsets.UTF_8));
+        if (request.getHeader(REPLICA_HEADER) != null) {
+            final String timestamp = request.getHeader(TIMESTAMP_HEADER);
+            final long writeTimestamp;
+            try {
+                writeTimestamp = timestamp == null ? Time.getTimeNanos() : Long.parseLong(timestamp.trim());
+            } catch (NumberFormatException e) {
+                return new Response(Response.BAD_REQUEST, Response.EMPTY);
+            }
+            // The writes coordinated by this node afterwards are ordered after the one of the coordinator
+            Time.observe(writeTimestamp);
+            final Response response = local(request, key, writeTimestamp);
+            replicaNanos.get(method).record(System.nanoTime() - start);
+            return response;
+        }
+        final ReplicaFactor factor;
+        try {
+            factor = ReplicaFactor.parse(replicas, topology.getNodes().size());
+        } catch (IllegalArgumentException e) {
+            return new Response(Response.BAD_REQUEST, Response.EMPTY);
+        }
+        final Response response = coordinate(request, key, factor);
+        clientNanos.get(method).record(System.nanoTime() - start);
+        return response;
+    }
+
+    /**
+     * Exposes the metrics of the service and the storage in the text format of Prometheus.
+     */
+    @Path("/v0/metrics")
+    public Response metrics(@NotNull final Request request) {
+        if (request.getMethod() != Request.METHOD_GET) {
+            return new Response(Response.METHOD_NOT_ALLOWED, Response.EMPTY);
+        }
+        final StringBuilder out = new StringBuilder();
+        metrics.scrape(out);
+        if (storageMetrics != null) {
+            storageMetrics.scrape(out);
+        }
+        final Response response = new Response(Response.OK, out.toString().getBytes(Charsets.UTF_8));
+        response.addHeader("Content-Type: text/plain; version=0.0.4; charset=utf-8");
+        return response;
+    }
+
+    /**
+     * Sends the request to all the replicas at once and waits for the first ack answers only.
+     * The write gets the timestamp here, so all the replicas store the same value,
+     * the newest of the values read from the replicas is returned.
+     */
+    @NotNull
+    private Response coordinate(
+            @NotNull final Request request,
+            @NotNull final ByteBuffer key,
+            @NotNull final ReplicaFactor factor) {
+        final long timestamp = Time.getTimeNanos();
+        final Request replicaRequest = replicaRequest(request, timestamp);
+        final CompletionService<Response> calls = new ExecutorCompletionService<>(replicaCalls);
+        int pending = 0;
+        boolean local = false;
+        for (final String node : topology.replicas(key, factor.getFrom())) {
+            if (topology.isMe(node)) {
+                local = true;
+            } else {
+                calls.submit(() -> callReplica(node, replicaRequest, key, timestamp));
+                pending++;
+            }
+        }
+        final List<Response> answers = new ArrayList<>(factor.getFrom());
+        if (local) {
+            addAnswer(answers, local(request, key, timestamp));
+        }
+        try {
+            while (answers.size() < factor.getAck() && answers.size() + pending >= factor.getAck()) {
+                final Future<Response> call = calls.poll(PROXY_TIMEOUT_MILLIS * 2, TimeUnit.MILLISECONDS);
+                if (call == null) {
+                    break;
+                }
+                pending--;
+                try {
+                    addAnswer(answers, call.get());
+                } catch (ExecutionException e) {
+                    log.debug("Replica has failed", e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (answers.size() < factor.getAck()) {
+            return new Response(Response.GATEWAY_TIMEOUT, Response.EMPTY);
+        }
+        switch (request.getMethod()) {
+            case Request.METHOD_PUT:
+                return new Response(Response.CREATED, Response.EMPTY);
+            case Request.METHOD_DELETE:
+                return new Response(Response.ACCEPTED, Response.EMPTY);
+            default:
+                return newest(answers);
+        }
+    }
+
+    /**
+     * Sends the request to the replica, the write which has failed is kept until the replica is back.
+     */
+    @NotNull
+    private Response callReplica(
+            @NotNull final String node,
+            @NotNull final Request request,
+            @NotNull final ByteBuffer key,
+            final long timestamp) throws ProxyException {
+        final int method = request.getMethod();
+        if (hints == null || method == Request.METHOD_GET) {
+            return forward(node, request);
+        }
+        final Response response;
+        try {
+            response = forward(node, request);
+        } catch (ProxyException e) {
+            hints.hint(node, key, written(request, timestamp));
+            throw e;
+        }
+        if (response.getStatus() >= 500) {
+            hints.hint(node, key, written(request, timestamp));
+        }
+        return response;
+    }
+
+    @NotNull
+    private static Value written(@NotNull final Request request, final long timestamp) {
+        if (request.getMethod() == Request.METHOD_DELETE) {
+            return Value.remove(timestamp);
+        }
+        return Value.of(timestamp, ByteBuffer.wrap(request.getBody()));
+    }
+
+    /**
+     * Writes the hinted value to the replica.
+     * The replica which rejects the value is not asked again.
+     */
+    private void deliverHint(
+            @NotNull final String node,
+            @NotNull final ByteBuffer key,
+            @NotNull final Value value) throws IOException {
+        final byte[] id = new byte[key.remaining()];
+        key.duplicate().get(id);
+        final String uri = "/v0/entity?id=" + URLEncoder.encode(new String(id, Charsets.UTF_8), Charsets.UTF_8);
+        final Request request;
+        if (value.isRemoved()) {
+            request = new Request(Request.METHOD_DELETE, uri, true);
+        } else {
+            final ByteBuffer data = value.getData();
+            final byte[] body = new byte[data.remaining()];
+            data.get(body);
+            request = new Request(Request.METHOD_PUT, uri, true);
+            request.addHeader("Content-Length: " + body.length);
+            request.setBody(body);
+        }
+        request.addHeader(REPLICA_HEADER + "true");
+        request.addHeader(TIMESTAMP_HEADER + value.getTimestamp());
+        final int status = forward(node, request).getStatus();
+        if (status >= 500) {
+            throw new ProxyException("Node " + node + " responded " + status);
+        }
+        if (status >= 300) {
+            log.warn("Node {} rejected hint with {}", node, status);
+        }
+    }
+
+    private static void addAnswer(@NotNull final List<Response> answers, @NotNull final Response response) {
+        final int status = response.getStatus();
+        if (status == 200 || status == 201 || status == 202 || status == 404) {
+            answers.add(response);
+        }
+    }
+
+    /**
+     * Returns the newest of the values read from the replicas, the key is absent if it is a tombstone.
+     */
+    @NotNull
+    private static Response newest(@NotNull final List<Response> answers) {
+        Response newest = null;
+        long newestTimestamp = Long.MIN_VALUE;
+        for (final Response answer : answers) {
+            final String timestamp = answer.getHeader(TIMESTAMP_HEADER);
+            if (timestamp != null && Long.parseLong(timestamp.trim()) > newestTimestamp) {
+                newestTimestamp = Long.parseLong(timestamp.trim());
+                newest = answer;
+            }
+        }
+        // The write which follows the read overwrites the value read
+        Time.observe(newestTimestamp);
+        if (newest == null || newest.getStatus() != 200) {
+            return new Response(Response.NOT_FOUND, Response.EMPTY);
+        }
+        return new Response(Response.OK, newest.getBody());
+    }
+
+    /**
+     * Copies the request of the client for the replicas.
+     */
+    @NotNull
+    private static Request replicaRequest(@NotNull final Request request, final long timestamp) {
+        final Request result = new Request(request.getMethod(), request.getURI(), true);
+        result.addHeader(REPLICA_HEADER + "true");
+        result.addHeader(TIMESTAMP_HEADER + timestamp);
+        if (request.getMethod() == Request.METHOD_PUT) {
+            result.addHeader("Content-Length: " + request.getBody().length);
+            result.setBody(request.getBody());
+        }
+        return result;
+    }
+
+    /**
+     * Serves the replica of the key stored by this node.
+     * The stored timestamp is returned in {@link #TIMESTAMP_HEADER} along with the value,
+     * a tombstone is returned as 404 with the timestamp.
+     */
+    @NotNull
+    private Response local(@NotNull final Request request, @NotNull final ByteBuffer key, final long timestamp) {
         try {
             switch (request.getMethod()) {
                 case Request.METHOD_GET:
-                    ByteBuffer value = dao.get(key);
-                    ByteBuffer duplicate = value.duplicate();
-                    byte[] body = new byte[duplicate.remaining()];
-                    duplicate.get(body);
-                    return new Response(Response.OK, body);
+                    final Value value = dao.getValue(key);
+                    if (value == null) {
+                        return new Response(Response.NOT_FOUND, Response.EMPTY);
+                    }
+                    final Response response;
+                    if (value.isRemoved()) {
+                        response = new Response(Response.NOT_FOUND, Response.EMPTY);
+                    } else {
+                        final ByteBuffer data = value.getData();
+                        final byte[] body = new byte[data.remaining()];
+                        data.get(body);
+                        response = new Response(Response.OK, body);
+                    }
+                    response.addHeader(TIMESTAMP_HEADER + value.getTimestamp());
+                    return response;
                 case Request.METHOD_PUT:
-                    dao.upsert(key, ByteBuffer.wrap(request.getBody()));
+                    dao.putValue(key, Value.of(timestamp, ByteBuffer.wrap(request.getBody())));
                     return new Response(Response.CREATED, Response.EMPTY);
                 case Request.METHOD_DELETE:
-                    dao.remove(key);
+                    dao.putValue(key, Value.remove(timestamp));
                     return new Response(Response.ACCEPTED, Response.EMPTY);
                 default:
                     return new Response(Response.METHOD_NOT_ALLOWED, Response.EMPTY);
             }
         } catch (IOException e) {
+            log.error("Cannot access the replica", e);
             return new Response(Response.INTERNAL_ERROR, Response.EMPTY);
-        } catch (NoSuchElementException e) {
-            return new Response(Response.NOT_FOUND, Response.EMPTY);
         }
     }
 
+    /**
+     * Serves many keys with a single request, see {@link BatchEncoding} for the bodies.
+     * Every replica gets the keys it stores as a single batch and the request is answered once ack
+     * of the from replicas of every key have answered, see {@link ReplicaFactor}.
+     * POST looks up the keys and returns their newest values.
+     * PUT applies the updates with a single timestamp, the batch may be applied partially if some node fails.
+     * The batches of the other coordinators marked with {@link #REPLICA_HEADER} are served locally,
+     * the lookups return the rows with the timestamps, see {@link BatchEncoding}.
+     */
+    @Path("/v0/batch")
+    public Response batch(@Param("replicas") final String replicas, @NotNull final Request request) {
+        final byte[] body = request.getBody() == null ? Response.EMPTY : request.getBody();
+        try {
+            switch (request.getMethod()) {
+                case Request.METHOD_POST:
+                    final List<ByteBuffer> keys = BatchEncoding.decodeKeys(body);
+                    if (request.getHeader(REPLICA_HEADER) != null) {
+                        final List<Row> rows = new ArrayList<>();
+                        for (final Map.Entry<ByteBuffer, Value> entry : dao.getValues(keys).entrySet()) {
+                            rows.add(Row.of(entry.getKey(), entry.getValue()));
+                        }
+                        return new Response(Response.OK, BatchEncoding.encodeRows(rows));
+                    }
+                    final Map<ByteBuffer, ByteBuffer> values =
+                            getAll(keys, ReplicaFactor.parse(replicas, topology.getNodes().size()));
+                    if (values == null) {
+                        return new Response(Response.GATEWAY_TIMEOUT, Response.EMPTY);
+                    }
+                    return new Response(Response.OK, BatchEncoding.encodeValues(keys, values));
+                case Request.METHOD_PUT:
+                    final Map<ByteBuffer, ByteBuffer> updates = BatchEncoding.decodeUpdates(body);
+                    if (request.getHeader(REPLICA_HEADER) != null) {
+                        final String timestamp = request.getHeader(TIMESTAMP_HEADER);
+                        if (timestamp == null) {
+                            return new Response(Response.BAD_REQUEST, Response.EMPTY);
+                        }
+                        final long writeTimestamp = Long.parseLong(timestamp.trim());
+                        Time.observe(writeTimestamp);
+                        dao.putValues(written(updates, writeTimestamp));
+                        return new Response(Response.CREATED, Response.EMPTY);
+                    }
+                    return upsertAll(updates, ReplicaFactor.parse(replicas, topology.getNodes().size()));
+                default:
+                    return new Response(Response.METHOD_NOT_ALLOWED, Response.EMPTY);
+            }
+        } catch (IllegalArgumentException e) {
+            return new Response(Response.BAD_REQUEST, Response.EMPTY);
+        } catch (ProxyException e) {
+            return new Response(Response.SERVICE_UNAVAILABLE, Response.EMPTY);
+        } catch (IOException e) {
+            return new Response(Response.INTERNAL_ERROR, Response.EMPTY);
+        }
+    }
+
+    /**
+     * Reads the keys from ack of their from replicas and takes the newest value of every key.
+     *
+     * @return the values of the keys which are present or null if some keys have not got ack answers
+     */
+    @Nullable
+    private Map<ByteBuffer, ByteBuffer> getAll(
+            @NotNull final List<ByteBuffer> keys,
+            @NotNull final ReplicaFactor factor) {
+        final Map<ByteBuffer, Value> newest = new HashMap<>();
+        final boolean acked = replicate(keys, factor, this::getValues, (nodeKeys, values) -> {
+            for (final Map.Entry<ByteBuffer, Value> entry : values.entrySet()) {
+                newest.merge(entry.getKey(), entry.getValue(), (a, b) -> b.getTimestamp() > a.getTimestamp() ? b : a);
+            }
+        });
+        if (!acked) {
+            return null;
+        }
+        long newestTimestamp = Long.MIN_VALUE;
+        final Map<ByteBuffer, ByteBuffer> result = new HashMap<>();
+        for (final Map.Entry<ByteBuffer, Value> entry : newest.entrySet()) {
+            final Value value = entry.getValue();
+            newestTimestamp = Math.max(newestTimestamp, value.getTimestamp());
+            if (!value.isRemoved()) {
+                result.put(entry.getKey(), value.getData());
+            }
+        }
+        // The write which follows the read overwrites the values read
+        Time.observe(newestTimestamp);
+        return result;
+    }
+
+    /**
+     * Returns the stored values of the keys of the replica, tombstones included, the absent keys are omitted.
+     *
+     * @throws IOException if the replica is unavailable or fails
+     */
+    @NotNull
+    private Map<ByteBuffer, Value> getValues(
+            @NotNull final String node,
+            @NotNull final List<ByteBuffer> keys) throws IOException {
+        if (topology.isMe(node)) {
+            return dao.getValues(keys);
+        }
+        final byte[] body = BatchEncoding.encodeKeys(keys);
+        final Request request = new Request(Request.METHOD_POST, "/v0/batch", true);
+        request.addHeader(REPLICA_HEADER + "true");
+        request.addHeader("Content-Length: " + body.length);
+        request.setBody(body);
+        final Map<ByteBuffer, Value> values = new HashMap<>();
+        try {
+            for (final Row row : BatchEncoding.decodeRows(call(node, request))) {
+                values.put(row.getKey(), row.getValue());
+            }
+        } catch (IllegalArgumentException e) {
+            throw new ProxyException("Node " + node + " has sent invalid rows", e);
+        }
+        return values;
+    }
+
+    /**
+     * Sends the updates of the keys to all their replicas at once and waits until every key has ack answers.
+     */
+    @NotNull
+    private Response upsertAll(
+            @NotNull final Map<ByteBuffer, ByteBuffer> updates,
+            @NotNull final ReplicaFactor factor) {
+        final long timestamp = Time.getTimeNanos();
+        final boolean acked = replicate(
+                new ArrayList<>(updates.keySet()),
+                factor,
+                (node, keys) -> {
+                    final Map<ByteBuffer, ByteBuffer> nodeUpdates = new LinkedHashMap<>();
+                    for (final ByteBuffer key : keys) {
+                        nodeUpdates.put(key, updates.get(key));
+                    }
+                    upsertReplica(node, nodeUpdates, timestamp);
+                    return null;
+                },
+                (keys, nothing) -> {
+                    // The acks are all that is needed
+                });
+        if (!acked) {
+            return new Response(Response.GATEWAY_TIMEOUT, Response.EMPTY);
+        }
+        return new Response(Response.CREATED, Response.EMPTY);
+    }
+
+    /**
+     * The part of a batch sent to a single replica.
+     */
+    @FunctionalInterface
+    private interface ReplicaBatch<T> {
+        /**
+         * Serves the keys on the replica, which may be this node.
+         *
+         * @throws IOException if the replica is unavailable or fails
+         */
+        T call(@NotNull String node, @NotNull List<ByteBuffer> keys) throws IOException;
+    }
+
+    /**
+     * Sends the keys to all their from replicas at once, every replica gets all its keys in a single batch,
+     * and waits until every key has ack answers. The answers are passed to the consumer
+     * in the calling thread one by one.
+     *
+     * @return whether every key has got ack answers
+     */
+    private <T> boolean replicate(
+            @NotNull final List<ByteBuffer> keys,
+            @NotNull final ReplicaFactor factor,
+            @NotNull final ReplicaBatch<T> batch,
+            @NotNull final BiConsumer<List<ByteBuffer>, T> answers) {
+        final Map<String, List<ByteBuffer>> keysByNode = new HashMap<>();
+        for (final ByteBuffer key : keys) {
+            for (final String node : topology.replicas(key, factor.getFrom())) {
+                keysByNode.computeIfAbsent(node, k -> new ArrayList<>()).add(key);
+            }
+        }
+        final CompletionService<T> calls = new ExecutorCompletionService<>(replicaCalls);
+        final Map<Future<T>, List<ByteBuffer>> pending = new HashMap<>();
+        List<ByteBuffer> localKeys = null;
+        for (final Map.Entry<String, List<ByteBuffer>> entry : keysByNode.entrySet()) {
+            final String node = entry.getKey();
+            if (topology.isMe(node)) {
+                localKeys = entry.getValue();
+            } else {
+                pending.put(calls.submit(() -> batch.call(node, entry.getValue())), entry.getValue());
+            }
+        }
+        final Map<ByteBuffer, Integer> acks = new HashMap<>();
+        int unacked = new HashSet<>(keys).size();
+        if (localKeys != null) {
+            try {
+                answers.accept(localKeys, batch.call(topology.getMe(), localKeys));
+                unacked -= addAcks(acks, localKeys, factor.getAck());
+            } catch (IOException e) {
+                log.error("Cannot serve the batch", e);
+            }
+        }
+        try {
+            while (unacked > 0 && !pending.isEmpty()) {
+                final Future<T> call = calls.poll(PROXY_TIMEOUT_MILLIS * 2, TimeUnit.MILLISECONDS);
+                if (call == null) {
+                    break;
+                }
+                final List<ByteBuffer> nodeKeys = pending.remove(call);
+                try {
+                    answers.accept(nodeKeys, call.get());
+                    unacked -= addAcks(acks, nodeKeys, factor.getAck());
+                } catch (ExecutionException e) {
+                    log.debug("Replica has failed", e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return unacked == 0;
+    }
+
+    /**
+     * Counts the answers of the keys and returns the number of the keys which have just got ack of them.
+     */
+    private static int addAcks(
+            @NotNull final Map<ByteBuffer, Integer> acks,
+            @NotNull final Collection<ByteBuffer> keys,
+            final int ack) {
+        int acked = 0;
+        for (final ByteBuffer key : keys) {
+            if (acks.merge(key, 1, Integer::sum) == ack) {
+                acked++;
+            }
+        }
+        return acked;
+    }
+
+    /**
+     * Applies the updates of its keys on the replica, the updates which have failed are kept
+     * until the replica is back.
+     *
+     * @throws IOException if the replica is unavailable or fails
+     */
+    private void upsertReplica(
+            @NotNull final String node,
+            @NotNull final Map<ByteBuffer, ByteBuffer> updates,
+            final long timestamp) throws IOException {
+        if (topology.isMe(node)) {
+            dao.putValues(written(updates, timestamp));
+            return;
+        }
+        final byte[] body = BatchEncoding.encodeUpdates(updates);
+        final Request request = new Request(Request.METHOD_PUT, "/v0/batch", true);
+        request.addHeader(REPLICA_HEADER + "true");
+        request.addHeader(TIMESTAMP_HEADER + timestamp);
+        request.addHeader("Content-Length: " + body.length);
+        request.setBody(body);
+        final Response response;
+        try {
+            response = forward(node, request);
+        } catch (ProxyException e) {
+            hintAll(node, updates, timestamp);
+            throw e;
+        }
+        if (response.getStatus() >= 500) {
+            hintAll(node, updates, timestamp);
+        }
+        if (response.getStatus() >= 300) {
+            throw new ProxyException("Node " + node + " responded " + response.getStatus());
+        }
+    }
+
+    private void hintAll(
+            @NotNull final String node,
+            @NotNull final Map<ByteBuffer, ByteBuffer> updates,
+            final long timestamp) {
+        if (hints == null) {
+            return;
+        }
+        for (final Map.Entry<ByteBuffer, Value> entry : written(updates, timestamp).entrySet()) {
+            hints.hint(node, entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Converts the updates of the batch to the values of the timestamp, null value removes the key.
+     */
+    @NotNull
+    private static Map<ByteBuffer, Value> written(
+            @NotNull final Map<ByteBuffer, ByteBuffer> updates,
+            final long timestamp) {
+        final Map<ByteBuffer, Value> values = new LinkedHashMap<>();
+        for (final Map.Entry<ByteBuffer, ByteBuffer> update : updates.entrySet()) {
+            final ByteBuffer value = update.getValue();
+            values.put(update.getKey(), value == null ? Value.remove(timestamp) : Value.of(timestamp, value));
+        }
+        return values;
+    }
+
+    /**
+     * Sends the request to the node and returns the body of the successful response.
+     *
+     * @throws ProxyException if the node is unavailable or fails
+     */
+    @NotNull
+    private byte[] call(@NotNull final String node, @NotNull final Request request) throws ProxyException {
+        final Response response = forward(node, request);
+        if (response.getStatus() >= 300) {
+            throw new ProxyException("Node " + node + " responded " + response.getStatus());
+        }
+        return response.getBody();
+    }
+
+    @NotNull
+    private Response forward(@NotNull final String node, @NotNull final Request request) throws ProxyException {
+        try {
+            return clients.get(node).invoke(request);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProxyException("Interrupted while waiting for " + node, e);
+        } catch (IOException | PoolException | HttpException e) {
+            throw new ProxyException("Cannot invoke " + node, e);
+        }
+    }
+
+    /**
+     * Repairs the ranges this node shares with every other node, see {@link AntiEntropy},
+     * and returns the number of the rows sent and received as the body.
+     * The nodes which fail are skipped and the repair is answered with 503.
+     */
+    @Path("/v0/repair")
+    public Response repair(@NotNull final Request request) {
+        if (request.getMethod() != Request.METHOD_POST) {
+            return new Response(Response.METHOD_NOT_ALLOWED, Response.EMPTY);
+        }
+        long rows = 0;
+        boolean failed = false;
+        for (final String node : clients.keySet()) {
+            try {
+                rows += antiEntropy.repair(node);
+            } catch (IOException e) {
+                log.warn("Cannot repair ranges shared with " + node, e);
+                failed = true;
+            }
+        }
+        if (failed) {
+            return new Response(Response.SERVICE_UNAVAILABLE, Response.EMPTY);
+        }
+        return new Response(Response.OK, Long.toString(rows).getBytes(Charsets.UTF_8));
+    }
+
+    /**
+     * Returns the tree of the ranges shared with the node which repairs them.
+     */
+    @Path(AntiEntropy.TREE_PATH)
+    public Response repairTree(@Param("node") final String node, @NotNull final Request request) {
+        if (node == null || !clients.containsKey(node)) {
+            return new Response(Response.BAD_REQUEST, Response.EMPTY);
+        }
+        if (request.getMethod() != Request.METHOD_GET) {
+            return new Response(Response.METHOD_NOT_ALLOWED, Response.EMPTY);
+        }
+        try {
+            return new Response(Response.OK, antiEntropy.tree(node).encode());
+        } catch (IOException e) {
+            log.error("Cannot build tree for " + node, e);
+            return new Response(Response.INTERNAL_ERROR, Response.EMPTY);
+        }
+    }
+
+    /**
+     * Exchanges the rows of the ranges which differ with the node which repairs them, see {@link BatchEncoding}.
+     * POST returns the rows of the requested leaves of the tree, PUT stores the rows of the node.
+     */
+    @Path(AntiEntropy.ROWS_PATH)
+    public Response repairRows(@Param("node") final String node, @NotNull final Request request) {
+        if (node == null || !clients.containsKey(node)) {
+            return new Response(Response.BAD_REQUEST, Response.EMPTY);
+        }
+        final byte[] body = request.getBody() == null ? Response.EMPTY : request.getBody();
+        try {
+            switch (request.getMethod()) {
+                case Request.METHOD_POST:
+                    final List<Row> rows = antiEntropy.rows(node, AntiEntropy.decodeLeaves(body));
+                    return new Response(Response.OK, BatchEncoding.encodeRows(rows));
+                case Request.METHOD_PUT:
+                    antiEntropy.apply(BatchEncoding.decodeRows(body));
+                    return new Response(Response.CREATED, Response.EMPTY);
+                default:
+                    return new Response(Response.METHOD_NOT_ALLOWED, Response.EMPTY);
+            }
+        } catch (IllegalArgumentException e) {
+            return new Response(Response.BAD_REQUEST, Response.EMPTY);
+        } catch (IOException e) {
+            log.error("Cannot exchange rows with " + node, e);
+            return new Response(Response.INTERNAL_ERROR, Response.EMPTY);
+        }
+    }
+
+    /**
+     * Streams the records with the keys in [start, end) as the chunked response,
+     * the whole range up from start is streamed if there is no end.
+     * Only the records stored by this node are streamed.
+     */
+    @Path("/v0/entities")
+    public void entities(
+            @Param("start") final String start,
+            @Param("end") final String end,
+            @NotNull final Request request,
+            @NotNull final HttpSession session) throws IOException {
+        if (start == null || start.isEmpty() || "".equals(end)) {
+            session.sendResponse(new Response(Response.BAD_REQUEST, Response.EMPTY));
+            return;
+        }
+        if (request.getMethod() != Request.METHOD_GET) {
+            session.sendResponse(new Response(Response.METHOD_NOT_ALLOWED, Response.EMPTY));
+            return;
+        }
+        final ByteBuffer from = ByteBuffer.wrap(start.getBytes(Charsets.UTF_8));
+        final ByteBuffer to = end == null ? null : ByteBuffer.wrap(end.getBytes(Charsets.UTF_8));
+        final Iterator<Record> records;
+        try {
+            records = dao.range(from, to);
+        } catch (IOException e) {
+            session.sendResponse(new Response(Response.INTERNAL_ERROR, Response.EMPTY));
+            return;
+        }
+        ((StreamingSession) session).stream(records);
+    }
+
     private static HttpServerConfig getConfig(final int port) {
         final AcceptorConfig acceptor = new AcceptorConfig();
         acceptor.port = port;
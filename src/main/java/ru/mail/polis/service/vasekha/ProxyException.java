@@ -0,0 +1,18 @@
+package ru.mail.polis.service.vasekha;
+
+import java.io.IOException;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Thrown when the request cannot be served by the node which owns the key.
+ */
+final class ProxyException extends IOException {
+    ProxyException(@NotNull final String message) {
+        super(message);
+    }
+
+    ProxyException(@NotNull final String message, @NotNull final Throwable cause) {
+        super(message, cause);
+    }
+}
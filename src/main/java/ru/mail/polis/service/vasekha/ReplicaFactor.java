@@ -0,0 +1,49 @@
+package ru.mail.polis.service.vasekha;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The number of the replicas which store the key and the number of them which must answer the request.
+ */
+final class ReplicaFactor {
+    private final int ack;
+    private final int from;
+
+    private ReplicaFactor(final int ack, final int from) {
+        this.ack = ack;
+        this.from = from;
+    }
+
+    /**
+     * Parses the factor written as ack/from, the quorum of all the nodes is taken if there is none.
+     *
+     * @param replicas   the factor, if any
+     * @param nodesCount the number of the nodes in the cluster
+     * @throws IllegalArgumentException if the factor is malformed or cannot be satisfied
+     */
+    @NotNull
+    static ReplicaFactor parse(@Nullable final String replicas, final int nodesCount) {
+        if (replicas == null) {
+            return new ReplicaFactor(nodesCount / 2 + 1, nodesCount);
+        }
+        final int slash = replicas.indexOf('/');
+        if (slash < 0) {
+            throw new IllegalArgumentException("Invalid replicas " + replicas);
+        }
+        final int ack = Integer.parseInt(replicas.substring(0, slash));
+        final int from = Integer.parseInt(replicas.substring(slash + 1));
+        if (ack <= 0 || ack > from || from > nodesCount) {
+            throw new IllegalArgumentException("Invalid replicas " + replicas);
+        }
+        return new ReplicaFactor(ack, from);
+    }
+
+    int getAck() {
+        return ack;
+    }
+
+    int getFrom() {
+        return from;
+    }
+}
@@ -0,0 +1,110 @@
+package ru.mail.polis.service.vasekha;
+
+import java.io.File;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import ru.mail.polis.metrics.MetricsRegistry;
+
+/**
+ * Parameters of {@link MyService}.
+ */
+public final class ServiceOptions {
+    public static final ServiceOptions DEFAULT = new ServiceOptions(
+            Runtime.getRuntime().availableProcessors(), 1024, null, 16 * 1024 * 1024, null);
+
+    private final int workers;
+    private final int queueCapacity;
+    @Nullable
+    private final File hintsDirectory;
+    private final long maxHintsBytes;
+    @Nullable
+    private final MetricsRegistry storageMetrics;
+
+    private ServiceOptions(
+            final int workers,
+            final int queueCapacity,
+            @Nullable final File hintsDirectory,
+            final long maxHintsBytes,
+            @Nullable final MetricsRegistry storageMetrics) {
+        this.workers = workers;
+        this.queueCapacity = queueCapacity;
+        this.hintsDirectory = hintsDirectory;
+        this.maxHintsBytes = maxHintsBytes;
+        this.storageMetrics = storageMetrics;
+    }
+
+    /**
+     * Returns the options with the given number of the threads which handle the requests.
+     */
+    @NotNull
+    public ServiceOptions withWorkers(final int workers) {
+        if (workers <= 0) {
+            throw new IllegalArgumentException("Workers count must be positive");
+        }
+        return new ServiceOptions(workers, queueCapacity, hintsDirectory, maxHintsBytes, storageMetrics);
+    }
+
+    /**
+     * Returns the options with the given number of the requests waiting for the workers,
+     * the requests above it are rejected with 503.
+     */
+    @NotNull
+    public ServiceOptions withQueueCapacity(final int queueCapacity) {
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("Queue capacity must be positive");
+        }
+        return new ServiceOptions(workers, queueCapacity, hintsDirectory, maxHintsBytes, storageMetrics);
+    }
+
+    /**
+     * Returns the options with the given directory of the writes kept for the unavailable replicas,
+     * the writes are not kept without it.
+     */
+    @NotNull
+    public ServiceOptions withHintsDirectory(@Nullable final File hintsDirectory) {
+        return new ServiceOptions(workers, queueCapacity, hintsDirectory, maxHintsBytes, storageMetrics);
+    }
+
+    /**
+     * Returns the options with the given size of the writes kept for a single unavailable replica.
+     */
+    @NotNull
+    public ServiceOptions withMaxHintsBytes(final long maxHintsBytes) {
+        if (maxHintsBytes <= 0) {
+            throw new IllegalArgumentException("Max hints size must be positive");
+        }
+        return new ServiceOptions(workers, queueCapacity, hintsDirectory, maxHintsBytes, storageMetrics);
+    }
+
+    /**
+     * Returns the options with the given metrics of the storage, which are exposed along with the ones of the service.
+     */
+    @NotNull
+    public ServiceOptions withStorageMetrics(@Nullable final MetricsRegistry storageMetrics) {
+        return new ServiceOptions(workers, queueCapacity, hintsDirectory, maxHintsBytes, storageMetrics);
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    @Nullable
+    public File getHintsDirectory() {
+        return hintsDirectory;
+    }
+
+    public long getMaxHintsBytes() {
+        return maxHintsBytes;
+    }
+
+    @Nullable
+    public MetricsRegistry getStorageMetrics() {
+        return storageMetrics;
+    }
+}
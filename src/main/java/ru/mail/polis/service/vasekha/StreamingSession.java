@@ -0,0 +1,118 @@
+package ru.mail.polis.service.vasekha;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import one.nio.http.HttpServer;
+import one.nio.http.HttpSession;
+import one.nio.http.Response;
+import one.nio.net.Socket;
+import org.jetbrains.annotations.NotNull;
+
+import ru.mail.polis.Record;
+
+/**
+ * Session which sends the records as the chunked response body.
+ * The records are taken from the iterator only when the socket has sent the previous chunk,
+ * so a scan holds no more than one chunk in memory and does not block the selector thread.
+ * Every record is written as key | '\n' | value | '\n'.
+ */
+final class StreamingSession extends HttpSession {
+    private static final byte[] CRLF = "\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte LF = '\n';
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int HEX_DIGITS = Integer.BYTES * 2;
+    private static final int HEADER_SIZE = HEX_DIGITS + CRLF.length;
+    private Iterator<Record> records;
+    private byte[] chunk = newChunk();
+
+    StreamingSession(@NotNull final Socket socket, @NotNull final HttpServer server) {
+        super(socket, server);
+    }
+
+    /**
+     * Sends the response headers and starts sending the records.
+     */
+    synchronized void stream(@NotNull final Iterator<Record> records) throws IOException {
+        this.records = records;
+        final Response response = new Response(Response.OK);
+        response.addHeader("Transfer-Encoding: chunked");
+        writeResponse(response, false);
+        next();
+    }
+
+    @Override
+    protected void processWrite() throws Exception {
+        super.processWrite();
+        next();
+    }
+
+    private synchronized void next() throws IOException {
+        if (records == null) {
+            return;
+        }
+        while (records.hasNext() && queueHead == null) {
+            final int length = fillChunk();
+            write(chunk, 0, length);
+            // The chunk written partially stays in the queue, so the next one needs another array
+            if (queueHead != null) {
+                chunk = newChunk();
+            }
+        }
+        if (!records.hasNext()) {
+            records = null;
+            write(LAST_CHUNK, 0, LAST_CHUNK.length);
+            server.incRequestsProcessed();
+            if ((handling = pipeline.pollFirst()) != null) {
+                if (handling == FIN) {
+                    scheduleClose();
+                } else {
+                    server.handleRequest(handling, this);
+                }
+            }
+        }
+    }
+
+    /**
+     * Puts the records into the chunk until it is full and returns the length of the chunk.
+     * The chunk size is written in the fixed width hex with leading zeros.
+     */
+    private int fillChunk() {
+        int offset = HEADER_SIZE;
+        while (records.hasNext() && offset - HEADER_SIZE < CHUNK_SIZE) {
+            final Record record = records.next();
+            final ByteBuffer key = record.getKey();
+            final ByteBuffer value = record.getValue();
+            final int required = offset + key.remaining() + value.remaining() + 2 + CRLF.length;
+            if (required > chunk.length) {
+                chunk = Arrays.copyOf(chunk, required);
+            }
+            offset = put(key, offset);
+            chunk[offset++] = LF;
+            offset = put(value, offset);
+            chunk[offset++] = LF;
+        }
+        final int size = offset - HEADER_SIZE;
+        for (int i = 0; i < HEX_DIGITS; i++) {
+            chunk[i] = (byte) Character.forDigit((size >>> (HEX_DIGITS - 1 - i) * 4) & 0xF, 16);
+        }
+        System.arraycopy(CRLF, 0, chunk, HEX_DIGITS, CRLF.length);
+        System.arraycopy(CRLF, 0, chunk, offset, CRLF.length);
+        return offset + CRLF.length;
+    }
+
+    @NotNull
+    private static byte[] newChunk() {
+        return new byte[HEADER_SIZE + CHUNK_SIZE + CRLF.length];
+    }
+
+    private int put(@NotNull final ByteBuffer buffer, final int offset) {
+        final int length = buffer.remaining();
+        buffer.duplicate().get(chunk, offset, length);
+        return offset + length;
+    }
+}
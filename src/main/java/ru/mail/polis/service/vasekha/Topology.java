@@ -0,0 +1,131 @@
+package ru.mail.polis.service.vasekha;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import com.google.common.collect.Iterables;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.jetbrains.annotations.NotNull;
+
+import ru.mail.polis.storage.TokenRanges;
+
+/**
+ * Maps the keys to the nodes of the cluster with consistent hashing.
+ * Every node takes many points of the ring, so the keys are spread evenly
+ * and adding or removing a node moves only the keys of its points.
+ */
+public final class Topology {
+    public static final int DEFAULT_VIRTUAL_NODES = 128;
+    private static final HashFunction HASH = Hashing.murmur3_32();
+    private final String me;
+    private final Set<String> nodes;
+    private final NavigableMap<Integer, String> ring = new TreeMap<>();
+    /**
+     * The arcs of the ring, the range of a point is owned by the node of the point.
+     */
+    private final TokenRanges ranges;
+
+    public Topology(@NotNull final Set<String> nodes, @NotNull final String me) {
+        this(nodes, me, DEFAULT_VIRTUAL_NODES);
+    }
+
+    /**
+     * Creates the topology.
+     *
+     * @param nodes        the endpoints of all the nodes, such as http://localhost:8080
+     * @param me           the endpoint of this node
+     * @param virtualNodes the number of the points of every node on the ring
+     */
+    public Topology(@NotNull final Set<String> nodes, @NotNull final String me, final int virtualNodes) {
+        if (!nodes.contains(me)) {
+            throw new IllegalArgumentException("Topology does not contain " + me);
+        }
+        if (virtualNodes <= 0) {
+            throw new IllegalArgumentException("Virtual nodes count must be positive");
+        }
+        this.me = me;
+        this.nodes = Collections.unmodifiableSet(new TreeSet<>(nodes));
+        for (final String node : this.nodes) {
+            for (int i = 0; i < virtualNodes; i++) {
+                final int point = HASH.hashString(node + '#' + i, StandardCharsets.UTF_8).asInt();
+                // The rare collision is resolved in favour of the least node to keep the ring deterministic
+                ring.merge(point, node, (a, b) -> a.compareTo(b) <= 0 ? a : b);
+            }
+        }
+        this.ranges = new TokenRanges(ring.keySet().stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    /**
+     * Returns the node which owns the key, that is the node of the first point not less than the token of the key.
+     */
+    @NotNull
+    public String owner(@NotNull final ByteBuffer key) {
+        final Map.Entry<Integer, String> point = ring.ceilingEntry(TokenRanges.token(key));
+        return point == null ? ring.firstEntry().getValue() : point.getValue();
+    }
+
+    /**
+     * Returns the nodes which store the replicas of the key: the owner followed by the next distinct nodes
+     * met clockwise on the ring.
+     *
+     * @param key   the key
+     * @param count the number of the replicas, no more than the number of the nodes
+     */
+    @NotNull
+    public List<String> replicas(@NotNull final ByteBuffer key, final int count) {
+        return rangeReplicas(ranges.rangeOf(key), count);
+    }
+
+    /**
+     * Returns the nodes which store the replicas of the keys of the range, see {@link #replicas(ByteBuffer, int)}.
+     *
+     * @param range the index of the range in {@link #getRanges()}
+     * @param count the number of the replicas, no more than the number of the nodes
+     */
+    @NotNull
+    public List<String> rangeReplicas(final int range, final int count) {
+        if (count <= 0 || count > nodes.size()) {
+            throw new IllegalArgumentException("Invalid replicas count " + count);
+        }
+        final int point = ranges.getBound(range);
+        final Set<String> replicas = new LinkedHashSet<>();
+        for (final String node : Iterables.concat(ring.tailMap(point, true).values(), ring.headMap(point).values())) {
+            if (replicas.add(node) && replicas.size() == count) {
+                break;
+            }
+        }
+        return new ArrayList<>(replicas);
+    }
+
+    /**
+     * Returns the ranges of the tokens of the keys which have the same replicas.
+     */
+    @NotNull
+    public TokenRanges getRanges() {
+        return ranges;
+    }
+
+    public boolean isMe(@NotNull final String node) {
+        return me.equals(node);
+    }
+
+    @NotNull
+    public String getMe() {
+        return me;
+    }
+
+    @NotNull
+    public Set<String> getNodes() {
+        return nodes;
+    }
+}
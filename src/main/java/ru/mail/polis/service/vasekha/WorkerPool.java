@@ -0,0 +1,94 @@
+package ru.mail.polis.service.vasekha;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Fixed pool of the threads which run the requests off the selector threads.
+ * The queue is bounded, so an overloaded node rejects the requests at once
+ * instead of keeping them waiting longer and longer.
+ */
+public final class WorkerPool {
+    private final BlockingQueue<Runnable> queue;
+    private final ThreadPoolExecutor executor;
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder started = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+
+    WorkerPool(final int workers, final int queueCapacity) {
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.executor = new ThreadPoolExecutor(
+                workers,
+                workers,
+                0L,
+                TimeUnit.MILLISECONDS,
+                queue,
+                new ThreadFactoryBuilder().setNameFormat("worker-%d").build());
+    }
+
+    /**
+     * Queues the task.
+     *
+     * @throws RejectedExecutionException if the queue is full or the pool is shut down
+     */
+    void execute(@NotNull final Runnable task) {
+        final long queuedNanos = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                waitNanos.add(System.nanoTime() - queuedNanos);
+                started.increment();
+                task.run();
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw e;
+        }
+    }
+
+    /**
+     * Stops taking the tasks and waits for the queued ones.
+     *
+     * @return false if the tasks have not completed in time
+     */
+    boolean shutdown(final long timeout, @NotNull final TimeUnit unit) throws InterruptedException {
+        executor.shutdown();
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * Returns the number of the tasks waiting for the workers.
+     */
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    public int getQueueCapacity() {
+        return queue.size() + queue.remainingCapacity();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public long getStartedCount() {
+        return started.sum();
+    }
+
+    /**
+     * Returns the total time the started tasks have spent in the queue.
+     */
+    public long getWaitNanos() {
+        return waitNanos.sum();
+    }
+}
@@ -0,0 +1,328 @@
+package ru.mail.polis.storage;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link MemTable} which copies the rows into the direct memory slabs and links them into the lock-free skip list
+ * living in the same slabs, so the heap holds no objects per row.
+ * Rows are never removed and the memory is never reused: an update links the new value to the node of the key
+ * unless the node has a newer one,
+ * the slabs are released by GC once the table and the rows read from it are unreachable.
+ * The direct memory is limited by -XX:MaxDirectMemorySize rather than by the heap size.
+ * Node format: value reference | level | key size | next references | key
+ * Value format: timestamp | data size | data
+ * where the timestamp is negative for a tombstone.
+ * A reference is the slab index in the high half and the offset in the slab in the low half.
+ */
+public final class ArenaMemTable implements MemTable {
+    public static final int DEFAULT_SLAB_SIZE = 1024 * 1024;
+    private static final VarHandle REFERENCE =
+            MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final long NIL = 0;
+    private static final int MAX_LEVEL = 16;
+    private static final int ALIGNMENT = Long.BYTES;
+    private static final int VALUE_REFERENCE = 0;
+    private static final int LEVEL = VALUE_REFERENCE + Long.BYTES;
+    private static final int KEY_SIZE = LEVEL + Integer.BYTES;
+    private static final int NEXT = KEY_SIZE + Integer.BYTES;
+    private static final int DATA_SIZE = Long.BYTES;
+    private static final int DATA = DATA_SIZE + Integer.BYTES;
+
+    private final int slabSize;
+    private final AtomicLong free;
+    private final AtomicLong sizeBytes = new AtomicLong();
+    private final long head;
+    private volatile ByteBuffer[] slabs;
+
+    public ArenaMemTable() {
+        this(DEFAULT_SLAB_SIZE);
+    }
+
+    /**
+     * Creates the table.
+     *
+     * @param slabSize the size of the slabs, larger rows get the slabs of their own
+     */
+    public ArenaMemTable(final int slabSize) {
+        if (slabSize < NEXT + Long.BYTES * MAX_LEVEL + ALIGNMENT) {
+            throw new IllegalArgumentException("Slab size is too small");
+        }
+        this.slabSize = slabSize;
+        this.slabs = new ByteBuffer[]{ByteBuffer.allocateDirect(slabSize)};
+        // Nothing is stored at zero offset of the first slab, so zero reference means no node
+        this.free = new AtomicLong(ALIGNMENT);
+        this.head = allocate(NEXT + Long.BYTES * MAX_LEVEL);
+        slab(head).putInt(offset(head) + LEVEL, MAX_LEVEL);
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Row> iterator(@NotNull final ByteBuffer from) {
+        return new Iterator<>() {
+            private long node = findGreaterOrEqual(from, null, null);
+
+            @Override
+            public boolean hasNext() {
+                return node != NIL;
+            }
+
+            @Override
+            public Row next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                final Row row = row(node);
+                node = nextNode(node, 0);
+                return row;
+            }
+        };
+    }
+
+    @Nullable
+    @Override
+    public Row get(@NotNull final ByteBuffer key) {
+        final long node = findGreaterOrEqual(key, null, null);
+        if (node == NIL || compare(node, key) != 0) {
+            return null;
+        }
+        return row(node);
+    }
+
+    @Override
+    public void upsert(@NotNull final ByteBuffer key, @NotNull final ByteBuffer value) {
+        put(Row.of(key, value));
+    }
+
+    @Override
+    public void remove(@NotNull final ByteBuffer key) {
+        put(Row.remove(key));
+    }
+
+    @Override
+    public void put(@NotNull final Row row) {
+        final ByteBuffer key = row.getKey();
+        final long value = newValue(row.getValue());
+        final long[] preds = new long[MAX_LEVEL];
+        final long[] succs = new long[MAX_LEVEL];
+        long node = NIL;
+        int level = 0;
+        while (true) {
+            final long succ = findGreaterOrEqual(key, preds, succs);
+            if (succ != NIL && compare(succ, key) == 0) {
+                // The node allocated by the failed attempt, if any, is wasted
+                linkValue(succ, value, row.getValue().getTimestamp());
+                return;
+            }
+            if (node == NIL) {
+                level = randomLevel();
+                node = newNode(key, value, level);
+            }
+            for (int i = 0; i < level; i++) {
+                setNext(node, i, succs[i]);
+            }
+            if (casNext(preds[0], 0, succ, node)) {
+                break;
+            }
+        }
+        // The node is in the table once it is linked at the lowest level, the upper levels only speed up the search
+        for (int i = 1; i < level; i++) {
+            while (!casNext(preds[i], i, succs[i], node)) {
+                findGreaterOrEqual(key, preds, succs);
+                setNext(node, i, succs[i]);
+            }
+        }
+    }
+
+    @Override
+    public long getSizeBytes() {
+        return sizeBytes.get();
+    }
+
+    @Override
+    public void flush(@NotNull final Path path, @NotNull final TableOptions options) throws IOException {
+        SSTable.writeToFile(path, iterator(Value.EMPTY_BUFFER), options);
+    }
+
+    /**
+     * Returns the first node which key is not less than the given one or {@link #NIL},
+     * fills the last nodes less than the key and their successors at every level if the arrays are given.
+     */
+    private long findGreaterOrEqual(
+            @NotNull final ByteBuffer key,
+            @Nullable final long[] preds,
+            @Nullable final long[] succs) {
+        long pred = head;
+        long next = NIL;
+        for (int level = MAX_LEVEL - 1; level >= 0; level--) {
+            next = nextNode(pred, level);
+            while (next != NIL && compare(next, key) < 0) {
+                pred = next;
+                next = nextNode(pred, level);
+            }
+            if (preds != null && succs != null) {
+                preds[level] = pred;
+                succs[level] = next;
+            }
+        }
+        return next;
+    }
+
+    @NotNull
+    private Row row(final long node) {
+        final ByteBuffer slab = slab(node);
+        final int offset = offset(node);
+        final int keyOffset = keyOffset(slab, offset);
+        final ByteBuffer key = slab.duplicate()
+                .position(keyOffset)
+                .limit(keyOffset + slab.getInt(offset + KEY_SIZE))
+                .slice();
+        final long value = (long) REFERENCE.getAcquire(slab, offset + VALUE_REFERENCE);
+        final ByteBuffer valueSlab = slab(value);
+        final int valueOffset = offset(value);
+        final long timestamp = valueSlab.getLong(valueOffset);
+        if (timestamp < 0) {
+            return new Row(key, new Value(-timestamp, true, Value.EMPTY_BUFFER));
+        }
+        final ByteBuffer data = valueSlab.duplicate()
+                .position(valueOffset + DATA)
+                .limit(valueOffset + DATA + valueSlab.getInt(valueOffset + DATA_SIZE))
+                .slice();
+        return new Row(key, new Value(timestamp, false, data));
+    }
+
+    private long newNode(@NotNull final ByteBuffer key, final long value, final int level) {
+        final int keySize = key.remaining();
+        final int size = NEXT + Long.BYTES * level + keySize;
+        sizeBytes.addAndGet(align(size));
+        final long node = allocate(size);
+        final ByteBuffer slab = slab(node);
+        final int offset = offset(node);
+        REFERENCE.set(slab, offset + VALUE_REFERENCE, value);
+        slab.putInt(offset + LEVEL, level);
+        slab.putInt(offset + KEY_SIZE, keySize);
+        slab.duplicate().position(keyOffset(slab, offset)).put(key.duplicate());
+        return node;
+    }
+
+    private long newValue(@NotNull final Value value) {
+        final ByteBuffer data = value.getData();
+        final int size = DATA + data.remaining();
+        sizeBytes.addAndGet(align(size));
+        final long reference = allocate(size);
+        final ByteBuffer slab = slab(reference);
+        final int offset = offset(reference);
+        if (value.isRemoved()) {
+            slab.putLong(offset, -value.getTimestamp());
+        } else {
+            slab.putLong(offset, value.getTimestamp());
+            slab.putInt(offset + DATA_SIZE, data.remaining());
+            slab.duplicate().position(offset + DATA).put(data);
+        }
+        return reference;
+    }
+
+    private void linkValue(final long node, final long value, final long timestamp) {
+        final ByteBuffer slab = slab(node);
+        final int offset = offset(node) + VALUE_REFERENCE;
+        while (true) {
+            final long current = (long) REFERENCE.getAcquire(slab, offset);
+            // The timestamp of a tombstone is stored negated
+            if (Math.abs(slab(current).getLong(offset(current))) > timestamp
+                    || REFERENCE.compareAndSet(slab, offset, current, value)) {
+                return;
+            }
+        }
+    }
+
+    private int compare(final long node, @NotNull final ByteBuffer key) {
+        final ByteBuffer slab = slab(node);
+        final int offset = offset(node);
+        return Bytes.compare(slab, keyOffset(slab, offset), slab.getInt(offset + KEY_SIZE), key);
+    }
+
+    private long nextNode(final long node, final int level) {
+        return (long) REFERENCE.getAcquire(slab(node), offset(node) + NEXT + Long.BYTES * level);
+    }
+
+    private void setNext(final long node, final int level, final long next) {
+        REFERENCE.setRelease(slab(node), offset(node) + NEXT + Long.BYTES * level, next);
+    }
+
+    private boolean casNext(final long node, final int level, final long expected, final long next) {
+        return REFERENCE.compareAndSet(slab(node), offset(node) + NEXT + Long.BYTES * level, expected, next);
+    }
+
+    private static int keyOffset(@NotNull final ByteBuffer slab, final int offset) {
+        return offset + NEXT + Long.BYTES * slab.getInt(offset + LEVEL);
+    }
+
+    /**
+     * Returns the level of the new node, every next level is taken with the probability of 1/4.
+     */
+    private static int randomLevel() {
+        final int random = ThreadLocalRandom.current().nextInt();
+        return Math.min(1 + Integer.numberOfTrailingZeros(random) / 2, MAX_LEVEL);
+    }
+
+    /**
+     * Reserves the aligned space in the current slab, starts the next slab if the current one is full.
+     */
+    private long allocate(final int size) {
+        final int aligned = align(size);
+        if (aligned > slabSize / 2) {
+            return reference(addSlab(aligned), 0);
+        }
+        while (true) {
+            final long current = free.get();
+            if ((long) offset(current) + aligned <= slabSize) {
+                if (free.compareAndSet(current, current + aligned)) {
+                    return current;
+                }
+            } else {
+                synchronized (this) {
+                    if (free.get() == current) {
+                        free.set(reference(addSlab(slabSize), 0));
+                    }
+                }
+            }
+        }
+    }
+
+    private static int align(final int size) {
+        return (size + ALIGNMENT - 1) & -ALIGNMENT;
+    }
+
+    private synchronized int addSlab(final int size) {
+        final ByteBuffer[] current = slabs;
+        final ByteBuffer[] grown = Arrays.copyOf(current, current.length + 1);
+        grown[current.length] = ByteBuffer.allocateDirect(size);
+        slabs = grown;
+        return current.length;
+    }
+
+    @NotNull
+    private ByteBuffer slab(final long reference) {
+        return slabs[(int) (reference >>> Integer.SIZE)];
+    }
+
+    private static int offset(final long reference) {
+        return (int) reference;
+    }
+
+    private static long reference(final int slab, final int offset) {
+        return (long) slab << Integer.SIZE | offset;
+    }
+}
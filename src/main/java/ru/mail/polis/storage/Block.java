@@ -0,0 +1,189 @@
+package ru.mail.polis.storage;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Data block of {@link SSTable} with prefix compressed keys.
+ * Block format:
+ * entries | restart offsets | restarts count
+ * Entry format:
+ * shared key size | unshared key size | unshared key bytes | timestamp | value size | value
+ * if value is tombstone
+ * shared key size | unshared key size | unshared key bytes | -timestamp
+ * Sizes are variable length ints, keys of the entries at restart offsets are stored in full.
+ */
+final class Block {
+    private final ByteBuffer data;
+    private final int restartsCount;
+    private final int entriesLimit;
+
+    Block(@NotNull final ByteBuffer data) {
+        if (data.limit() < Integer.BYTES) {
+            throw new IllegalArgumentException("Invalid block");
+        }
+        this.data = data;
+        this.restartsCount = data.getInt(data.limit() - Integer.BYTES);
+        this.entriesLimit = data.limit() - Integer.BYTES * (restartsCount + 1);
+        if (restartsCount <= 0 || entriesLimit < 0) {
+            throw new IllegalArgumentException("Invalid block");
+        }
+    }
+
+    int getSizeBytes() {
+        return data.limit();
+    }
+
+    @NotNull
+    Cursor cursor() {
+        return new Cursor();
+    }
+
+    private int restartOffset(final int index) {
+        return data.getInt(entriesLimit + Integer.BYTES * index);
+    }
+
+    private int compareRestartKey(final int index, @NotNull final ByteBuffer key) {
+        // Shared size of the restart entry is a single zero byte
+        final int offset = restartOffset(index) + 1;
+        final int keySize = Bytes.getVarInt(data, offset);
+        return Bytes.compare(data, offset + Bytes.varIntSize(keySize), keySize, key);
+    }
+
+    /**
+     * Moves over the entries of the block keeping the current key in a reusable array.
+     */
+    final class Cursor implements RowCursor {
+        private byte[] key = new byte[64];
+        private ByteBuffer keyBuffer = ByteBuffer.wrap(key);
+        private int keySize;
+        private long timestamp;
+        private int valueOffset;
+        private int valueSize;
+        private int nextOffset;
+        private boolean valid;
+
+        @Override
+        public boolean isValid() {
+            return valid;
+        }
+
+        void seekToFirst() {
+            parse(0);
+        }
+
+        /**
+         * Moves to the last entry, only the entries after the last restart offset are parsed.
+         */
+        void seekToLast() {
+            parse(restartOffset(restartsCount - 1));
+            while (nextOffset < entriesLimit) {
+                next();
+            }
+        }
+
+        /**
+         * Moves to the first entry which key is not less than the given one.
+         */
+        void seek(@NotNull final ByteBuffer target) {
+            int left = 0;
+            int right = restartsCount - 1;
+            while (left < right) {
+                final int mid = (left + right + 1) >>> 1;
+                if (compareRestartKey(mid, target) < 0) {
+                    left = mid;
+                } else {
+                    right = mid - 1;
+                }
+            }
+            parse(restartOffset(left));
+            while (valid && compareKey(target) < 0) {
+                next();
+            }
+        }
+
+        @Override
+        public void next() {
+            parse(nextOffset);
+        }
+
+        @Override
+        public int compareKey(@NotNull final ByteBuffer target) {
+            return Bytes.compare(key, keySize, target);
+        }
+
+        @NotNull
+        @Override
+        public ByteBuffer getKeyBuffer() {
+            return keyBuffer;
+        }
+
+        @Override
+        public int getKeyOffset() {
+            return 0;
+        }
+
+        @Override
+        public int getKeySize() {
+            return keySize;
+        }
+
+        @Override
+        public long getTimestamp() {
+            return Math.abs(timestamp);
+        }
+
+        @Override
+        public boolean isRemoved() {
+            return timestamp < 0;
+        }
+
+        @NotNull
+        @Override
+        public Row row() {
+            final ByteBuffer rowKey = ByteBuffer.wrap(Arrays.copyOf(key, keySize));
+            if (timestamp < 0) {
+                return new Row(rowKey, new Value(-timestamp, true, Value.EMPTY_BUFFER));
+            }
+            final ByteBuffer value = data.duplicate()
+                    .position(valueOffset)
+                    .limit(valueOffset + valueSize)
+                    .slice()
+                    .asReadOnlyBuffer();
+            return new Row(rowKey, new Value(timestamp, false, value));
+        }
+
+        private void parse(final int offset) {
+            if (offset >= entriesLimit) {
+                valid = false;
+                return;
+            }
+            int position = offset;
+            final int shared = Bytes.getVarInt(data, position);
+            position += Bytes.varIntSize(shared);
+            final int unshared = Bytes.getVarInt(data, position);
+            position += Bytes.varIntSize(unshared);
+            keySize = shared + unshared;
+            if (keySize > key.length) {
+                key = Arrays.copyOf(key, Math.max(keySize, key.length * 2));
+                keyBuffer = ByteBuffer.wrap(key);
+            }
+            for (int i = 0; i < unshared; i++) {
+                key[shared + i] = data.get(position + i);
+            }
+            position += unshared;
+            timestamp = data.getLong(position);
+            position += Long.BYTES;
+            if (timestamp >= 0) {
+                valueSize = Bytes.getVarInt(data, position);
+                position += Bytes.varIntSize(valueSize);
+                valueOffset = position;
+                position += valueSize;
+            }
+            nextOffset = position;
+            valid = true;
+        }
+    }
+}
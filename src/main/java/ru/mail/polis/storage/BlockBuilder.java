@@ -0,0 +1,99 @@
+package ru.mail.polis.storage;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Builds the data blocks in the format read by {@link Block}.
+ * Rows must be added in ascending order of their keys.
+ */
+final class BlockBuilder {
+    private final int restartInterval;
+    private ByteBuffer buffer = ByteBuffer.allocate(8 * 1024);
+    private int[] restarts = new int[16];
+    private int restartsCount;
+    private int entriesSinceRestart;
+    private byte[] lastKey = new byte[64];
+    private int lastKeySize;
+
+    BlockBuilder(final int restartInterval) {
+        this.restartInterval = restartInterval;
+    }
+
+    boolean isEmpty() {
+        return buffer.position() == 0;
+    }
+
+    /**
+     * Returns the size of the block if it is finished now.
+     */
+    int getSizeBytes() {
+        return buffer.position() + Integer.BYTES * (restartsCount + 1);
+    }
+
+    void add(@NotNull final ByteBuffer key, @NotNull final Value value) {
+        final int shared;
+        if (entriesSinceRestart == restartInterval || isEmpty()) {
+            if (restartsCount == restarts.length) {
+                restarts = Arrays.copyOf(restarts, restarts.length * 2);
+            }
+            restarts[restartsCount++] = buffer.position();
+            entriesSinceRestart = 0;
+            shared = 0;
+        } else {
+            shared = Bytes.commonPrefix(lastKey, lastKeySize, key);
+        }
+        final int unshared = key.remaining() - shared;
+        final ByteBuffer data = value.getData();
+        ensureCapacity(Bytes.MAX_VAR_INT_SIZE * 3 + unshared + Long.BYTES + data.remaining());
+        Bytes.putVarInt(buffer, shared);
+        Bytes.putVarInt(buffer, unshared);
+        buffer.put(key.duplicate().position(key.position() + shared));
+        if (value.isRemoved()) {
+            buffer.putLong(-value.getTimestamp());
+        } else {
+            buffer.putLong(value.getTimestamp());
+            Bytes.putVarInt(buffer, data.remaining());
+            buffer.put(data);
+        }
+        entriesSinceRestart++;
+
+        if (key.remaining() > lastKey.length) {
+            lastKey = new byte[Math.max(key.remaining(), lastKey.length * 2)];
+        }
+        key.duplicate().get(lastKey, 0, key.remaining());
+        lastKeySize = key.remaining();
+    }
+
+    /**
+     * Appends the restart offsets and returns the block ready to be written.
+     * The returned buffer is valid until the next call of {@link #reset()}.
+     */
+    @NotNull
+    ByteBuffer finish() {
+        ensureCapacity(Integer.BYTES * (restartsCount + 1));
+        for (int i = 0; i < restartsCount; i++) {
+            buffer.putInt(restarts[i]);
+        }
+        buffer.putInt(restartsCount);
+        return buffer.flip();
+    }
+
+    void reset() {
+        buffer.clear();
+        restartsCount = 0;
+        entriesSinceRestart = 0;
+        lastKeySize = 0;
+    }
+
+    private void ensureCapacity(final int bytes) {
+        if (buffer.remaining() < bytes) {
+            final ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+            buffer.flip();
+            grown.put(buffer);
+            buffer = grown;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package ru.mail.polis.storage;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache of the decompressed data blocks shared by the {@link SSTable} instances.
+ * The cache is split into the segments locked independently, each segment is a segmented LRU:
+ * a new block enters the probationary part and moves to the protected part once it is hit again,
+ * so the blocks read once by scans and compactions are evicted before the hot ones.
+ */
+public final class BlockCache {
+    private static final int SEGMENT_BITS = 4;
+    private static final int SEGMENTS_COUNT = 1 << SEGMENT_BITS;
+    private static final double PROTECTED_RATIO = 0.8;
+    private final Segment[] segments = new Segment[SEGMENTS_COUNT];
+    private final AtomicLong tableIds = new AtomicLong();
+    private final AtomicLong sizeBytes = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final long capacityBytes;
+
+    /**
+     * Creates the cache.
+     *
+     * @param capacityBytes the total size of the cached blocks
+     */
+    public BlockCache(final long capacityBytes) {
+        if (capacityBytes <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.capacityBytes = capacityBytes;
+        for (int i = 0; i < SEGMENTS_COUNT; i++) {
+            segments[i] = new Segment(capacityBytes / SEGMENTS_COUNT);
+        }
+    }
+
+    public long getCapacityBytes() {
+        return capacityBytes;
+    }
+
+    public long getSizeBytes() {
+        return sizeBytes.get();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Returns the id distinguishing the blocks of the table from the blocks of the other ones.
+     */
+    long newTableId() {
+        return tableIds.incrementAndGet();
+    }
+
+    @Nullable
+    Block get(final long tableId, final int block) {
+        final long key = key(tableId, block);
+        final Block result = segment(key).get(key);
+        if (result == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return result;
+    }
+
+    void put(final long tableId, final int block, @NotNull final Block value) {
+        final long key = key(tableId, block);
+        segment(key).put(key, value);
+    }
+
+    private static long key(final long tableId, final int block) {
+        return tableId << Integer.SIZE | block;
+    }
+
+    @NotNull
+    private Segment segment(final long key) {
+        final long hash = key * 0x9E3779B97F4A7C15L;
+        return segments[(int) (hash >>> (Long.SIZE - SEGMENT_BITS))];
+    }
+
+    private final class Segment {
+        private final long capacityBytes;
+        private final long protectedCapacityBytes;
+        private final LinkedHashMap<Long, Block> probationBlocks = new LinkedHashMap<>(16, 0.75f, true);
+        private final LinkedHashMap<Long, Block> protectedBlocks = new LinkedHashMap<>(16, 0.75f, true);
+        private long probationBytes;
+        private long protectedBytes;
+
+        Segment(final long capacityBytes) {
+            this.capacityBytes = capacityBytes;
+            this.protectedCapacityBytes = (long) (capacityBytes * PROTECTED_RATIO);
+        }
+
+        @Nullable
+        synchronized Block get(final long key) {
+            final Block cached = protectedBlocks.get(key);
+            if (cached != null) {
+                return cached;
+            }
+            final Block block = probationBlocks.remove(key);
+            if (block == null) {
+                return null;
+            }
+            // The second hit promotes the block, the least recently used protected ones go back on probation
+            probationBytes -= block.getSizeBytes();
+            protectedBlocks.put(key, block);
+            protectedBytes += block.getSizeBytes();
+            final Iterator<Map.Entry<Long, Block>> eldest = protectedBlocks.entrySet().iterator();
+            while (protectedBytes > protectedCapacityBytes) {
+                final Map.Entry<Long, Block> entry = eldest.next();
+                eldest.remove();
+                protectedBytes -= entry.getValue().getSizeBytes();
+                probationBlocks.put(entry.getKey(), entry.getValue());
+                probationBytes += entry.getValue().getSizeBytes();
+            }
+            return block;
+        }
+
+        synchronized void put(final long key, @NotNull final Block block) {
+            final int size = block.getSizeBytes();
+            if (size > capacityBytes || protectedBlocks.containsKey(key) || probationBlocks.containsKey(key)) {
+                return;
+            }
+            probationBlocks.put(key, block);
+            probationBytes += size;
+            long freed = -size;
+            while (probationBytes + protectedBytes > capacityBytes) {
+                // The new block is the only one on probation if the protected blocks take all the space
+                final LinkedHashMap<Long, Block> victims =
+                        probationBlocks.size() > 1 ? probationBlocks : protectedBlocks;
+                final Iterator<Block> eldest = victims.values().iterator();
+                final int victimSize = eldest.next().getSizeBytes();
+                eldest.remove();
+                if (victims == probationBlocks) {
+                    probationBytes -= victimSize;
+                } else {
+                    protectedBytes -= victimSize;
+                }
+                freed += victimSize;
+                evictions.increment();
+            }
+            sizeBytes.addAndGet(-freed);
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package ru.mail.polis.storage;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+/**
+ * Reads the files written by {@link SSTableWriter}.
+ * Finds the block by the binary search over the sparse index and scans inside that block only.
+ */
+final class BlockTableReader implements TableReader {
+    private final ByteBuffer dataBuffer;
+    private final ByteBuffer indexBuffer;
+    private final IntBuffer indexOffsets;
+    private final int blocksCount;
+    private final Codec codec;
+    private final boolean checksummed;
+    @Nullable
+    private final BlockCache blockCache;
+    private final long tableId;
+
+    /**
+     * Creates the reader.
+     *
+     * @param dataBuffer  the data blocks
+     * @param indexBuffer the index entries followed by their offsets
+     * @param blocksCount the number of the blocks
+     * @param codec       the codec of the blocks
+     * @param checksummed whether the index entries have sizes and checksums of the stored blocks
+     * @param blockCache  the cache of the decompressed blocks, if any
+     */
+    BlockTableReader(
+            @NotNull final ByteBuffer dataBuffer,
+            @NotNull final ByteBuffer indexBuffer,
+            final int blocksCount,
+            @NotNull final Codec codec,
+            final boolean checksummed,
+            @Nullable final BlockCache blockCache) {
+        final int offsetsPosition = indexBuffer.limit() - Integer.BYTES * blocksCount;
+        if (blocksCount < 0 || offsetsPosition < 0) {
+            throw new IllegalArgumentException("Invalid index");
+        }
+        this.dataBuffer = dataBuffer;
+        this.indexBuffer = indexBuffer.duplicate()
+                .limit(offsetsPosition)
+                .slice()
+                .asReadOnlyBuffer();
+        this.indexOffsets = indexBuffer.duplicate()
+                .position(offsetsPosition)
+                .slice()
+                .asIntBuffer()
+                .asReadOnlyBuffer();
+        this.blocksCount = blocksCount;
+        this.codec = codec;
+        this.checksummed = checksummed;
+        this.blockCache = blockCache;
+        this.tableId = blockCache == null ? 0 : blockCache.newTableId();
+    }
+
+    @NotNull
+    @Override
+    public RowCursor cursor(@NotNull final ByteBuffer from) {
+        if (blocksCount == 0) {
+            return RowCursor.of(Collections.emptyIterator());
+        }
+        final int first = blockIndex(from);
+        final Block.Cursor firstCursor = block(first).cursor();
+        firstCursor.seek(from);
+        return new TableCursor(first, firstCursor);
+    }
+
+    @Nullable
+    @Override
+    public Row get(@NotNull final ByteBuffer key) {
+        if (blocksCount == 0) {
+            return null;
+        }
+        final Block.Cursor cursor = block(blockIndex(key)).cursor();
+        cursor.seek(key);
+        if (cursor.isValid() && cursor.compareKey(key) == 0) {
+            return cursor.row();
+        }
+        return null;
+    }
+
+    @Nullable
+    @Override
+    public ByteBuffer lastKey() {
+        if (blocksCount == 0) {
+            return null;
+        }
+        final Block.Cursor cursor = block(blocksCount - 1).cursor();
+        cursor.seekToLast();
+        return cursor.row().getKey();
+    }
+
+    /**
+     * Seeks the keys one after another, the block is decoded once for all the keys it holds.
+     */
+    @Override
+    public void getAll(@NotNull final List<ByteBuffer> keys, @NotNull final BitSet wanted, @NotNull final Row[] rows) {
+        if (blocksCount == 0) {
+            return;
+        }
+        int blockIndex = 0;
+        Block.Cursor cursor = null;
+        for (int i = wanted.nextSetBit(0); i >= 0; i = wanted.nextSetBit(i + 1)) {
+            final ByteBuffer key = keys.get(i);
+            // The keys ascend, so the block of the key is never before the block of the previous one
+            final int index = blockIndex(key, blockIndex);
+            if (cursor == null || index != blockIndex) {
+                blockIndex = index;
+                cursor = block(index).cursor();
+            }
+            cursor.seek(key);
+            if (cursor.isValid() && cursor.compareKey(key) == 0) {
+                rows[i] = cursor.row();
+            }
+        }
+    }
+
+    private int blockIndex(@NotNull final ByteBuffer key) {
+        return blockIndex(key, 0);
+    }
+
+    /**
+     * Returns the last block which separator is not greater than the given key, or the first searched block.
+     * The separators are the first keys of the blocks in the files written before they were shortened.
+     */
+    private int blockIndex(@NotNull final ByteBuffer key, final int first) {
+        int left = first;
+        int right = blocksCount - 1;
+        while (left < right) {
+            final int mid = (left + right + 1) >>> 1;
+            if (compareSeparator(mid, key) <= 0) {
+                left = mid;
+            } else {
+                right = mid - 1;
+            }
+        }
+        return left;
+    }
+
+    private int compareSeparator(final int block, @NotNull final ByteBuffer key) {
+        final int offset = indexOffsets.get(block);
+        final int keySize = Bytes.getVarInt(indexBuffer, offset);
+        return Bytes.compare(indexBuffer, offset + Bytes.varIntSize(keySize), keySize, key);
+    }
+
+    /**
+     * Moves over the blocks one by one, the blocks after the first one are decoded once the cursor reaches them.
+     */
+    private final class TableCursor implements RowCursor {
+        private int blockIndex;
+        private Block.Cursor cursor;
+
+        TableCursor(final int blockIndex, @NotNull final Block.Cursor cursor) {
+            this.blockIndex = blockIndex;
+            this.cursor = cursor;
+            skipExhaustedBlocks();
+        }
+
+        @Override
+        public boolean isValid() {
+            return cursor.isValid();
+        }
+
+        @Override
+        public void next() {
+            cursor.next();
+            skipExhaustedBlocks();
+        }
+
+        @NotNull
+        @Override
+        public ByteBuffer getKeyBuffer() {
+            return cursor.getKeyBuffer();
+        }
+
+        @Override
+        public int getKeyOffset() {
+            return cursor.getKeyOffset();
+        }
+
+        @Override
+        public int getKeySize() {
+            return cursor.getKeySize();
+        }
+
+        @Override
+        public long getTimestamp() {
+            return cursor.getTimestamp();
+        }
+
+        @Override
+        public boolean isRemoved() {
+            return cursor.isRemoved();
+        }
+
+        @NotNull
+        @Override
+        public Row row() {
+            return cursor.row();
+        }
+
+        @Override
+        public int compareKey(@NotNull final ByteBuffer key) {
+            return cursor.compareKey(key);
+        }
+
+        private void skipExhaustedBlocks() {
+            while (!cursor.isValid() && blockIndex + 1 < blocksCount) {
+                cursor = block(++blockIndex).cursor();
+                cursor.seekToFirst();
+            }
+        }
+    }
+
+    @NotNull
+    private Block block(final int block) {
+        int offset = indexOffsets.get(block);
+        final int keySize = Bytes.getVarInt(indexBuffer, offset);
+        offset += Bytes.varIntSize(keySize) + keySize;
+        final int blockOffset = indexBuffer.getInt(offset);
+        final int storedSize = indexBuffer.getInt(offset + Integer.BYTES);
+        final ByteBuffer stored = dataBuffer.duplicate()
+                .position(blockOffset)
+                .limit(blockOffset + storedSize)
+                .slice()
+                .asReadOnlyBuffer();
+        if (!checksummed) {
+            return new Block(stored);
+        }
+        final int size = indexBuffer.getInt(offset + Integer.BYTES * 2);
+        final boolean cacheable = blockCache != null && storedSize != size;
+        if (cacheable) {
+            // Only decompressed blocks are cached, the stored ones are read from the mapping
+            final Block result = blockCache.get(tableId, block);
+            if (result != null) {
+                return result;
+            }
+        }
+        final int expectedChecksum = indexBuffer.getInt(offset + Integer.BYTES * 3);
+        final Checksum checksum = new CRC32C();
+        checksum.update(stored.duplicate());
+        if ((int) checksum.getValue() != expectedChecksum) {
+            throw new UncheckedIOException(new IOException("Checksum mismatch of block at " + blockOffset));
+        }
+        if (storedSize == size) {
+            return new Block(stored);
+        }
+        final Block result = new Block(codec.decompress(stored, size));
+        if (cacheable) {
+            blockCache.put(tableId, block, result);
+        }
+        return result;
+    }
+}
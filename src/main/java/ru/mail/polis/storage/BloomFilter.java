@@ -0,0 +1,136 @@
+package ru.mail.polis.storage;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * Bloom filter over the keys of {@link SSTable}.
+ * Uses double hashing of a single 64-bit hash of the key.
+ */
+public final class BloomFilter {
+    private static final long SEED = 0x9E3779B97F4A7C15L;
+    private static final long C1 = 0x87C37B91114253D5L;
+    private static final long C2 = 0x4CF5AD432745937FL;
+    private static final double LN2 = Math.log(2);
+
+    private final LongBuffer words;
+    private final long bitsCount;
+    private final int hashCount;
+
+    private BloomFilter(@NotNull final LongBuffer words, final int hashCount) {
+        this.words = words;
+        this.bitsCount = (long) words.limit() * Long.SIZE;
+        this.hashCount = hashCount;
+    }
+
+    /**
+     * Creates the filter from the hashes of the keys.
+     *
+     * @param hashes     the hashes returned by {@link #hash(ByteBuffer)}
+     * @param count      the number of the hashes
+     * @param bitsPerKey the number of bits in the filter per key
+     */
+    @NotNull
+    static BloomFilter create(@NotNull final long[] hashes, final int count, final int bitsPerKey) {
+        final long bits = Math.max((long) count * bitsPerKey, Long.SIZE);
+        final int wordsCount = (int) Math.min((bits + Long.SIZE - 1) / Long.SIZE, Integer.MAX_VALUE / Long.BYTES);
+        final int hashCount = Math.max(1, (int) Math.round(bitsPerKey * LN2));
+        final BloomFilter filter = new BloomFilter(LongBuffer.allocate(wordsCount), hashCount);
+        for (int i = 0; i < count; i++) {
+            filter.add(hashes[i]);
+        }
+        return filter;
+    }
+
+    /**
+     * Wraps the filter written by {@link #writeTo(ByteBuffer)} without copying it.
+     */
+    @NotNull
+    static BloomFilter wrap(@NotNull final LongBuffer words, final int hashCount) {
+        return new BloomFilter(words, hashCount);
+    }
+
+    /**
+     * Returns the number of bits per key which gives the desired false positive probability.
+     */
+    public static int bitsPerKey(final double falsePositiveRate) {
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("False positive rate must be in (0, 1)");
+        }
+        return (int) Math.ceil(-Math.log(falsePositiveRate) / (LN2 * LN2));
+    }
+
+    /**
+     * Computes the 64-bit hash of the remaining bytes of the key without changing its position.
+     */
+    static long hash(@NotNull final ByteBuffer key) {
+        final int limit = key.limit();
+        long h = SEED ^ (key.remaining() * C1);
+        int i = key.position();
+        for (; i + Long.BYTES <= limit; i += Long.BYTES) {
+            h ^= mix(key.getLong(i));
+            h = Long.rotateLeft(h, 27) * C1 + C2;
+        }
+        long tail = 0;
+        for (; i < limit; i++) {
+            tail = (tail << Byte.SIZE) | (key.get(i) & 0xFF);
+        }
+        h ^= mix(tail);
+        return fmix(h);
+    }
+
+    private static long mix(final long k) {
+        return Long.rotateLeft(k * C1, 31) * C2;
+    }
+
+    private static long fmix(final long k) {
+        long h = k;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private void add(final long hash) {
+        final long h1 = hash;
+        final long h2 = hash >>> 32;
+        for (int i = 0; i < hashCount; i++) {
+            final long bit = ((h1 + i * h2) & Long.MAX_VALUE) % bitsCount;
+            final int word = (int) (bit >>> 6);
+            words.put(word, words.get(word) | (1L << bit));
+        }
+    }
+
+    /**
+     * Returns false if the key is definitely absent.
+     */
+    public boolean mightContain(@NotNull final ByteBuffer key) {
+        final long h1 = hash(key);
+        final long h2 = h1 >>> 32;
+        for (int i = 0; i < hashCount; i++) {
+            final long bit = ((h1 + i * h2) & Long.MAX_VALUE) % bitsCount;
+            if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    int getHashCount() {
+        return hashCount;
+    }
+
+    int getWordsCount() {
+        return words.limit();
+    }
+
+    void writeTo(@NotNull final ByteBuffer buffer) {
+        for (int i = 0; i < words.limit(); i++) {
+            buffer.putLong(words.get(i));
+        }
+    }
+}
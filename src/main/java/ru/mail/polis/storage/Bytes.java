@@ -0,0 +1,140 @@
+package ru.mail.polis.storage;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Helpers to compare and encode bytes in place without creating buffer views.
+ * Bytes are compared as signed ones, the same way {@link ByteBuffer#compareTo(ByteBuffer)} does.
+ */
+final class Bytes {
+    static final int MAX_VAR_INT_SIZE = 5;
+    private static final int VAR_INT_MASK = 0x7F;
+    private static final int VAR_INT_MORE = 0x80;
+    private static final int VAR_INT_SHIFT = 7;
+
+    private Bytes() {
+        // Not instantiatable
+    }
+
+    /**
+     * Compares the bytes of the buffer at the absolute offset with the remaining bytes of the key.
+     */
+    static int compare(
+            @NotNull final ByteBuffer buffer,
+            final int offset,
+            final int length,
+            @NotNull final ByteBuffer key) {
+        final int keyPosition = key.position();
+        final int minLength = Math.min(length, key.remaining());
+        for (int i = 0; i < minLength; i++) {
+            final int cmp = Byte.compare(buffer.get(offset + i), key.get(keyPosition + i));
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(length, key.remaining());
+    }
+
+    /**
+     * Compares the bytes of the buffers at the absolute offsets.
+     */
+    static int compare(
+            @NotNull final ByteBuffer left,
+            final int leftOffset,
+            final int leftLength,
+            @NotNull final ByteBuffer right,
+            final int rightOffset,
+            final int rightLength) {
+        final int minLength = Math.min(leftLength, rightLength);
+        for (int i = 0; i < minLength; i++) {
+            final int cmp = Byte.compare(left.get(leftOffset + i), right.get(rightOffset + i));
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(leftLength, rightLength);
+    }
+
+    /**
+     * Compares the first bytes of the array with the remaining bytes of the key.
+     */
+    static int compare(@NotNull final byte[] array, final int length, @NotNull final ByteBuffer key) {
+        final int keyPosition = key.position();
+        final int minLength = Math.min(length, key.remaining());
+        for (int i = 0; i < minLength; i++) {
+            final int cmp = Byte.compare(array[i], key.get(keyPosition + i));
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(length, key.remaining());
+    }
+
+    /**
+     * Returns the length of the common prefix of the first bytes of the array and the remaining bytes of the key.
+     */
+    static int commonPrefix(@NotNull final byte[] array, final int length, @NotNull final ByteBuffer key) {
+        final int keyPosition = key.position();
+        final int minLength = Math.min(length, key.remaining());
+        int i = 0;
+        while (i < minLength && array[i] == key.get(keyPosition + i)) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Returns the length of the common prefix of the remaining bytes of the buffers.
+     */
+    static int commonPrefix(@NotNull final ByteBuffer left, @NotNull final ByteBuffer right) {
+        final int leftPosition = left.position();
+        final int rightPosition = right.position();
+        final int minLength = Math.min(left.remaining(), right.remaining());
+        int i = 0;
+        while (i < minLength && left.get(leftPosition + i) == right.get(rightPosition + i)) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Reads the non-negative variable length int at the absolute offset.
+     */
+    static int getVarInt(@NotNull final ByteBuffer buffer, final int offset) {
+        int result = 0;
+        int shift = 0;
+        int position = offset;
+        while (true) {
+            final int b = buffer.get(position++);
+            result |= (b & VAR_INT_MASK) << shift;
+            if ((b & VAR_INT_MORE) == 0) {
+                return result;
+            }
+            shift += VAR_INT_SHIFT;
+            if (shift > Integer.SIZE) {
+                throw new IllegalArgumentException("Malformed variable length int");
+            }
+        }
+    }
+
+    static void putVarInt(@NotNull final ByteBuffer buffer, final int value) {
+        int remaining = value;
+        while ((remaining & ~VAR_INT_MASK) != 0) {
+            buffer.put((byte) ((remaining & VAR_INT_MASK) | VAR_INT_MORE));
+            remaining >>>= VAR_INT_SHIFT;
+        }
+        buffer.put((byte) remaining);
+    }
+
+    static int varIntSize(final int value) {
+        int size = 1;
+        int remaining = value >>> VAR_INT_SHIFT;
+        while (remaining != 0) {
+            size++;
+            remaining >>>= VAR_INT_SHIFT;
+        }
+        return size;
+    }
+}
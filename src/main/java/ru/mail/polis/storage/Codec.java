@@ -0,0 +1,121 @@
+package ru.mail.polis.storage;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression of the data blocks of {@link SSTable}.
+ * The codec is chosen per table and its id is stored in the footer.
+ */
+public enum Codec {
+    NONE(0) {
+        @NotNull
+        @Override
+        ByteBuffer compress(@NotNull final ByteBuffer src) {
+            return src;
+        }
+
+        @NotNull
+        @Override
+        ByteBuffer decompress(@NotNull final ByteBuffer src, final int size) {
+            return src;
+        }
+    },
+
+    /**
+     * Fast LZ77 codec, see {@link LzCompression}.
+     */
+    LZ(1) {
+        @NotNull
+        @Override
+        ByteBuffer compress(@NotNull final ByteBuffer src) {
+            return LzCompression.compress(src);
+        }
+
+        @NotNull
+        @Override
+        ByteBuffer decompress(@NotNull final ByteBuffer src, final int size) {
+            return LzCompression.decompress(src, size);
+        }
+    },
+
+    DEFLATE(2) {
+        private final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+        private final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+
+        @NotNull
+        @Override
+        ByteBuffer compress(@NotNull final ByteBuffer src) {
+            final Deflater deflater = deflaters.get();
+            deflater.reset();
+            deflater.setInput(src.duplicate());
+            deflater.finish();
+            ByteBuffer dst = ByteBuffer.allocate(src.remaining() + src.remaining() / 8 + 64);
+            while (!deflater.finished()) {
+                if (!dst.hasRemaining()) {
+                    dst = ByteBuffer.allocate(dst.capacity() * 2).put(dst.flip());
+                }
+                deflater.deflate(dst);
+            }
+            return dst.flip();
+        }
+
+        @NotNull
+        @Override
+        ByteBuffer decompress(@NotNull final ByteBuffer src, final int size) {
+            final Inflater inflater = inflaters.get();
+            inflater.reset();
+            inflater.setInput(src.duplicate());
+            final ByteBuffer dst = ByteBuffer.allocate(size);
+            try {
+                while (dst.hasRemaining() && !inflater.finished()) {
+                    if (inflater.inflate(dst) == 0 && inflater.needsInput()) {
+                        break;
+                    }
+                }
+            } catch (DataFormatException e) {
+                throw new IllegalArgumentException("Invalid compressed block", e);
+            }
+            if (dst.hasRemaining()) {
+                throw new IllegalArgumentException("Invalid compressed block");
+            }
+            return dst.flip();
+        }
+    };
+
+    private final int id;
+
+    Codec(final int id) {
+        this.id = id;
+    }
+
+    int getId() {
+        return id;
+    }
+
+    @NotNull
+    static Codec of(final int id) {
+        for (final Codec codec : values()) {
+            if (codec.id == id) {
+                return codec;
+            }
+        }
+        throw new IllegalArgumentException("Unknown codec " + id);
+    }
+
+    /**
+     * Compresses the remaining bytes of the buffer without changing its position.
+     */
+    @NotNull
+    abstract ByteBuffer compress(@NotNull ByteBuffer src);
+
+    /**
+     * Decompresses the remaining bytes of the buffer into the buffer of the given size.
+     */
+    @NotNull
+    abstract ByteBuffer decompress(@NotNull ByteBuffer src, int size);
+}
@@ -0,0 +1,250 @@
+package ru.mail.polis.storage;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+/**
+ * Write-ahead log segment of a single {@link MemTable}.
+ * Concurrent appends are batched: the first appender writes the records of all the waiting ones
+ * with a single write and force, see {@link SyncMode}.
+ * The file is created by the first append, so the segment of an empty memTable leaves no file.
+ * Record format: payload size | payload checksum | key size | key | tombstone flag | timestamp | value
+ * where the flag byte is 1 for a tombstone, 0 otherwise, and the value takes the rest of the payload.
+ * Payload checksum is CRC32C.
+ */
+public final class CommitLog implements Closeable {
+    private static final int HEADER_SIZE = Integer.BYTES * 2;
+    private static final byte LIVE = 0;
+    private static final byte TOMBSTONE = 1;
+    private final Path path;
+    private final SyncMode syncMode;
+    private final Lock lock = new ReentrantLock();
+    private final Condition written = lock.newCondition();
+    private final Checksum checksum = new CRC32C();
+    private ByteBuffer pending = ByteBuffer.allocate(64 * 1024);
+    private ByteBuffer spare = ByteBuffer.allocate(64 * 1024);
+    private long appendedCount;
+    private long writtenCount;
+    private boolean writing;
+    private IOException failure;
+    private volatile FileChannel channel;
+
+    public CommitLog(@NotNull final Path path, @NotNull final SyncMode syncMode) {
+        this.path = path;
+        this.syncMode = syncMode;
+    }
+
+    @NotNull
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Appends the row and returns once it is written according to the sync mode.
+     *
+     * @param row the row which is going to be applied
+     * @throws IOException if the row or any preceding one cannot be written
+     */
+    public void append(@NotNull final Row row) throws IOException {
+        appendAll(Collections.singletonList(row));
+    }
+
+    /**
+     * Appends the rows so that they get into the same write and force.
+     * A crash may still leave only the beginning of the batch in the file.
+     *
+     * @param rows the rows which are going to be applied
+     * @throws IOException if the rows or any preceding one cannot be written
+     */
+    public void appendAll(@NotNull final List<Row> rows) throws IOException {
+        lock.lock();
+        try {
+            checkFailure();
+            for (int i = 0; i < rows.size(); i++) {
+                encode(rows.get(i));
+            }
+            appendedCount += rows.size();
+            final long sequence = appendedCount;
+            while (writtenCount < sequence) {
+                if (writing) {
+                    // Another appender is writing, its batch or the next one will contain this record
+                    written.awaitUninterruptibly();
+                    checkFailure();
+                } else {
+                    writeBatch();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Forces the written records to the storage device.
+     */
+    public void sync() throws IOException {
+        final FileChannel current = channel;
+        if (current != null) {
+            current.force(false);
+        }
+    }
+
+    /**
+     * Closes the segment, the records are forced unless the sync mode is {@link SyncMode#NONE}.
+     * Must not be called concurrently with appends.
+     */
+    @Override
+    public void close() throws IOException {
+        final FileChannel current = channel;
+        if (current == null) {
+            return;
+        }
+        try {
+            if (syncMode != SyncMode.NONE) {
+                current.force(false);
+            }
+        } finally {
+            current.close();
+        }
+    }
+
+    /**
+     * Reads the segment into the memTable keeping the timestamps of the rows.
+     * Reading stops at the first incomplete or corrupted record, which is the tail
+     * of the segment being written when the process stopped.
+     *
+     * @param path     the segment
+     * @param memTable the table which receives the rows
+     * @return the number of the rows read
+     * @throws IOException if an I/O error occurs
+     */
+    public static int replay(@NotNull final Path path, @NotNull final MemTable memTable) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        final Checksum checksum = new CRC32C();
+        int count = 0;
+        while (buffer.remaining() >= HEADER_SIZE) {
+            final int size = buffer.getInt();
+            final int expectedChecksum = buffer.getInt();
+            if (size < 0 || size > buffer.remaining()) {
+                break;
+            }
+            final ByteBuffer payload = buffer.slice().limit(size);
+            buffer.position(buffer.position() + size);
+            checksum.reset();
+            checksum.update(payload.duplicate());
+            if ((int) checksum.getValue() != expectedChecksum) {
+                break;
+            }
+            memTable.put(decode(payload));
+            count++;
+        }
+        return count;
+    }
+
+    @NotNull
+    private static Row decode(@NotNull final ByteBuffer payload) {
+        final int keySize = Bytes.getVarInt(payload, 0);
+        final int keyOffset = Bytes.varIntSize(keySize);
+        final ByteBuffer key = payload.duplicate()
+                .position(keyOffset)
+                .limit(keyOffset + keySize)
+                .slice();
+        final byte flag = payload.get(keyOffset + keySize);
+        final long timestamp = payload.getLong(keyOffset + keySize + Byte.BYTES);
+        if (flag == TOMBSTONE) {
+            return new Row(key, new Value(timestamp, true, Value.EMPTY_BUFFER));
+        }
+        final ByteBuffer data = payload.duplicate()
+                .position(keyOffset + keySize + Byte.BYTES + Long.BYTES)
+                .slice();
+        return new Row(key, new Value(timestamp, false, data));
+    }
+
+    private void encode(@NotNull final Row row) {
+        final ByteBuffer key = row.getKey();
+        final Value value = row.getValue();
+        final ByteBuffer data = value.isRemoved() ? Value.EMPTY_BUFFER : value.getData();
+        final int size = Bytes.varIntSize(key.remaining()) + key.remaining() + Byte.BYTES + Long.BYTES
+                + data.remaining();
+        if (pending.remaining() < HEADER_SIZE + size) {
+            final ByteBuffer grown = ByteBuffer.allocate(
+                    Math.max(pending.capacity() * 2, pending.position() + HEADER_SIZE + size));
+            pending.flip();
+            grown.put(pending);
+            pending = grown;
+        }
+        final int start = pending.position();
+        pending.position(start + HEADER_SIZE);
+        Bytes.putVarInt(pending, key.remaining());
+        pending.put(key);
+        pending.put(value.isRemoved() ? TOMBSTONE : LIVE);
+        pending.putLong(value.getTimestamp());
+        pending.put(data);
+        checksum.reset();
+        checksum.update(pending.duplicate().position(start + HEADER_SIZE).limit(pending.position()));
+        pending.putInt(start, size)
+                .putInt(start + Integer.BYTES, (int) checksum.getValue());
+    }
+
+    /**
+     * Writes all the pending records, the lock is released while they are being written.
+     * Must be called under the lock when nobody else is writing.
+     */
+    private void writeBatch() throws IOException {
+        writing = true;
+        final ByteBuffer batch = pending.flip();
+        final long batchEnd = appendedCount;
+        pending = spare;
+        spare = null;
+        IOException error = null;
+        lock.unlock();
+        try {
+            write(batch);
+        } catch (IOException e) {
+            error = e;
+        } finally {
+            lock.lock();
+        }
+        spare = batch.clear();
+        writing = false;
+        if (error == null) {
+            writtenCount = batchEnd;
+        } else {
+            failure = error;
+        }
+        written.signalAll();
+        checkFailure();
+    }
+
+    private void write(@NotNull final ByteBuffer batch) throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        }
+        while (batch.hasRemaining()) {
+            channel.write(batch);
+        }
+        if (syncMode == SyncMode.ALWAYS) {
+            channel.force(false);
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException("Cannot write to " + path, failure);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package ru.mail.polis.storage;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * Reads the files which store every row at the offset from the trailing array.
+ * Row format: key size | key | timestamp | value size | value
+ * if value is tombstone
+ * key size | key | -timestamp
+ */
+final class FlatTableReader implements TableReader {
+    private final int rowsCount;
+    private final IntBuffer offsetsBuffer;
+    private final ByteBuffer rowsBuffer;
+
+    FlatTableReader(@NotNull final ByteBuffer rowsBuffer, @NotNull final IntBuffer offsetsBuffer) {
+        this.rowsCount = offsetsBuffer.limit();
+        this.offsetsBuffer = offsetsBuffer;
+        this.rowsBuffer = rowsBuffer;
+    }
+
+    @NotNull
+    @Override
+    public RowCursor cursor(@NotNull final ByteBuffer from) {
+        return new FlatCursor(position(from));
+    }
+
+    @Nullable
+    @Override
+    public Row get(@NotNull final ByteBuffer key) {
+        final int position = position(key);
+        if (position < rowsCount && compareKey(position, key) == 0) {
+            return rowAt(position);
+        }
+        return null;
+    }
+
+    @Nullable
+    @Override
+    public ByteBuffer lastKey() {
+        return rowsCount == 0 ? null : rowAt(rowsCount - 1).getKey();
+    }
+
+    private int position(@NotNull final ByteBuffer key) {
+        int left = 0;
+        int right = rowsCount - 1;
+        while (left <= right) {
+            final int mid = left + (right - left) / 2;
+            final int cmp = compareKey(mid, key);
+            if (cmp < 0) {
+                left = mid + 1;
+            } else if (cmp > 0) {
+                right = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return left;
+    }
+
+    /**
+     * Compares the key of the row with the given one in place.
+     */
+    private int compareKey(final int position, @NotNull final ByteBuffer key) {
+        final int offset = offsetsBuffer.get(position);
+        return Bytes.compare(rowsBuffer, offset + Integer.BYTES, rowsBuffer.getInt(offset), key);
+    }
+
+    @NotNull
+    private Row rowAt(final int position) {
+        if (position < 0 || position > rowsCount) {
+            throw new IllegalArgumentException("Invalid position of row");
+        }
+        int offset = offsetsBuffer.get(position);
+        final int keySize = rowsBuffer.getInt(offset);
+        final ByteBuffer key = rowsBuffer.duplicate()
+                .position(offset + Integer.BYTES)
+                .limit(offset + Integer.BYTES + keySize)
+                .slice()
+                .asReadOnlyBuffer();
+        offset += Integer.BYTES + keySize;
+
+        final long timestamp = rowsBuffer.getLong(offset);
+        if (timestamp < 0) {
+            return new Row(key, new Value(-timestamp, true, Value.EMPTY_BUFFER));
+        }
+        final int dataSize = rowsBuffer.getInt(offset + Long.BYTES);
+        offset += Long.BYTES + Integer.BYTES;
+        final ByteBuffer data = rowsBuffer.duplicate()
+                .position(offset)
+                .limit(offset + dataSize)
+                .slice()
+                .asReadOnlyBuffer();
+        return new Row(key, new Value(timestamp, false, data));
+    }
+
+    /**
+     * Reads the key and the timestamp of the row at the offset of the mapping, the row is created on demand.
+     */
+    private final class FlatCursor implements RowCursor {
+        private int position;
+        private int offset;
+        private int keySize;
+        private long timestamp;
+
+        FlatCursor(final int position) {
+            this.position = position;
+            parse();
+        }
+
+        @Override
+        public boolean isValid() {
+            return position < rowsCount;
+        }
+
+        @Override
+        public void next() {
+            position++;
+            parse();
+        }
+
+        @NotNull
+        @Override
+        public ByteBuffer getKeyBuffer() {
+            return rowsBuffer;
+        }
+
+        @Override
+        public int getKeyOffset() {
+            return offset + Integer.BYTES;
+        }
+
+        @Override
+        public int getKeySize() {
+            return keySize;
+        }
+
+        @Override
+        public long getTimestamp() {
+            return Math.abs(timestamp);
+        }
+
+        @Override
+        public boolean isRemoved() {
+            return timestamp < 0;
+        }
+
+        @NotNull
+        @Override
+        public Row row() {
+            return rowAt(position);
+        }
+
+        private void parse() {
+            if (position < rowsCount) {
+                offset = offsetsBuffer.get(position);
+                keySize = rowsBuffer.getInt(offset);
+                timestamp = rowsBuffer.getLong(offset + Integer.BYTES + keySize);
+            }
+        }
+    }
+}
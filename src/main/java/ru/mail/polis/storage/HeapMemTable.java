@@ -0,0 +1,74 @@
+package ru.mail.polis.storage;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link MemTable} which keeps the rows on heap in the skip list.
+ */
+public final class HeapMemTable implements MemTable {
+    private final NavigableMap<ByteBuffer, Row> table = new ConcurrentSkipListMap<>();
+    private final AtomicLong sizeBytes = new AtomicLong();
+
+    @NotNull
+    @Override
+    public Iterator<Row> iterator(@NotNull final ByteBuffer from) {
+        return table.tailMap(from).values().iterator();
+    }
+
+    @Nullable
+    @Override
+    public Row get(@NotNull final ByteBuffer key) {
+        return table.get(key);
+    }
+
+    @Override
+    public void upsert(@NotNull final ByteBuffer key, @NotNull final ByteBuffer value) {
+        put(key, Row.of(key, value));
+    }
+
+    @Override
+    public void remove(@NotNull final ByteBuffer key) {
+        put(key, Row.remove(key));
+    }
+
+    @Override
+    public void put(@NotNull final Row row) {
+        put(row.getKey(), row);
+    }
+
+    private void put(@NotNull final ByteBuffer key, @NotNull final Row current) {
+        while (true) {
+            final Row previous = table.putIfAbsent(key, current);
+            if (previous == null) {
+                sizeBytes.addAndGet(current.getSizeBytes());
+                return;
+            }
+            if (previous.getValue().getTimestamp() > current.getValue().getTimestamp()) {
+                return;
+            }
+            if (table.replace(key, previous, current)) {
+                sizeBytes.addAndGet(current.getValue().getSizeBytes() - previous.getValue().getSizeBytes());
+                return;
+            }
+        }
+    }
+
+    @Override
+    public long getSizeBytes() {
+        return sizeBytes.get();
+    }
+
+    @Override
+    public void flush(@NotNull final Path path, @NotNull final TableOptions options) throws IOException {
+        SSTable.writeToFile(path, table.values().iterator(), options);
+    }
+}
@@ -0,0 +1,148 @@
+package ru.mail.polis.storage;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Byte-oriented LZ77 compression in the spirit of LZ4.
+ * Compressed data is a sequence of
+ * token | literals size extension | literals | match offset | match size extension
+ * where the high half of the token is the literals size and the low half is the match size minus {@link #MIN_MATCH},
+ * the value 15 of a half is extended by the following bytes up to the first one which is not 255.
+ * The last sequence has literals only.
+ */
+final class LzCompression {
+    private static final int MIN_MATCH = 4;
+    private static final int HASH_BITS = 12;
+    private static final int MAX_OFFSET = 0xFFFF;
+    private static final int RUN_MASK = 0xF;
+    private static final int EXTENSION = 0xFF;
+
+    private LzCompression() {
+        // Not instantiatable
+    }
+
+    /**
+     * Compresses the remaining bytes of the buffer without changing its position.
+     */
+    @NotNull
+    static ByteBuffer compress(@NotNull final ByteBuffer src) {
+        final int start = src.position();
+        final int end = src.limit();
+        final ByteBuffer dst = ByteBuffer.allocate(maxCompressedSize(src.remaining()));
+        final int[] table = new int[1 << HASH_BITS];
+        int anchor = start;
+        int position = start;
+        while (position + MIN_MATCH <= end) {
+            final int sequence = src.getInt(position);
+            final int hash = (sequence * -1640531535) >>> (Integer.SIZE - HASH_BITS);
+            // Positions are stored plus one, so zero means an empty slot
+            final int candidate = table[hash] - 1;
+            table[hash] = position + 1;
+            if (candidate >= start && position - candidate <= MAX_OFFSET && src.getInt(candidate) == sequence) {
+                int matchEnd = position + MIN_MATCH;
+                while (matchEnd < end && src.get(matchEnd) == src.get(candidate + matchEnd - position)) {
+                    matchEnd++;
+                }
+                writeSequence(dst, src, anchor, position - anchor, position - candidate, matchEnd - position);
+                position = matchEnd;
+                anchor = position;
+            } else {
+                position++;
+            }
+        }
+        writeSequence(dst, src, anchor, end - anchor, 0, 0);
+        return dst.flip();
+    }
+
+    /**
+     * Decompresses the remaining bytes of the buffer into the buffer of the given size.
+     */
+    @NotNull
+    static ByteBuffer decompress(@NotNull final ByteBuffer src, final int size) {
+        final byte[] dst = new byte[size];
+        int position = src.position();
+        final int end = src.limit();
+        int out = 0;
+        try {
+            while (position < end) {
+                final int token = src.get(position++) & EXTENSION;
+                int literals = token >>> 4;
+                if (literals == RUN_MASK) {
+                    int b;
+                    do {
+                        b = src.get(position++) & EXTENSION;
+                        literals += b;
+                    } while (b == EXTENSION);
+                }
+                src.duplicate().position(position).get(dst, out, literals);
+                position += literals;
+                out += literals;
+                if (position == end) {
+                    break;
+                }
+                final int offset = (src.get(position) & EXTENSION) | (src.get(position + 1) & EXTENSION) << 8;
+                position += 2;
+                int match = token & RUN_MASK;
+                if (match == RUN_MASK) {
+                    int b;
+                    do {
+                        b = src.get(position++) & EXTENSION;
+                        match += b;
+                    } while (b == EXTENSION);
+                }
+                match += MIN_MATCH;
+                if (offset == 0 || offset > out) {
+                    throw new IllegalArgumentException("Invalid compressed block");
+                }
+                // Byte by byte, the match may overlap the bytes being written
+                for (int i = 0; i < match; i++, out++) {
+                    dst[out] = dst[out - offset];
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Invalid compressed block", e);
+        }
+        if (out != size) {
+            throw new IllegalArgumentException("Invalid compressed block");
+        }
+        return ByteBuffer.wrap(dst);
+    }
+
+    private static int maxCompressedSize(final int size) {
+        return size + size / EXTENSION + 16;
+    }
+
+    private static void writeSequence(
+            @NotNull final ByteBuffer dst,
+            @NotNull final ByteBuffer src,
+            final int literalsStart,
+            final int literals,
+            final int offset,
+            final int match) {
+        final int literalsToken = Math.min(literals, RUN_MASK);
+        final int matchToken = match == 0 ? 0 : Math.min(match - MIN_MATCH, RUN_MASK);
+        dst.put((byte) (literalsToken << 4 | matchToken));
+        if (literalsToken == RUN_MASK) {
+            putExtension(dst, literals - RUN_MASK);
+        }
+        dst.put(src.duplicate().position(literalsStart).limit(literalsStart + literals));
+        if (match == 0) {
+            return;
+        }
+        dst.put((byte) offset).put((byte) (offset >>> 8));
+        if (matchToken == RUN_MASK) {
+            putExtension(dst, match - MIN_MATCH - RUN_MASK);
+        }
+    }
+
+    private static void putExtension(@NotNull final ByteBuffer dst, final int value) {
+        int remaining = value;
+        while (remaining >= EXTENSION) {
+            dst.put((byte) EXTENSION);
+            remaining -= EXTENSION;
+        }
+        dst.put((byte) remaining);
+    }
+}
@@ -6,58 +6,33 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.file.Path;
 import java.util.Iterator;
-import java.util.NavigableMap;
-import java.util.TreeMap;
-
-public final class MemTable implements Table {
-    private NavigableMap<ByteBuffer, Row> table = new TreeMap<>();
-    private long sizeBytes;
 
+/**
+ * In-memory table that may be concurrently read and modified by several threads.
+ */
+public interface MemTable extends Table {
     @NotNull
     @Override
-    public Iterator<Row> iterator(@NotNull final ByteBuffer from) {
-        return table.tailMap(from).values().iterator();
-    }
-
-    @Override
-    public void upsert(@NotNull final ByteBuffer key, @NotNull final ByteBuffer value) {
-        final Row current = Row.of(key, value);
-        final Row previous = table.put(key, current);
-        if (previous == null) {
-            sizeBytes += current.getSizeBytes();
-        } else {
-            sizeBytes += current.getValue().getSizeBytes() - previous.getValue().getSizeBytes();
-        }
-    }
-
-    @Override
-    public void remove(@NotNull final ByteBuffer key) {
-        final Row current = Row.remove(key);
-        final Row previous = table.put(key, current);
-        if (previous == null) {
-            sizeBytes += current.getSizeBytes();
-        } else {
-            sizeBytes += current.getValue().getSizeBytes() - previous.getValue().getSizeBytes();
-        }
-    }
+    Iterator<Row> iterator(@NotNull ByteBuffer from);
 
-    public long getSizeBytes() {
-        return sizeBytes;
-    }
+    /**
+     * Puts the row as is keeping its timestamp.
+     * The row is ignored if the table has the newer row of the same key, so the rows may come in any order.
+     */
+    void put(@NotNull Row row);
 
-    public void clear() {
-        table = new TreeMap<>();
-        sizeBytes = 0;
-    }
+    /**
+     * Returns the memory occupied by the rows, the table is flushed once it grows above the threshold.
+     */
+    long getSizeBytes();
 
     /**
      * Performs flush of the table to the file.
+     * The table must not be modified while it is being flushed.
      *
-     * @param path the path of the file in which the table will be written
+     * @param path    the path of the file in which the table will be written
+     * @param options the parameters of the file
      * @throws IOException if an I/O error occurs
      */
-    public void flush(@NotNull final Path path) throws IOException {
-        SSTable.writeToFile(path, table.values().iterator());
-        clear();
-    }
-}
\ No newline at end of file
+    void flush(@NotNull Path path, @NotNull TableOptions options) throws IOException;
+}
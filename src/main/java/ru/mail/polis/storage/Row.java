@@ -1,5 +1,7 @@
 package ru.mail.polis.storage;
 
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
 import org.jetbrains.annotations.NotNull;
 
 import java.nio.ByteBuffer;
@@ -7,6 +9,7 @@ import java.util.Comparator;
 
 public final class Row {
     public static final Comparator<Row> COMPARATOR = Comparator.comparing(Row::getKey).thenComparing(Row::getValue);
+    private static final HashFunction DIGEST = Hashing.murmur3_128();
     private final ByteBuffer key;
     private final Value value;
 
@@ -20,6 +23,11 @@ public final class Row {
         return new Row(key, Value.of(value));
     }
 
+    @NotNull
+    public static Row of(@NotNull final ByteBuffer key, @NotNull final Value value) {
+        return new Row(key, value);
+    }
+
     @NotNull
     public static Row remove(@NotNull final ByteBuffer key) {
         return new Row(key, Value.remove());
@@ -38,4 +46,19 @@ public final class Row {
     public int getSizeBytes() {
         return Integer.BYTES + key.remaining() + value.getSizeBytes();
     }
-}
\ No newline at end of file
+
+    /**
+     * Returns the hash of the key, the timestamp and the value of the row.
+     * The digests are added up, so the sum of the rows does not depend on their order.
+     */
+    public long getDigest() {
+        return DIGEST.newHasher()
+                .putInt(key.remaining())
+                .putBytes(key.duplicate())
+                .putLong(value.getTimestamp())
+                .putBoolean(value.isRemoved())
+                .putBytes(value.getData())
+                .hash()
+                .asLong();
+    }
+}
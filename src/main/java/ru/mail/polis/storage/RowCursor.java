@@ -0,0 +1,145 @@
+package ru.mail.polis.storage;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Moves over the sorted rows of a table without creating the rows.
+ * The key and the value of the current row are exposed as the bytes at the offsets of the buffers the table reads,
+ * they are valid until the cursor moves, so the keys are compared in place
+ * and only the rows which are returned are {@link #row() created}.
+ */
+public interface RowCursor {
+    boolean isValid();
+
+    /**
+     * Moves to the next row, the cursor becomes invalid after the last one.
+     */
+    void next();
+
+    /**
+     * Returns the buffer which holds the key of the current row at {@link #getKeyOffset()}.
+     * The position and the limit of the buffer are not used, it must not be changed.
+     */
+    @NotNull
+    ByteBuffer getKeyBuffer();
+
+    int getKeyOffset();
+
+    int getKeySize();
+
+    long getTimestamp();
+
+    boolean isRemoved();
+
+    /**
+     * Returns the current row, the only method which creates objects.
+     */
+    @NotNull
+    Row row();
+
+    /**
+     * Compares the key of the current row with the key of the current row of the other cursor.
+     */
+    default int compareKey(@NotNull final RowCursor other) {
+        return Bytes.compare(
+                getKeyBuffer(), getKeyOffset(), getKeySize(),
+                other.getKeyBuffer(), other.getKeyOffset(), other.getKeySize());
+    }
+
+    /**
+     * Compares the key of the current row with the remaining bytes of the key.
+     */
+    default int compareKey(@NotNull final ByteBuffer key) {
+        return Bytes.compare(getKeyBuffer(), getKeyOffset(), getKeySize(), key);
+    }
+
+    /**
+     * Returns the cursor over the rows which already exist, e.g. the ones of a memTable.
+     */
+    @NotNull
+    static RowCursor of(@NotNull final Iterator<Row> rows) {
+        return new RowCursor() {
+            private Row row;
+            private ByteBuffer key;
+
+            {
+                next();
+            }
+
+            @Override
+            public boolean isValid() {
+                return row != null;
+            }
+
+            @Override
+            public void next() {
+                if (rows.hasNext()) {
+                    row = rows.next();
+                    key = row.getKey();
+                } else {
+                    row = null;
+                    key = null;
+                }
+            }
+
+            @NotNull
+            @Override
+            public ByteBuffer getKeyBuffer() {
+                return key;
+            }
+
+            @Override
+            public int getKeyOffset() {
+                return key.position();
+            }
+
+            @Override
+            public int getKeySize() {
+                return key.remaining();
+            }
+
+            @Override
+            public long getTimestamp() {
+                return row.getValue().getTimestamp();
+            }
+
+            @Override
+            public boolean isRemoved() {
+                return row.getValue().isRemoved();
+            }
+
+            @NotNull
+            @Override
+            public Row row() {
+                return row;
+            }
+        };
+    }
+
+    /**
+     * Returns the iterator which creates the rows of the cursor one by one.
+     */
+    @NotNull
+    static Iterator<Row> iterator(@NotNull final RowCursor cursor) {
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return cursor.isValid();
+            }
+
+            @Override
+            public Row next() {
+                if (!cursor.isValid()) {
+                    throw new NoSuchElementException();
+                }
+                final Row row = cursor.row();
+                cursor.next();
+                return row;
+            }
+        };
+    }
+}
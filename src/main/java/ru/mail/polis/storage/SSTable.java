@@ -1,6 +1,7 @@
 package ru.mail.polis.storage;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.io.IOException;
@@ -10,18 +11,61 @@ import java.nio.IntBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
-import java.util.ArrayList;
-import java.util.Collection;
+import java.util.BitSet;
 import java.util.Iterator;
-import java.util.NoSuchElementException;
+import java.util.List;
 
+/**
+ * Immutable sorted table stored in the file.
+ * Every file but the legacy ones ends with the footer: ... | version | magic
+ * <ul>
+ * <li>legacy: rows | offsets of rows | rows count</li>
+ * <li>{@link #VERSION_BLOOM}: rows | offsets of rows | Bloom filter words |
+ * rows count | Bloom filter hash count | Bloom filter words count | version | magic</li>
+ * <li>{@link #VERSION_BLOCKS}: data blocks | index entries | index entry offsets | Bloom filter words |
+ * rows count | Bloom filter hash count | Bloom filter words count | index offset | blocks count | version | magic,
+ * index entry: first key size | first key | block offset | block size</li>
+ * <li>{@link #VERSION_COMPRESSED}: see {@link SSTableWriter}</li>
+ * </ul>
+ */
 public final class SSTable implements Table {
+    /**
+     * Marks the files which end with the footer. The lower half is negative,
+     * so it cannot be mistaken for the rows count of the legacy files.
+     */
+    static final long MAGIC = 0x5354_4142_8C0F_F1CEL;
+    static final int VERSION_BLOOM = 2;
+    static final int VERSION_BLOCKS = 3;
+    static final int VERSION_COMPRESSED = 4;
+    static final int FOOTER_SIZE_BLOOM = Integer.BYTES * 4 + Long.BYTES;
+    static final int FOOTER_SIZE_BLOCKS = Integer.BYTES * 6 + Long.BYTES;
+    static final int FOOTER_SIZE_COMPRESSED = Integer.BYTES * 8 + Long.BYTES;
+    static final int CHECKSUM_CRC32C = 1;
+
     private final Path path;
+    private final long sizeBytes;
     private final int rowsCount;
-    private final IntBuffer offsetsBuffer;
-    private final ByteBuffer rowsBuffer;
+    private final TableReader reader;
+    private final BloomFilter bloomFilter;
+    /**
+     * The sums of the digests and the counts of the rows computed for the last ranges asked,
+     * null until they are asked.
+     */
+    @Nullable
+    private volatile RangeSums rangeSums;
 
     public SSTable(@NotNull final Path path) throws IOException {
+        this(path, null);
+    }
+
+    /**
+     * Opens the table.
+     *
+     * @param path       the file of the table
+     * @param blockCache the cache of the decompressed blocks shared with the other tables, if any
+     * @throws IOException if an I/O error occurs
+     */
+    public SSTable(@NotNull final Path path, @Nullable final BlockCache blockCache) throws IOException {
         this.path = path;
         try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
             final File file = path.toFile();
@@ -32,166 +76,270 @@ public final class SSTable implements Table {
                     FileChannel.MapMode.READ_ONLY,
                     0,
                     fileChannel.size()).order(ByteOrder.BIG_ENDIAN);
-            this.rowsCount = mappedBuffer.getInt(mappedBuffer.limit() - Integer.BYTES);
-            final int position = mappedBuffer.limit() - Integer.BYTES * this.rowsCount - Integer.BYTES;
-            if (position < 0 || position > mappedBuffer.limit()) {
+            final int limit = mappedBuffer.limit();
+            this.sizeBytes = limit;
+            if (limit < Integer.BYTES) {
                 throw new IllegalArgumentException("Invalid file");
             }
-            final ByteBuffer offsetsTmpBuffer = mappedBuffer.duplicate()
-                    .position(position)
-                    .limit(mappedBuffer.limit() - Integer.BYTES);
-            this.offsetsBuffer = offsetsTmpBuffer.slice()
-                    .asIntBuffer()
-                    .asReadOnlyBuffer();
-            this.rowsBuffer = mappedBuffer.duplicate()
-                    .limit(offsetsTmpBuffer.position())
-                    .slice()
-                    .asReadOnlyBuffer();
+            if (limit < FOOTER_SIZE_BLOOM || mappedBuffer.getLong(limit - Long.BYTES) != MAGIC) {
+                this.rowsCount = mappedBuffer.getInt(limit - Integer.BYTES);
+                this.bloomFilter = null;
+                this.reader = flatReader(mappedBuffer, limit - Integer.BYTES, rowsCount);
+                return;
+            }
+            final int version = mappedBuffer.getInt(limit - Long.BYTES - Integer.BYTES);
+            final int footer;
+            if (version == VERSION_BLOOM) {
+                footer = limit - FOOTER_SIZE_BLOOM;
+            } else if (version == VERSION_BLOCKS && limit >= FOOTER_SIZE_BLOCKS) {
+                footer = limit - FOOTER_SIZE_BLOCKS;
+            } else if (version == VERSION_COMPRESSED && limit >= FOOTER_SIZE_COMPRESSED) {
+                footer = limit - FOOTER_SIZE_COMPRESSED;
+            } else {
+                throw new IllegalArgumentException("Unsupported version " + version);
+            }
+            this.rowsCount = mappedBuffer.getInt(footer);
+            final int hashCount = mappedBuffer.getInt(footer + Integer.BYTES);
+            final int wordsCount = mappedBuffer.getInt(footer + Integer.BYTES * 2);
+            final int bloomOffset = footer - Long.BYTES * wordsCount;
+            if (wordsCount < 0 || bloomOffset < 0) {
+                throw new IllegalArgumentException("Invalid file");
+            }
+            this.bloomFilter = wordsCount == 0 ? null : BloomFilter.wrap(
+                    mappedBuffer.duplicate()
+                            .position(bloomOffset)
+                            .limit(footer)
+                            .slice()
+                            .asLongBuffer()
+                            .asReadOnlyBuffer(),
+                    hashCount);
+            if (version == VERSION_BLOOM) {
+                this.reader = flatReader(mappedBuffer, bloomOffset, rowsCount);
+            } else {
+                final int indexOffset = mappedBuffer.getInt(footer + Integer.BYTES * 3);
+                final int blocksCount = mappedBuffer.getInt(footer + Integer.BYTES * 4);
+                if (indexOffset < 0 || indexOffset > bloomOffset) {
+                    throw new IllegalArgumentException("Invalid file");
+                }
+                final boolean compressed = version == VERSION_COMPRESSED;
+                final Codec codec = compressed ? Codec.of(mappedBuffer.getInt(footer + Integer.BYTES * 5)) : Codec.NONE;
+                if (compressed && mappedBuffer.getInt(footer + Integer.BYTES * 6) != CHECKSUM_CRC32C) {
+                    throw new IllegalArgumentException("Unsupported checksum");
+                }
+                this.reader = new BlockTableReader(
+                        mappedBuffer.duplicate()
+                                .limit(indexOffset)
+                                .slice()
+                                .asReadOnlyBuffer(),
+                        mappedBuffer.duplicate()
+                                .position(indexOffset)
+                                .limit(bloomOffset)
+                                .slice()
+                                .asReadOnlyBuffer(),
+                        blocksCount,
+                        codec,
+                        compressed,
+                        blockCache);
+            }
         }
     }
 
+    @NotNull
+    private static TableReader flatReader(
+            @NotNull final ByteBuffer mappedBuffer,
+            final int offsetsLimit,
+            final int rowsCount) {
+        final int position = offsetsLimit - Integer.BYTES * rowsCount;
+        if (rowsCount < 0 || position < 0 || position > offsetsLimit) {
+            throw new IllegalArgumentException("Invalid file");
+        }
+        final IntBuffer offsetsBuffer = mappedBuffer.duplicate()
+                .position(position)
+                .limit(offsetsLimit)
+                .slice()
+                .asIntBuffer()
+                .asReadOnlyBuffer();
+        final ByteBuffer rowsBuffer = mappedBuffer.duplicate()
+                .limit(position)
+                .slice()
+                .asReadOnlyBuffer();
+        return new FlatTableReader(rowsBuffer, offsetsBuffer);
+    }
+
     public Path getPath() {
         return path;
     }
 
+    public long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    public int getRowsCount() {
+        return rowsCount;
+    }
+
+    /**
+     * Returns the least key of the table or null if the table is empty.
+     */
+    @Nullable
+    public ByteBuffer getFirstKey() {
+        final RowCursor cursor = reader.cursor(Value.EMPTY_BUFFER);
+        return cursor.isValid() ? cursor.row().getKey() : null;
+    }
+
+    /**
+     * Returns the greatest key of the table or null if the table is empty, only the last block is read.
+     */
+    @Nullable
+    public ByteBuffer getLastKey() {
+        return reader.lastKey();
+    }
+
+    /**
+     * Returns false if the table definitely does not contain the key.
+     * The tables written without the Bloom filter always return true.
+     */
+    public boolean mightContain(@NotNull final ByteBuffer key) {
+        return bloomFilter == null || bloomFilter.mightContain(key);
+    }
+
     /**
-     * Writes the values to the file.
-     * File storage format:
-     * Row format in file: key size | key | timestamp | value size | value
-     * if value is tombstone
-     * key size | key | -timestamp
-     * array of offsets that contains positions of rows
-     * rows count
+     * Writes the values to the file with the {@link TableOptions#DEFAULT default} options.
      *
      * @param path the path of the file in which the values will be written
      * @throws IOException if an I/O error occurs
      */
     public static void writeToFile(@NotNull final Path path, @NotNull final Iterator<Row> iterator) throws IOException {
-        try (FileChannel fileChannel = FileChannel.open(
-                path,
-                StandardOpenOption.CREATE_NEW,
-                StandardOpenOption.WRITE)) {
-            final Collection<Integer> offsets = new ArrayList<>();
-            int offset = 0;
+        writeToFile(path, iterator, TableOptions.DEFAULT);
+    }
+
+    /**
+     * Writes the values to the file in the {@link #VERSION_COMPRESSED latest format}.
+     *
+     * @param path    the path of the file in which the values will be written
+     * @param options the parameters of the file
+     * @throws IOException if an I/O error occurs
+     */
+    public static void writeToFile(
+            @NotNull final Path path,
+            @NotNull final Iterator<Row> iterator,
+            @NotNull final TableOptions options) throws IOException {
+        try (SSTableWriter writer = new SSTableWriter(path, options)) {
             while (iterator.hasNext()) {
-                final Row row = iterator.next();
-                offsets.add(offset);
-                final ByteBuffer rowBuffer = ByteBuffer.allocate(row.getSizeBytes());
-                final ByteBuffer key = row.getKey();
-                final Value value = row.getValue();
-                rowBuffer.putInt(key.remaining())
-                        .put(key);
-                if (value.isRemoved()) {
-                    rowBuffer.putLong(-value.getTimestamp());
-                } else {
-                    rowBuffer.putLong(value.getTimestamp())
-                            .putInt(value.getData().remaining())
-                            .put(value.getData());
-                }
-                rowBuffer.rewind();
-                fileChannel.write(rowBuffer);
-                offset += row.getSizeBytes();
-            }
-            final ByteBuffer offsetsBuffer = ByteBuffer.allocate(Integer.BYTES * offsets.size());
-            for (final Integer value : offsets) {
-                offsetsBuffer.putInt(value);
+                writer.append(iterator.next());
             }
-            offsetsBuffer.rewind();
-            fileChannel.write(offsetsBuffer);
-            final ByteBuffer sizeBuffer = ByteBuffer.allocate(Integer.BYTES)
-                    .putInt(offsets.size())
-                    .rewind();
-            fileChannel.write(sizeBuffer);
+            writer.finish();
         }
     }
 
     @NotNull
     @Override
     public Iterator<Row> iterator(@NotNull final ByteBuffer from) {
-        return new Iterator<>() {
-            private int position = position(from);
+        return reader.iterator(from);
+    }
 
-            @Override
-            public boolean hasNext() {
-                return position < rowsCount;
-            }
+    /**
+     * Returns the cursor at the first row which key is not less than the given one,
+     * it moves over the rows of the table without creating them.
+     */
+    @NotNull
+    public RowCursor cursor(@NotNull final ByteBuffer from) {
+        return reader.cursor(from);
+    }
 
-            @Override
-            public Row next() {
-                if (!hasNext()) {
-                    throw new NoSuchElementException();
-                }
-                return rowAt(position++);
-            }
-        };
+    @Nullable
+    @Override
+    public Row get(@NotNull final ByteBuffer key) {
+        if (!mightContain(key)) {
+            return null;
+        }
+        return reader.get(key);
     }
 
+    /**
+     * Passes the keys the Bloom filter does not reject to the reader at once,
+     * so the reader visits the blocks in order and reads each of them once.
+     */
     @Override
-    public void upsert(@NotNull final ByteBuffer key, @NotNull final ByteBuffer value) {
-        throw new UnsupportedOperationException();
+    public void getAll(@NotNull final List<ByteBuffer> keys, @NotNull final Row[] rows) {
+        final BitSet wanted = new BitSet(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            if (rows[i] == null && mightContain(keys.get(i))) {
+                wanted.set(i);
+            }
+        }
+        if (!wanted.isEmpty()) {
+            reader.getAll(keys, wanted, rows);
+        }
     }
 
+    /**
+     * Scans the table once per the ranges and reuses the sums afterwards, as the table never changes,
+     * so a repeated repair does not read the tables written before the previous one.
+     */
     @Override
-    public void remove(@NotNull final ByteBuffer key) {
-        throw new UnsupportedOperationException();
+    public void addDigests(@NotNull final TokenRanges ranges, @NotNull final long[] sums) throws IOException {
+        final RangeSums cached = rangeSums(ranges);
+        for (int i = 0; i < sums.length; i++) {
+            sums[i] += cached.sums[i];
+        }
     }
 
-    private int position(@NotNull final ByteBuffer key) {
-        int left = 0;
-        int right = rowsCount - 1;
-        while (left <= right) {
-            final int mid = left + (right - left) / 2;
-            final int cmp = keyAt(mid).compareTo(key);
-            if (cmp < 0) {
-                left = mid + 1;
-            } else if (cmp > 0) {
-                right = mid - 1;
-            } else {
-                return mid;
+    /**
+     * Returns whether the table has any rows in the given ranges, the rows are counted
+     * along with the {@link #addDigests(TokenRanges, long[]) digests}, so the table is scanned once.
+     *
+     * @param ranges the ranges of the keys
+     * @param wanted the indexes of the ranges
+     */
+    public boolean hasRowsIn(@NotNull final TokenRanges ranges, @NotNull final BitSet wanted) throws IOException {
+        final RangeSums cached = rangeSums(ranges);
+        for (int range = wanted.nextSetBit(0); range >= 0; range = wanted.nextSetBit(range + 1)) {
+            if (range < cached.counts.length && cached.counts[range] > 0) {
+                return true;
             }
         }
-        return left;
+        return false;
     }
 
     @NotNull
-    private ByteBuffer keyAt(final int position) {
-        if (position < 0 || position > rowsCount) {
-            throw new IllegalArgumentException("Invalid position of key");
+    private RangeSums rangeSums(@NotNull final TokenRanges ranges) throws IOException {
+        RangeSums cached = rangeSums;
+        if (cached == null || cached.ranges != ranges) {
+            final long[] sums = new long[ranges.size()];
+            final int[] counts = new int[ranges.size()];
+            final Iterator<Row> rows = iterator(Value.EMPTY_BUFFER);
+            while (rows.hasNext()) {
+                final Row row = rows.next();
+                final int range = ranges.rangeOf(row.getKey());
+                sums[range] += row.getDigest();
+                counts[range]++;
+            }
+            cached = new RangeSums(ranges, sums, counts);
+            rangeSums = cached;
         }
-        final int offset = offsetsBuffer.get(position);
-        final int keySize = rowsBuffer.getInt(offset);
-        return rowsBuffer.duplicate()
-                .position(offset + Integer.BYTES)
-                .limit(offset + Integer.BYTES + keySize)
-                .slice()
-                .asReadOnlyBuffer();
+        return cached;
     }
 
-    @NotNull
-    private Row rowAt(final int position) {
-        if (position < 0 || position > rowsCount) {
-            throw new IllegalArgumentException("Invalid position of row");
-        }
-        int offset = offsetsBuffer.get(position);
-        final int keySize = rowsBuffer.getInt(offset);
-        final ByteBuffer key = rowsBuffer.duplicate()
-                .position(offset + Integer.BYTES)
-                .limit(offset + Integer.BYTES + keySize)
-                .slice()
-                .asReadOnlyBuffer();
-        offset += Integer.BYTES + keySize;
+    @Override
+    public void upsert(@NotNull final ByteBuffer key, @NotNull final ByteBuffer value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void remove(@NotNull final ByteBuffer key) {
+        throw new UnsupportedOperationException();
+    }
 
-        final long timestamp = rowsBuffer.position(offset).getLong();
-        if (timestamp < 0) {
-            return new Row(key, new Value(-timestamp, true, Value.EMPTY_BUFFER));
+    private static final class RangeSums {
+        final TokenRanges ranges;
+        final long[] sums;
+        final int[] counts;
+
+        RangeSums(@NotNull final TokenRanges ranges, @NotNull final long[] sums, @NotNull final int[] counts) {
+            this.ranges = ranges;
+            this.sums = sums;
+            this.counts = counts;
         }
-        final int dataSize = rowsBuffer.getInt(offset + Long.BYTES);
-        offset += Long.BYTES + Integer.BYTES;
-        final ByteBuffer data = rowsBuffer.duplicate()
-                .position(offset)
-                .limit(offset + dataSize)
-                .slice()
-                .asReadOnlyBuffer();
-        return new Row(key, new Value(timestamp, false, data));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,187 @@
+package ru.mail.polis.storage;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+/**
+ * Writes the rows to the file in the block format of {@link SSTable}.
+ * File format:
+ * data blocks | index entries | index entry offsets | Bloom filter words |
+ * rows count | Bloom filter hash count | Bloom filter words count | index offset | blocks count |
+ * codec | checksum | version | magic
+ * Index entry format: separator size | separator | block offset | stored block size | block size | block checksum
+ * The separator is the shortest prefix of the first key of the block which is greater than the last key
+ * of the previous block, so the index stays small even if the keys are huge.
+ * A block is stored compressed by the codec only if it becomes smaller,
+ * so the block is stored as is if its stored size equals its size.
+ * Block checksum is CRC32C of the stored bytes.
+ * The blocks are gathered in the direct buffer and written in the chunks of its size,
+ * so a flush of the small rows takes a few large writes instead of a write per block.
+ */
+final class SSTableWriter implements Closeable {
+    private static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+    private final FileChannel fileChannel;
+    private final TableOptions options;
+    private final BlockBuilder block;
+    private final Checksum checksum = new CRC32C();
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+    private final ByteBuffer[] gathered = new ByteBuffer[2];
+    private ByteBuffer index = ByteBuffer.allocate(4 * 1024);
+    private int[] indexOffsets = new int[64];
+    private int blocksCount;
+    private long[] hashes = new long[64];
+    private int rowsCount;
+    private int offset;
+    private ByteBuffer previousKey;
+
+    SSTableWriter(@NotNull final Path path, @NotNull final TableOptions options) throws IOException {
+        this.fileChannel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        this.options = options;
+        this.block = new BlockBuilder(options.getRestartInterval());
+    }
+
+    /**
+     * Appends the row, the rows must be appended in ascending order of their keys.
+     */
+    void append(@NotNull final Row row) throws IOException {
+        final ByteBuffer key = row.getKey();
+        if (block.isEmpty()) {
+            addIndexEntry(separator(key));
+        }
+        previousKey = key;
+        block.add(key, row.getValue());
+        if (rowsCount == hashes.length) {
+            hashes = Arrays.copyOf(hashes, hashes.length * 2);
+        }
+        hashes[rowsCount++] = BloomFilter.hash(key);
+        if (block.getSizeBytes() >= options.getBlockSize()) {
+            flushBlock();
+        }
+    }
+
+    /**
+     * Writes the last block, the index, the Bloom filter and the footer and forces the file,
+     * so the data it replaces may be deleted once the file is moved in place.
+     */
+    void finish() throws IOException {
+        if (!block.isEmpty()) {
+            flushBlock();
+        }
+        final int indexOffset = offset;
+        ensureIndexCapacity(Integer.BYTES * blocksCount);
+        for (int i = 0; i < blocksCount; i++) {
+            index.putInt(indexOffsets[i]);
+        }
+        write(index.flip());
+
+        final int bitsPerKey = options.getBloomBitsPerKey();
+        final BloomFilter bloomFilter = bitsPerKey == 0 || rowsCount == 0
+                ? null
+                : BloomFilter.create(hashes, rowsCount, bitsPerKey);
+        final int wordsCount = bloomFilter == null ? 0 : bloomFilter.getWordsCount();
+        final ByteBuffer trailer = ByteBuffer.allocate(Long.BYTES * wordsCount + SSTable.FOOTER_SIZE_COMPRESSED);
+        if (bloomFilter != null) {
+            bloomFilter.writeTo(trailer);
+        }
+        trailer.putInt(rowsCount)
+                .putInt(bloomFilter == null ? 0 : bloomFilter.getHashCount())
+                .putInt(wordsCount)
+                .putInt(indexOffset)
+                .putInt(blocksCount)
+                .putInt(options.getCodec().getId())
+                .putInt(SSTable.CHECKSUM_CRC32C)
+                .putInt(SSTable.VERSION_COMPRESSED)
+                .putLong(SSTable.MAGIC);
+        write(trailer.flip());
+        writeBuffer.flip();
+        while (writeBuffer.hasRemaining()) {
+            fileChannel.write(writeBuffer);
+        }
+        fileChannel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        fileChannel.close();
+    }
+
+    @NotNull
+    private ByteBuffer separator(@NotNull final ByteBuffer firstKey) {
+        if (previousKey == null) {
+            return firstKey.duplicate().limit(firstKey.position());
+        }
+        // The keys are ascending, so the first key is longer than the shared prefix
+        final int shared = Bytes.commonPrefix(previousKey, firstKey);
+        return firstKey.duplicate().limit(firstKey.position() + shared + 1);
+    }
+
+    private void addIndexEntry(@NotNull final ByteBuffer separator) {
+        if (blocksCount == indexOffsets.length) {
+            indexOffsets = Arrays.copyOf(indexOffsets, indexOffsets.length * 2);
+        }
+        indexOffsets[blocksCount++] = index.position();
+        ensureIndexCapacity(Bytes.MAX_VAR_INT_SIZE + separator.remaining() + Integer.BYTES * 4);
+        Bytes.putVarInt(index, separator.remaining());
+        index.put(separator.duplicate());
+        // Block offset and size are known once the block is written
+        index.putInt(offset);
+        index.putInt(0);
+        index.putInt(0);
+        index.putInt(0);
+    }
+
+    private void flushBlock() throws IOException {
+        final ByteBuffer data = block.finish();
+        final int size = data.remaining();
+        final ByteBuffer compressed = options.getCodec().compress(data);
+        final ByteBuffer stored = compressed.remaining() < size ? compressed : data;
+        checksum.reset();
+        checksum.update(stored.duplicate());
+        // Fill in the sizes and the checksum of the entry added when the block was started
+        final int entryEnd = index.position();
+        index.putInt(entryEnd - Integer.BYTES * 3, stored.remaining())
+                .putInt(entryEnd - Integer.BYTES * 2, size)
+                .putInt(entryEnd - Integer.BYTES, (int) checksum.getValue());
+        write(stored);
+        block.reset();
+    }
+
+    private void write(@NotNull final ByteBuffer buffer) throws IOException {
+        final int size = buffer.remaining();
+        if (offset + (long) size > Integer.MAX_VALUE) {
+            throw new IOException("SSTable is too large");
+        }
+        offset += size;
+        if (size <= writeBuffer.remaining()) {
+            writeBuffer.put(buffer);
+            return;
+        }
+        // The buffered bytes and the bytes which do not fit go with a single gathering write
+        writeBuffer.flip();
+        gathered[0] = writeBuffer;
+        gathered[1] = buffer;
+        while (buffer.hasRemaining()) {
+            fileChannel.write(gathered);
+        }
+        writeBuffer.clear();
+        gathered[1] = null;
+    }
+
+    private void ensureIndexCapacity(final int bytes) {
+        if (index.remaining() < bytes) {
+            final ByteBuffer grown = ByteBuffer.allocate(Math.max(index.capacity() * 2, index.position() + bytes));
+            index.flip();
+            grown.put(index);
+            index = grown;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package ru.mail.polis.storage;
+
+/**
+ * Defines when the records of {@link CommitLog} are forced to the storage device.
+ */
+public enum SyncMode {
+    /**
+     * Every append waits until its record is forced, concurrent appends share one force.
+     */
+    ALWAYS,
+
+    /**
+     * Appends wait until their records are written to the file, which is forced periodically.
+     * Records written after the last force may be lost if the system crashes.
+     */
+    PERIODIC,
+
+    /**
+     * Appends wait until their records are written to the file, which is never forced explicitly.
+     */
+    NONE
+}
@@ -1,15 +1,53 @@
 package ru.mail.polis.storage;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Iterator;
+import java.util.List;
 
 public interface Table {
     @NotNull
     Iterator<Row> iterator(@NotNull ByteBuffer from) throws IOException;
 
+    /**
+     * Returns the row with the given key, which may be a tombstone, or null if the table has no such row.
+     */
+    @Nullable
+    Row get(@NotNull ByteBuffer key);
+
+    /**
+     * Looks up the keys at the empty indexes of the rows, the keys at the filled ones are skipped.
+     * Every table is searched for all the keys with an empty array, the caller keeps the rows
+     * with the greatest timestamps, as a newer table may hold an older row of a key.
+     *
+     * @param keys the keys in ascending order
+     * @param rows the rows at the indexes of their keys, the rows found here are put at the empty indexes
+     */
+    default void getAll(@NotNull final List<ByteBuffer> keys, @NotNull final Row[] rows) {
+        for (int i = 0; i < keys.size(); i++) {
+            if (rows[i] == null) {
+                rows[i] = get(keys.get(i));
+            }
+        }
+    }
+
+    /**
+     * Adds the {@link Row#getDigest() digests} of the rows, tombstones included, to the sums of their ranges.
+     *
+     * @param ranges the ranges of the keys
+     * @param sums   the sums at the indexes of the ranges
+     */
+    default void addDigests(@NotNull final TokenRanges ranges, @NotNull final long[] sums) throws IOException {
+        final Iterator<Row> rows = iterator(Value.EMPTY_BUFFER);
+        while (rows.hasNext()) {
+            final Row row = rows.next();
+            sums[ranges.rangeOf(row.getKey())] += row.getDigest();
+        }
+    }
+
     void upsert(@NotNull ByteBuffer key, @NotNull ByteBuffer value) throws IOException;
 
     void remove(@NotNull ByteBuffer key) throws IOException;
@@ -0,0 +1,92 @@
+package ru.mail.polis.storage;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Parameters of the {@link SSTable} files being written.
+ */
+public final class TableOptions {
+    public static final TableOptions DEFAULT = new TableOptions(BloomFilter.bitsPerKey(0.01), 4 * 1024, 16, Codec.NONE);
+
+    private final int bloomBitsPerKey;
+    private final int blockSize;
+    private final int restartInterval;
+    private final Codec codec;
+
+    private TableOptions(
+            final int bloomBitsPerKey,
+            final int blockSize,
+            final int restartInterval,
+            @NotNull final Codec codec) {
+        this.bloomBitsPerKey = bloomBitsPerKey;
+        this.blockSize = blockSize;
+        this.restartInterval = restartInterval;
+        this.codec = codec;
+    }
+
+    /**
+     * Returns the options with the Bloom filter of the given size, 0 disables the filter.
+     */
+    @NotNull
+    public TableOptions withBloomBitsPerKey(final int bitsPerKey) {
+        if (bitsPerKey < 0) {
+            throw new IllegalArgumentException("Bits per key must not be negative");
+        }
+        return new TableOptions(bitsPerKey, blockSize, restartInterval, codec);
+    }
+
+    /**
+     * Returns the options with the Bloom filter sized for the given false positive probability.
+     */
+    @NotNull
+    public TableOptions withBloomFalsePositiveRate(final double falsePositiveRate) {
+        return withBloomBitsPerKey(BloomFilter.bitsPerKey(falsePositiveRate));
+    }
+
+    /**
+     * Returns the options with the given size of the data block after which the next block is started.
+     */
+    @NotNull
+    public TableOptions withBlockSize(final int blockSize) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Block size must be positive");
+        }
+        return new TableOptions(bloomBitsPerKey, blockSize, restartInterval, codec);
+    }
+
+    /**
+     * Returns the options with the given number of keys between the keys stored in full inside a block.
+     */
+    @NotNull
+    public TableOptions withRestartInterval(final int restartInterval) {
+        if (restartInterval <= 0) {
+            throw new IllegalArgumentException("Restart interval must be positive");
+        }
+        return new TableOptions(bloomBitsPerKey, blockSize, restartInterval, codec);
+    }
+
+    /**
+     * Returns the options with the given compression of the data blocks.
+     */
+    @NotNull
+    public TableOptions withCodec(@NotNull final Codec codec) {
+        return new TableOptions(bloomBitsPerKey, blockSize, restartInterval, codec);
+    }
+
+    public int getBloomBitsPerKey() {
+        return bloomBitsPerKey;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public int getRestartInterval() {
+        return restartInterval;
+    }
+
+    @NotNull
+    public Codec getCodec() {
+        return codec;
+    }
+}
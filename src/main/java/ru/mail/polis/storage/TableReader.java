@@ -0,0 +1,47 @@
+package ru.mail.polis.storage;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Reads the rows of one of the {@link SSTable} file formats.
+ */
+interface TableReader {
+    /**
+     * Returns the cursor at the first row which key is not less than the given one.
+     */
+    @NotNull
+    RowCursor cursor(@NotNull ByteBuffer from);
+
+    @NotNull
+    default Iterator<Row> iterator(@NotNull final ByteBuffer from) {
+        return RowCursor.iterator(cursor(from));
+    }
+
+    @Nullable
+    Row get(@NotNull ByteBuffer key);
+
+    /**
+     * Returns the greatest key of the table or null if the table is empty.
+     */
+    @Nullable
+    ByteBuffer lastKey();
+
+    /**
+     * Looks up the keys at the set bits and puts the rows found at the same indexes.
+     *
+     * @param keys   the keys in ascending order
+     * @param wanted the indexes of the keys to look up
+     * @param rows   the rows of the keys
+     */
+    default void getAll(@NotNull final List<ByteBuffer> keys, @NotNull final BitSet wanted, @NotNull final Row[] rows) {
+        for (int i = wanted.nextSetBit(0); i >= 0; i = wanted.nextSetBit(i + 1)) {
+            rows[i] = get(keys.get(i));
+        }
+    }
+}
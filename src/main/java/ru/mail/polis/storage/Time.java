@@ -1,21 +1,60 @@
 package ru.mail.polis.storage;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hybrid logical clock of the timestamps of the values.
+ * A timestamp is the wall clock millis * 1_000_000 plus the logical counter, it is greater than
+ * every timestamp issued or {@link #observe(long) observed} before, so the timestamps never repeat
+ * and the writes which follow the writes of the other nodes are ordered after them even if the clocks are skewed.
+ * The counter spills into the next millis when more than a million timestamps are taken in a millisecond,
+ * the wall clock catches up then.
+ *
+ * <p>The state is a single long: within a millisecond a timestamp is taken by an atomic increment,
+ * which does not retry however many threads write at once, and the state is compared and set
+ * only when the wall clock moves ahead of it.
+ */
 public final class Time {
-    private static long lastTime;
-    private static int additionalTime;
+    private static final long NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+    /**
+     * The observed timestamps which are ahead of the wall clock by more are not followed,
+     * so a node with the broken clock cannot drag the clocks of the others.
+     */
+    private static final long MAX_DRIFT_NANOS = TimeUnit.MINUTES.toNanos(1);
+    private static final AtomicLong LAST = new AtomicLong();
 
     private Time() {
     }
 
     /**
-     * Returns time in nanos.
+     * Returns the timestamp greater than all the ones before, in nanos since the epoch.
      */
     public static long getTimeNanos() {
-        final long currentTime = System.currentTimeMillis();
-        if (currentTime != lastTime) {
-            additionalTime = 0;
-            lastTime = currentTime;
+        final long now = System.currentTimeMillis() * NANOS_PER_MILLI;
+        while (true) {
+            final long current = LAST.get();
+            if (current >= now) {
+                return LAST.incrementAndGet();
+            }
+            if (LAST.compareAndSet(current, now)) {
+                return now;
+            }
+        }
+    }
+
+    /**
+     * Moves the clock to the timestamp taken by another node, so the following timestamps are greater.
+     */
+    public static void observe(final long timestamp) {
+        if (timestamp - System.currentTimeMillis() * NANOS_PER_MILLI > MAX_DRIFT_NANOS) {
+            return;
+        }
+        while (true) {
+            final long current = LAST.get();
+            if (current >= timestamp || LAST.compareAndSet(current, timestamp)) {
+                return;
+            }
         }
-        return currentTime * 1_000_000 + ++additionalTime;
     }
-}
\ No newline at end of file
+}
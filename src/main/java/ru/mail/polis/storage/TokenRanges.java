@@ -0,0 +1,62 @@
+package ru.mail.polis.storage;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Splits the hashes of the keys, called tokens, into the ranges by their upper bounds like the arcs of a ring:
+ * the range of a bound takes the tokens above the previous bound up to this one inclusive,
+ * the tokens above the greatest bound wrap around to the range of the least one.
+ */
+public final class TokenRanges {
+    private static final HashFunction HASH = Hashing.murmur3_32();
+    private final int[] bounds;
+
+    /**
+     * Creates the ranges.
+     *
+     * @param bounds the upper bounds of the ranges in ascending order
+     */
+    public TokenRanges(@NotNull final int[] bounds) {
+        if (bounds.length == 0) {
+            throw new IllegalArgumentException("No ranges");
+        }
+        for (int i = 1; i < bounds.length; i++) {
+            if (bounds[i - 1] >= bounds[i]) {
+                throw new IllegalArgumentException("Bounds are not in ascending order");
+            }
+        }
+        this.bounds = bounds.clone();
+    }
+
+    /**
+     * Returns the token of the key.
+     */
+    public static int token(@NotNull final ByteBuffer key) {
+        return HASH.hashBytes(key.duplicate()).asInt();
+    }
+
+    /**
+     * Returns the index of the range of the key, that is the index of the first bound not less than its token.
+     */
+    public int rangeOf(@NotNull final ByteBuffer key) {
+        final int index = Arrays.binarySearch(bounds, token(key));
+        final int range = index >= 0 ? index : -index - 1;
+        return range == bounds.length ? 0 : range;
+    }
+
+    /**
+     * Returns the upper bound of the range.
+     */
+    public int getBound(final int range) {
+        return bounds[range];
+    }
+
+    public int size() {
+        return bounds.length;
+    }
+}
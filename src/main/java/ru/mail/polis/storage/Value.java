@@ -26,6 +26,22 @@ public final class Value implements Comparable<Value> {
         return new Value(Time.getTimeNanos(), true, EMPTY_BUFFER);
     }
 
+    /**
+     * Returns the value written at the given time, e.g. by another replica.
+     */
+    @NotNull
+    public static Value of(final long timestamp, @NotNull final ByteBuffer data) {
+        return new Value(timestamp, false, data);
+    }
+
+    /**
+     * Returns the tombstone written at the given time, e.g. by another replica.
+     */
+    @NotNull
+    public static Value remove(final long timestamp) {
+        return new Value(timestamp, true, EMPTY_BUFFER);
+    }
+
     public boolean isRemoved() {
         return isTombstone;
     }
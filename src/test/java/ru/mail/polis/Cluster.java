@@ -0,0 +1,121 @@
+package ru.mail.polis;
+
+import one.nio.http.HttpClient;
+import one.nio.net.ConnectionString;
+import org.jetbrains.annotations.NotNull;
+import ru.mail.polis.dao.DAO;
+import ru.mail.polis.dao.DAOFactory;
+import ru.mail.polis.service.Service;
+import ru.mail.polis.service.ServiceFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The nodes of the same topology started in the test JVM, each with its own storage and client.
+ * Closing the cluster stops the nodes and deletes their data.
+ */
+public final class Cluster implements Closeable {
+    private final int[] ports;
+    private final Set<String> topology = new LinkedHashSet<>();
+    private final File[] data;
+    private final DAO[] daos;
+    private final Service[] nodes;
+    private final HttpClient[] clients;
+
+    private Cluster(final int size) {
+        this.ports = new int[size];
+        this.data = new File[size];
+        this.daos = new DAO[size];
+        this.nodes = new Service[size];
+        this.clients = new HttpClient[size];
+    }
+
+    /**
+     * Starts the nodes and waits for them to accept the requests.
+     *
+     * @param size    the number of the nodes
+     * @param timeout the timeout of the client requests
+     */
+    @NotNull
+    public static Cluster start(final int size, @NotNull final Duration timeout) throws Exception {
+        final Cluster cluster = new Cluster(size);
+        for (int i = 0; i < size; i++) {
+            cluster.ports[i] = TestBase.randomPort();
+            cluster.topology.add(TestBase.endpoint(cluster.ports[i]));
+        }
+        for (int i = 0; i < size; i++) {
+            cluster.data[i] = Files.createTempDirectory();
+            cluster.daos[i] = DAOFactory.create(cluster.data[i]);
+            cluster.nodes[i] = ServiceFactory.create(cluster.ports[i], cluster.daos[i], cluster.topology);
+            cluster.nodes[i].start();
+            cluster.clients[i] = new HttpClient(new ConnectionString(
+                    TestBase.endpoint(cluster.ports[i]) + "?timeout=" + timeout.toMillis()));
+        }
+        Thread.sleep(TimeUnit.SECONDS.toMillis(1));
+        return cluster;
+    }
+
+    public int size() {
+        return nodes.length;
+    }
+
+    @NotNull
+    public HttpClient client(final int node) {
+        return clients[node];
+    }
+
+    @NotNull
+    public List<HttpClient> clients() {
+        return Collections.unmodifiableList(Arrays.asList(clients));
+    }
+
+    /**
+     * Returns the storage of the node, it stays open while the node is stopped.
+     */
+    @NotNull
+    public DAO dao(final int node) {
+        return daos[node];
+    }
+
+    @NotNull
+    public List<DAO> daos() {
+        return Collections.unmodifiableList(Arrays.asList(daos));
+    }
+
+    /**
+     * Stops the node, the other nodes keep it in their topology.
+     */
+    public void stop(final int node) {
+        nodes[node].stop();
+        nodes[node] = null;
+    }
+
+    /**
+     * Starts the stopped node again on the same port and storage.
+     */
+    public void restart(final int node) throws IOException {
+        nodes[node] = ServiceFactory.create(ports[node], daos[node], topology);
+        nodes[node].start();
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (int i = 0; i < nodes.length; i++) {
+            clients[i].close();
+            if (nodes[i] != null) {
+                nodes[i].stop();
+            }
+            daos[i].close();
+            Files.recursiveDelete(data[i]);
+        }
+    }
+}
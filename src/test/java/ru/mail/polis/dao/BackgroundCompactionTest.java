@@ -0,0 +1,67 @@
+package ru.mail.polis.dao;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.TestBase;
+import ru.mail.polis.dao.vasekha.DAOOptions;
+import ru.mail.polis.dao.vasekha.MyDAO;
+import ru.mail.polis.dao.vasekha.SizeTieredCompactionStrategy;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that {@link MyDAO} merges the flushed tables without explicit compaction.
+ */
+class BackgroundCompactionTest extends TestBase {
+    private static final int KEYS_COUNT = 100;
+    private static final int VALUE_SIZE = 1024;
+    private static final int ROUNDS = 40;
+
+    @Test
+    void mergesFlushedTables(@TempDir File data) throws IOException {
+        final DAOOptions options = DAOOptions.DEFAULT
+                .withCompactionStrategy(new SizeTieredCompactionStrategy(2, 4, 0.5, 1.5, 1024 * 1024));
+        final ByteBuffer[] values = new ByteBuffer[KEYS_COUNT];
+        try (DAO dao = new MyDAO(data, KEYS_COUNT * VALUE_SIZE / 2, options)) {
+            for (int round = 0; round < ROUNDS; round++) {
+                for (int i = 0; i < KEYS_COUNT; i++) {
+                    if (round == ROUNDS - 1 && i % 2 == 0) {
+                        dao.remove(key(i));
+                        values[i] = null;
+                    } else {
+                        values[i] = randomBuffer(VALUE_SIZE);
+                        dao.upsert(key(i), values[i]);
+                    }
+                }
+            }
+        }
+
+        final int flushes = ROUNDS * 2;
+        final int files = Objects.requireNonNull(data.list()).length;
+        assertTrue(files < flushes / 4, files + " files left after " + flushes + " flushes");
+
+        try (DAO dao = new MyDAO(data, KEYS_COUNT * VALUE_SIZE / 2, options)) {
+            for (int i = 0; i < KEYS_COUNT; i++) {
+                final ByteBuffer key = key(i);
+                if (values[i] == null) {
+                    assertThrows(NoSuchElementException.class, () -> dao.get(key));
+                } else {
+                    assertEquals(values[i], dao.get(key));
+                }
+            }
+        }
+    }
+
+    private static ByteBuffer key(final int i) {
+        return ByteBuffer.wrap(String.format("key%05d", i).getBytes(StandardCharsets.UTF_8));
+    }
+}
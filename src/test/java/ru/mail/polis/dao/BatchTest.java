@@ -0,0 +1,81 @@
+package ru.mail.polis.dao;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.TestBase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the batch lookups and updates of {@link DAO}.
+ */
+class BatchTest extends TestBase {
+    private static final int KEYS_COUNT = 1_000;
+
+    @Test
+    void getAllAcrossTables(@TempDir File data) throws IOException {
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new TreeMap<>();
+        final List<ByteBuffer> keys = new ArrayList<>();
+        for (int i = 0; i < KEYS_COUNT; i++) {
+            keys.add(randomKeyBuffer());
+        }
+        // Every generation updates or removes some of the keys, the last one stays in the memTable
+        for (int generation = 0; generation < 3; generation++) {
+            try (DAO dao = DAOFactory.create(data)) {
+                for (int i = generation; i < KEYS_COUNT; i += 2 + generation) {
+                    final ByteBuffer key = keys.get(i);
+                    if (i % 7 == 0) {
+                        dao.remove(key);
+                        expected.remove(key);
+                    } else {
+                        final ByteBuffer value = randomValueBuffer();
+                        dao.upsert(key, value);
+                        expected.put(key, value);
+                    }
+                }
+                if (generation == 2) {
+                    final List<ByteBuffer> requested = new ArrayList<>(keys);
+                    requested.add(randomKeyBuffer());
+                    assertEquals(expected, dao.getAll(requested));
+                }
+            }
+        }
+        try (DAO dao = DAOFactory.create(data)) {
+            assertEquals(expected, dao.getAll(keys));
+            assertTrue(dao.getAll(new ArrayList<>()).isEmpty());
+        }
+    }
+
+    @Test
+    void upsertAll(@TempDir File data) throws IOException {
+        final Map<ByteBuffer, ByteBuffer> batch = new HashMap<>();
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new TreeMap<>();
+        final ByteBuffer removed = randomKeyBuffer();
+        try (DAO dao = DAOFactory.create(data)) {
+            dao.upsert(removed, randomValueBuffer());
+            for (int i = 0; i < KEYS_COUNT; i++) {
+                final ByteBuffer key = randomKeyBuffer();
+                final ByteBuffer value = randomValueBuffer();
+                batch.put(key, value);
+                expected.put(key, value);
+            }
+            batch.put(removed, null);
+            dao.upsertAll(batch);
+            assertEquals(expected, dao.getAll(batch.keySet()));
+        }
+        try (DAO dao = DAOFactory.create(data)) {
+            assertEquals(expected, dao.getAll(batch.keySet()));
+        }
+    }
+}
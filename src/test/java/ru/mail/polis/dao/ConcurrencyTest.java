@@ -0,0 +1,100 @@
+package ru.mail.polis.dao;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.Record;
+import ru.mail.polis.TestBase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks that {@link DAO} may be used from several threads.
+ */
+class ConcurrencyTest extends TestBase {
+    private static final int THREADS = 4;
+    private static final int OPERATIONS = 50_000;
+    private static final int VALUE_SIZE = 256;
+
+    @Test
+    void concurrentUpsertsAndGets(@TempDir File data) throws Exception {
+        try (DAO dao = DAOFactory.create(data)) {
+            run(dao, THREADS);
+            assertEquals(OPERATIONS / THREADS * THREADS, countRecords(dao));
+        }
+    }
+
+    private static void run(final DAO dao, final int threads) throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final Collection<Callable<Void>> tasks = new ArrayList<>(threads);
+            for (int t = 0; t < threads; t++) {
+                tasks.add(() -> {
+                    for (int i = 0; i < OPERATIONS / threads; i++) {
+                        final ByteBuffer key = randomKeyBuffer();
+                        final ByteBuffer value = randomBuffer(VALUE_SIZE);
+                        dao.upsert(key, value);
+                        assertEquals(value, dao.get(key));
+                    }
+                    return null;
+                });
+            }
+            final List<Future<Void>> futures = executor.invokeAll(tasks);
+            for (final Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void concurrentOverwrites(@TempDir File data) throws Exception {
+        final int threads = Runtime.getRuntime().availableProcessors();
+        final ByteBuffer key = randomKeyBuffer();
+        try (DAO dao = DAOFactory.create(data)) {
+            final ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                final Collection<Callable<Void>> tasks = new ArrayList<>(threads);
+                for (int t = 0; t < threads; t++) {
+                    tasks.add(() -> {
+                        for (int i = 0; i < OPERATIONS / threads; i++) {
+                            dao.upsert(key, randomBuffer(VALUE_SIZE));
+                        }
+                        return null;
+                    });
+                }
+                for (final Future<Void> future : executor.invokeAll(tasks)) {
+                    future.get();
+                }
+            } finally {
+                executor.shutdown();
+            }
+            final ByteBuffer last = dao.get(key);
+            assertEquals(1, countRecords(dao));
+            dao.compact();
+            assertEquals(last, dao.get(key));
+        }
+    }
+
+    private static int countRecords(final DAO dao) throws IOException {
+        int count = 0;
+        final Iterator<Record> iterator = dao.iterator(ByteBuffer.allocate(0));
+        while (iterator.hasNext()) {
+            iterator.next();
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,191 @@
+package ru.mail.polis.dao;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.TestBase;
+import ru.mail.polis.dao.vasekha.DAOOptions;
+import ru.mail.polis.dao.vasekha.MyDAO;
+import ru.mail.polis.storage.Row;
+import ru.mail.polis.storage.SSTable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.NoSuchElementException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that {@link MyDAO} opens the tables listed in its manifest and cleans up the files left by the crashes.
+ */
+class ManifestTest extends TestBase {
+    private static final long FLUSH_THRESHOLD = 1024 * 1024;
+
+    @Test
+    void deletesLeftovers(@TempDir File data) throws IOException {
+        final ByteBuffer key = randomKeyBuffer();
+        final ByteBuffer value = randomValueBuffer();
+        try (DAO dao = new MyDAO(data, FLUSH_THRESHOLD)) {
+            dao.upsert(key, value);
+        }
+        // The table written by the compaction which has not replaced the merged ones
+        final Path unlisted = data.toPath().resolve("0-1.db");
+        SSTable.writeToFile(unlisted, Collections.singletonList(Row.remove(key)).iterator());
+        final Path tmp = data.toPath().resolve("1.tmp");
+        Files.write(tmp, new byte[]{1, 2, 3});
+        final Path hints = data.toPath().resolve("hints");
+        Files.createDirectory(hints);
+
+        try (DAO dao = new MyDAO(data, FLUSH_THRESHOLD)) {
+            assertEquals(value, dao.get(key));
+        }
+        assertFalse(Files.exists(unlisted));
+        assertFalse(Files.exists(tmp));
+        assertTrue(Files.isDirectory(hints));
+    }
+
+    @Test
+    void mergedTablesStayDeleted(@TempDir File data) throws IOException {
+        final ByteBuffer key = randomKeyBuffer();
+        try (DAO dao = new MyDAO(data, FLUSH_THRESHOLD)) {
+            dao.upsert(key, randomValueBuffer());
+        }
+        try (DAO dao = new MyDAO(data, FLUSH_THRESHOLD)) {
+            dao.remove(key);
+        }
+        final Path oldest = data.toPath().resolve("0.db");
+        final byte[] content = Files.readAllBytes(oldest);
+        try (DAO dao = new MyDAO(data, FLUSH_THRESHOLD)) {
+            dao.compact();
+        }
+        assertFalse(Files.exists(oldest));
+
+        // The merged table is back as if the process had stopped before deleting it
+        Files.write(oldest, content);
+        try (DAO dao = new MyDAO(data, FLUSH_THRESHOLD)) {
+            assertThrows(NoSuchElementException.class, () -> dao.get(key));
+        }
+        assertFalse(Files.exists(oldest));
+    }
+
+    @Test
+    void corruptedTableFailsOpen(@TempDir File data) throws IOException {
+        final ByteBuffer key = randomKeyBuffer();
+        final ByteBuffer value = randomValueBuffer();
+        try (DAO dao = new MyDAO(data, FLUSH_THRESHOLD)) {
+            dao.upsert(key, value);
+        }
+        final Path table = data.toPath().resolve("0.db");
+        final byte[] content = Files.readAllBytes(table);
+        Files.write(table, new byte[]{1, 2, 3});
+
+        // The table is neither dropped from the manifest nor deleted however many times the DAO is opened
+        for (int i = 0; i < 2; i++) {
+            assertThrows(IOException.class, () -> new MyDAO(data, FLUSH_THRESHOLD).close());
+            assertTrue(Files.exists(table));
+        }
+        Files.write(table, content);
+        try (DAO dao = new MyDAO(data, FLUSH_THRESHOLD)) {
+            assertEquals(value, dao.get(key));
+        }
+    }
+
+    @Test
+    void retriesFailedFlush(@TempDir File data) throws IOException {
+        final ByteBuffer key = randomKeyBuffer();
+        final ByteBuffer value = randomValueBuffer();
+        try (DAO dao = new MyDAO(data, FLUSH_THRESHOLD)) {
+            dao.upsert(key, value);
+            // The file left by the flush which has failed halfway fails the background flush on close
+            Files.write(data.toPath().resolve("0.tmp"), new byte[]{1, 2, 3});
+        }
+        assertTrue(Files.exists(data.toPath().resolve("0.db")));
+        try (DAO dao = new MyDAO(data, FLUSH_THRESHOLD)) {
+            assertEquals(value, dao.get(key));
+        }
+    }
+
+    @Test
+    void retriesFailedBackgroundFlush(@TempDir File data) throws IOException {
+        final DAOOptions options = DAOOptions.DEFAULT.withMaxFlushingTables(1);
+        final ByteBuffer[] keys = new ByteBuffer[16];
+        final ByteBuffer[] values = new ByteBuffer[keys.length];
+        try (DAO dao = new MyDAO(data, 1, options)) {
+            // The file left by the flush which has failed halfway fails the first flush
+            Files.write(data.toPath().resolve("0.tmp"), new byte[]{1, 2, 3});
+            assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+                for (int i = 0; i < keys.length; i++) {
+                    keys[i] = randomKeyBuffer();
+                    values[i] = randomValueBuffer();
+                    // Every write freezes the memTable, the writers fail instead of waiting for the failed flush
+                    while (true) {
+                        try {
+                            dao.upsert(keys[i], values[i]);
+                            break;
+                        } catch (IOException e) {
+                            Thread.sleep(10);
+                        }
+                    }
+                }
+            });
+            for (int i = 0; i < keys.length; i++) {
+                assertEquals(values[i], dao.get(keys[i]));
+            }
+        }
+        try (DAO dao = new MyDAO(data, FLUSH_THRESHOLD)) {
+            for (int i = 0; i < keys.length; i++) {
+                assertEquals(values[i], dao.get(keys[i]));
+            }
+        }
+    }
+
+    @Test
+    void retriesFailedCompaction(@TempDir File data) throws IOException {
+        final ByteBuffer key = randomKeyBuffer();
+        final ByteBuffer value = randomValueBuffer();
+        try (DAO dao = new MyDAO(data, FLUSH_THRESHOLD)) {
+            dao.upsert(key, randomValueBuffer());
+        }
+        try (DAO dao = new MyDAO(data, FLUSH_THRESHOLD)) {
+            dao.upsert(key, value);
+        }
+        try (DAO dao = new MyDAO(data, FLUSH_THRESHOLD)) {
+            // The file left by the compaction which has failed halfway
+            Files.write(data.toPath().resolve("1.tmp"), new byte[]{1, 2, 3});
+            assertThrows(IOException.class, dao::compact);
+            dao.compact();
+            assertEquals(value, dao.get(key));
+        }
+        assertTrue(Files.exists(data.toPath().resolve("1-1.db")));
+    }
+
+    @Test
+    void reopensManyTables(@TempDir File data) throws IOException {
+        final int tables = 32;
+        final ByteBuffer[] values = new ByteBuffer[tables];
+        for (int i = 0; i < tables; i++) {
+            try (DAO dao = new MyDAO(data, FLUSH_THRESHOLD)) {
+                values[i] = randomValueBuffer();
+                dao.upsert(key(i), values[i]);
+            }
+        }
+        try (DAO dao = new MyDAO(data, FLUSH_THRESHOLD)) {
+            for (int i = 0; i < tables; i++) {
+                assertEquals(values[i], dao.get(key(i)));
+            }
+        }
+    }
+
+    private static ByteBuffer key(final int i) {
+        return ByteBuffer.wrap(("key" + i).getBytes(StandardCharsets.UTF_8));
+    }
+}
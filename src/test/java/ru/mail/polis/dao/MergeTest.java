@@ -0,0 +1,80 @@
+package ru.mail.polis.dao;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.Record;
+import ru.mail.polis.TestBase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the merge of the rows of the tables of several generations by the range scans of {@link DAO}.
+ */
+class MergeTest extends TestBase {
+    private static final int KEYS_COUNT = 300;
+    private static final int GENERATIONS = 5;
+    private static final int SCANS = 20;
+
+    @Test
+    void scansMatchLatestWrites(@TempDir File data) throws IOException {
+        final Random random = new Random(1);
+        final List<ByteBuffer> keys = new ArrayList<>();
+        for (int i = 0; i < KEYS_COUNT; i++) {
+            keys.add(randomKeyBuffer());
+        }
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new TreeMap<>();
+        // Every generation overwrites or removes some of the keys of the older ones, the last one stays in memory
+        for (int generation = 0; generation < GENERATIONS; generation++) {
+            try (DAO dao = DAOFactory.create(data)) {
+                for (int i = 0; i < KEYS_COUNT / 2; i++) {
+                    final ByteBuffer key = keys.get(random.nextInt(KEYS_COUNT));
+                    if (random.nextInt(4) == 0) {
+                        dao.remove(key);
+                        expected.remove(key);
+                    } else {
+                        final ByteBuffer value = randomValueBuffer();
+                        dao.upsert(key, value);
+                        expected.put(key, value);
+                    }
+                }
+                assertScans(dao, expected, keys, random);
+            }
+        }
+        try (DAO dao = DAOFactory.create(data)) {
+            assertScans(dao, expected, keys, random);
+            dao.compact();
+            assertScans(dao, expected, keys, random);
+        }
+    }
+
+    private static void assertScans(
+            final DAO dao,
+            final NavigableMap<ByteBuffer, ByteBuffer> expected,
+            final List<ByteBuffer> keys,
+            final Random random) throws IOException {
+        for (int scan = 0; scan < SCANS; scan++) {
+            final ByteBuffer from = keys.get(random.nextInt(KEYS_COUNT));
+            final Iterator<Record> records = dao.iterator(from);
+            for (final Map.Entry<ByteBuffer, ByteBuffer> entry : expected.tailMap(from, true).entrySet()) {
+                assertTrue(records.hasNext());
+                final Record record = records.next();
+                assertEquals(entry.getKey(), record.getKey());
+                assertEquals(entry.getValue(), record.getValue());
+            }
+            assertFalse(records.hasNext());
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package ru.mail.polis.dao;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.TestBase;
+import ru.mail.polis.dao.vasekha.DAOOptions;
+import ru.mail.polis.dao.vasekha.MyDAO;
+import ru.mail.polis.storage.Row;
+import ru.mail.polis.storage.TokenRanges;
+import ru.mail.polis.storage.Value;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the sums of the digests of the rows by {@link DAO#rangeDigests(TokenRanges)}.
+ */
+class RangeDigestsTest extends TestBase {
+    private static final int KEYS_COUNT = 1_000;
+    private static final TokenRanges RANGES = new TokenRanges(new int[]{-1 << 30, 0, 1 << 30, Integer.MAX_VALUE});
+
+    @Test
+    void shadowedRowsAreNotSummed(@TempDir File data) throws IOException {
+        final List<ByteBuffer> keys = new ArrayList<>();
+        for (int i = 0; i < KEYS_COUNT; i++) {
+            keys.add(randomKeyBuffer());
+        }
+        // Every generation updates or removes some of the keys, the last one stays in the memTable
+        for (int generation = 0; generation < 3; generation++) {
+            try (DAO dao = DAOFactory.create(data)) {
+                for (int i = generation; i < KEYS_COUNT; i += 1 + generation) {
+                    if (i % 5 == 0) {
+                        dao.remove(keys.get(i));
+                    } else {
+                        dao.upsert(keys.get(i), randomValueBuffer());
+                    }
+                }
+                assertArrayEquals(sums(dao), dao.rangeDigests(RANGES));
+                // The sums cached by the tables give the same result
+                assertArrayEquals(sums(dao), dao.rangeDigests(RANGES));
+            }
+        }
+    }
+
+    @Test
+    void sameRowsInDifferentTables(@TempDir File data) throws IOException {
+        final File first = new File(data, "first");
+        final File second = new File(data, "second");
+        assertTrue(first.mkdir() && second.mkdir());
+        final List<ByteBuffer> keys = new ArrayList<>();
+        final List<ByteBuffer> values = new ArrayList<>();
+        for (int i = 0; i < KEYS_COUNT; i++) {
+            keys.add(randomKeyBuffer());
+            values.add(randomValueBuffer());
+        }
+        try (DAO dao = DAOFactory.create(first)) {
+            for (int i = 0; i < KEYS_COUNT; i++) {
+                dao.putValue(keys.get(i), value(i, values.get(i), 2));
+            }
+        }
+        // The other replica has the older rows flushed to the older table
+        try (DAO dao = DAOFactory.create(second)) {
+            for (int i = 0; i < KEYS_COUNT; i++) {
+                dao.putValue(keys.get(i), value(i, randomValueBuffer(), 1));
+            }
+        }
+        try (DAO dao = DAOFactory.create(second)) {
+            for (int i = 0; i < KEYS_COUNT; i += 2) {
+                dao.putValue(keys.get(i), value(i, values.get(i), 2));
+            }
+        }
+        try (DAO dao = DAOFactory.create(second)) {
+            for (int i = 1; i < KEYS_COUNT; i += 2) {
+                dao.putValue(keys.get(i), value(i, values.get(i), 2));
+            }
+            try (DAO other = DAOFactory.create(first)) {
+                assertArrayEquals(other.rangeDigests(RANGES), dao.rangeDigests(RANGES));
+                dao.putValue(keys.get(0), Value.of(3, randomValueBuffer()));
+                assertFalse(Arrays.equals(other.rangeDigests(RANGES), dao.rangeDigests(RANGES)));
+            }
+        }
+    }
+
+    @Test
+    void olderRowsInNewerTablesLose(@TempDir File data) throws IOException {
+        final List<ByteBuffer> keys = new ArrayList<>();
+        final List<ByteBuffer> values = new ArrayList<>();
+        for (int i = 0; i < KEYS_COUNT; i++) {
+            keys.add(randomKeyBuffer());
+            values.add(randomValueBuffer());
+        }
+        try (DAO dao = DAOFactory.create(data)) {
+            for (int i = 0; i < KEYS_COUNT; i++) {
+                dao.putValue(keys.get(i), value(i, values.get(i), 2));
+            }
+        }
+        // The rows of the other nodes delivered late get into the newer table and the memTable
+        for (int round = 0; round < 2; round++) {
+            try (DAO dao = DAOFactory.create(data)) {
+                for (int i = 0; i < KEYS_COUNT; i++) {
+                    dao.putValue(keys.get(i), Value.of(1, randomValueBuffer()));
+                }
+                final Map<ByteBuffer, ByteBuffer> all = dao.getAll(keys);
+                for (int i = 0; i < KEYS_COUNT; i++) {
+                    final Value value = dao.getValue(keys.get(i));
+                    assertEquals(2, value.getTimestamp());
+                    assertEquals(i % 3 == 0 ? Value.EMPTY_BUFFER : values.get(i), value.getData());
+                    assertEquals(i % 3 == 0 ? null : values.get(i), all.get(keys.get(i)));
+                }
+                assertArrayEquals(sums(dao), dao.rangeDigests(RANGES));
+            }
+        }
+    }
+
+    @Test
+    void cachedSumsFollowFlushesAndCompactions(@TempDir File data) throws IOException {
+        final List<ByteBuffer> keys = new ArrayList<>();
+        for (int i = 0; i < KEYS_COUNT; i++) {
+            keys.add(randomKeyBuffer());
+        }
+        // The small memTables are flushed while the same DAO keeps the sums of the older tables,
+        // the background compactions would drop the tombstones between the compared sums
+        final DAOOptions options = DAOOptions.DEFAULT.withCompactionStrategy(ssTables -> null);
+        try (DAO dao = new MyDAO(data, 64 * 1024, options)) {
+            for (int round = 0; round < 10; round++) {
+                for (int i = round; i < KEYS_COUNT; i += 1 + round) {
+                    // The even rounds write the rows older than the ones of the previous round
+                    final long timestamp = round % 2 == 0 ? round + 1 : round + 10;
+                    dao.putValue(keys.get(i), value(i + round, randomValueBuffer(), timestamp));
+                }
+                assertArrayEquals(sums(dao), dao.rangeDigests(RANGES));
+            }
+            dao.compact();
+            assertArrayEquals(sums(dao), dao.rangeDigests(RANGES));
+        }
+    }
+
+    @Test
+    void rowsOfRanges(@TempDir File data) throws IOException {
+        final List<ByteBuffer> keys = new ArrayList<>();
+        for (int i = 0; i < KEYS_COUNT; i++) {
+            keys.add(randomKeyBuffer());
+        }
+        for (int generation = 0; generation < 3; generation++) {
+            try (DAO dao = DAOFactory.create(data)) {
+                for (int i = generation; i < KEYS_COUNT; i += 1 + generation) {
+                    dao.putValue(keys.get(i), value(i, randomValueBuffer(), generation + 1));
+                }
+            }
+        }
+        final BitSet wanted = new BitSet();
+        wanted.set(1);
+        wanted.set(3);
+        try (DAO dao = DAOFactory.create(data)) {
+            final Iterator<Row> all = dao.rowIterator(Value.EMPTY_BUFFER);
+            final Iterator<Row> ranged = dao.rowIterator(RANGES, wanted);
+            while (all.hasNext()) {
+                final Row row = all.next();
+                if (wanted.get(RANGES.rangeOf(row.getKey()))) {
+                    final Row next = ranged.next();
+                    assertEquals(row.getKey(), next.getKey());
+                    assertEquals(row.getDigest(), next.getDigest());
+                }
+            }
+            assertFalse(ranged.hasNext());
+        }
+    }
+
+    private static Value value(final int i, final ByteBuffer data, final long timestamp) {
+        return i % 3 == 0 ? Value.remove(timestamp) : Value.of(timestamp, data);
+    }
+
+    private static long[] sums(final DAO dao) throws IOException {
+        final long[] sums = new long[RANGES.size()];
+        final Iterator<Row> rows = dao.rowIterator(Value.EMPTY_BUFFER);
+        while (rows.hasNext()) {
+            final Row row = rows.next();
+            sums[RANGES.rangeOf(row.getKey())] += row.getDigest();
+        }
+        return sums;
+    }
+}
@@ -0,0 +1,62 @@
+package ru.mail.polis.dao;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.TestBase;
+import ru.mail.polis.dao.vasekha.DAOOptions;
+import ru.mail.polis.dao.vasekha.MyDAO;
+import ru.mail.polis.storage.Value;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that the compactions keep the tombstones until the older rows of their keys cannot arrive any more.
+ */
+class TombstoneTest extends TestBase {
+    private static final long FLUSH_THRESHOLD = 1024 * 1024;
+
+    @Test
+    void olderWritesStayRemovedAfterCompaction(@TempDir File data) throws IOException {
+        final ByteBuffer key = randomKeyBuffer();
+        try (DAO dao = new MyDAO(data, FLUSH_THRESHOLD)) {
+            dao.upsert(key, randomValueBuffer());
+            dao.remove(key);
+        }
+        final long removed;
+        try (DAO dao = new MyDAO(data, FLUSH_THRESHOLD)) {
+            dao.compact();
+            final Value tombstone = dao.getValue(key);
+            assertTrue(tombstone != null && tombstone.isRemoved());
+            removed = tombstone.getTimestamp();
+            // The write of another replica delivered late by a hint or a repair
+            dao.putValue(key, Value.of(removed - 10, randomValueBuffer()));
+            assertThrows(NoSuchElementException.class, () -> dao.get(key));
+            dao.compact();
+            assertThrows(NoSuchElementException.class, () -> dao.get(key));
+        }
+        try (DAO dao = new MyDAO(data, FLUSH_THRESHOLD)) {
+            assertThrows(NoSuchElementException.class, () -> dao.get(key));
+        }
+    }
+
+    @Test
+    void expiredTombstonesAreDropped(@TempDir File data) throws Exception {
+        final DAOOptions options = DAOOptions.DEFAULT.withTombstoneGracePeriodMillis(0);
+        final ByteBuffer key = randomKeyBuffer();
+        try (DAO dao = new MyDAO(data, FLUSH_THRESHOLD, options)) {
+            dao.upsert(key, randomValueBuffer());
+            dao.remove(key);
+            // The tombstone is older than the grace period once the clock moves on
+            Thread.sleep(2);
+            dao.compact();
+            assertNull(dao.getValue(key));
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package ru.mail.polis.load;
+
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.TestBase;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the keys, the operations and the values picked by the {@link LoadGenerator}.
+ */
+class DistributionsTest extends TestBase {
+    private static final int KEYS = 10_000;
+    private static final int SAMPLES = 100_000;
+
+    @Test
+    void zipfianRanksAreSkewed() {
+        final Zipfian zipfian = new Zipfian(KEYS, 0.99);
+        final Random random = new Random(1);
+        final int[] counts = new int[KEYS];
+        for (int i = 0; i < SAMPLES; i++) {
+            counts[(int) zipfian.next(random)]++;
+        }
+        // The rank 0 takes about 1 / zeta(10000) of the samples, i.e. about a tenth
+        assertTrue(counts[0] > SAMPLES / 20, "Rank 0 is picked " + counts[0] + " times");
+        assertTrue(counts[0] > counts[1] && counts[1] > counts[10] && counts[10] > counts[1000]);
+    }
+
+    @Test
+    void keysAreInRange() {
+        final Random random = new Random(2);
+        for (final String name : new String[]{"uniform", "zipfian", "latest"}) {
+            final KeyDistribution distribution = KeyDistribution.of(name, KEYS, 0.99);
+            for (int i = 0; i < SAMPLES; i++) {
+                final long key = distribution.next(random, KEYS + i % 2);
+                assertTrue(key >= 0 && key < KEYS + i % 2, name + " picked " + key);
+            }
+        }
+    }
+
+    @Test
+    void latestPicksNewestKeys() {
+        final KeyDistribution latest = KeyDistribution.of("latest", KEYS, 0.99);
+        assertTrue(latest.isAppending());
+        final Random random = new Random(3);
+        int newest = 0;
+        for (int i = 0; i < SAMPLES; i++) {
+            if (latest.next(random, KEYS * 2) >= KEYS * 2 - 10) {
+                newest++;
+            }
+        }
+        assertTrue(newest > SAMPLES / 4, "The newest keys are picked " + newest + " times");
+    }
+
+    @Test
+    void mixFollowsWeights() {
+        final OperationMix mix = OperationMix.parse("get=80,put=20,delete=0");
+        final Random random = new Random(4);
+        int gets = 0;
+        for (int i = 0; i < SAMPLES; i++) {
+            final OperationMix.Operation operation = mix.next(random);
+            assertTrue(operation != OperationMix.Operation.DELETE);
+            if (operation == OperationMix.Operation.GET) {
+                gets++;
+            }
+        }
+        assertEquals(0.8, (double) gets / SAMPLES, 0.01);
+    }
+
+    @Test
+    void invalidParameters() {
+        assertThrows(IllegalArgumentException.class, () -> OperationMix.parse("get"));
+        assertThrows(IllegalArgumentException.class, () -> OperationMix.parse("get=0"));
+        assertThrows(IllegalArgumentException.class, () -> OperationMix.parse("scan=1"));
+        assertThrows(IllegalArgumentException.class, () -> ValueSize.parse("10..1"));
+        assertThrows(IllegalArgumentException.class, () -> KeyDistribution.of("hotspot", KEYS, 0.99));
+        assertThrows(IllegalArgumentException.class, () -> KeyDistribution.of("zipfian", KEYS, 1));
+    }
+
+    @Test
+    void latencyQuantiles() {
+        final Latencies first = new Latencies();
+        final Latencies second = new Latencies();
+        for (int i = 1; i <= 1000; i++) {
+            (i % 2 == 0 ? first : second).record(1001 - i);
+        }
+        first.addAll(second);
+        assertEquals(1000, first.getCount());
+        assertEquals(500, first.getValueAtQuantile(0.5));
+        assertEquals(990, first.getValueAtQuantile(0.99));
+        assertEquals(1000, first.getValueAtQuantile(1));
+        assertEquals(1, first.getValueAtQuantile(0));
+    }
+}
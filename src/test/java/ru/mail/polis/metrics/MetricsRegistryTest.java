@@ -0,0 +1,109 @@
+package ru.mail.polis.metrics;
+
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.TestBase;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the buckets of {@link Histogram} and the text exposed by {@link MetricsRegistry}.
+ */
+class MetricsRegistryTest extends TestBase {
+    @Test
+    void bucketBounds() {
+        long previous = -1;
+        for (int i = 0; i < Histogram.BUCKETS; i++) {
+            final long bound = Histogram.upperBound(i);
+            assertTrue(bound > previous);
+            assertEquals(i, Histogram.index(bound));
+            assertEquals(i, Histogram.index(previous + 1));
+            previous = bound;
+        }
+        assertEquals(Long.MAX_VALUE, previous);
+        for (int i = 0; i < 10_000; i++) {
+            final long value = ThreadLocalRandom.current().nextLong(Long.MAX_VALUE);
+            final long bound = Histogram.upperBound(Histogram.index(value));
+            assertTrue(bound >= value && bound - value <= value / Histogram.SUB_BUCKETS);
+        }
+    }
+
+    @Test
+    void quantiles() {
+        final Histogram histogram = new MetricsRegistry().histogram("latency", "Latency", 1);
+        assertEquals(0, histogram.getValueAtQuantile(0.5));
+        for (int i = 1; i <= 1_000; i++) {
+            histogram.record(i);
+        }
+        histogram.record(-1);
+        assertEquals(1_001, histogram.getCount());
+        assertEquals(500_500, histogram.getSum());
+        final long median = histogram.getValueAtQuantile(0.5);
+        assertTrue(median >= 500 && median <= 500 * 5 / 4, "Median " + median);
+        final long max = histogram.getValueAtQuantile(1);
+        assertTrue(max >= 1_000 && max <= 1_000 * 5 / 4, "Max " + max);
+    }
+
+    @Test
+    void quantileAccuracy() {
+        final Histogram histogram = new MetricsRegistry().histogram("latency", "Latency", 1);
+        final long[] values = new long[100_000];
+        for (int i = 0; i < values.length; i++) {
+            // Spread over many powers of two as the latencies in nanoseconds are
+            values[i] = (long) Math.exp(ThreadLocalRandom.current().nextDouble(Math.log(1e9)));
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        for (final double quantile : new double[]{0, 0.1, 0.5, 0.9, 0.99, 0.999, 1}) {
+            final long exact = values[Math.max(0, (int) Math.ceil(quantile * values.length) - 1)];
+            final long value = histogram.getValueAtQuantile(quantile);
+            // Within about 3% of the exact value
+            assertTrue(value >= exact && value - exact <= exact / 32,
+                    "Quantile " + quantile + ": " + value + " instead of " + exact);
+        }
+    }
+
+    @Test
+    void prometheusText() {
+        final MetricsRegistry registry = new MetricsRegistry();
+        final Histogram get = registry.histogram("request_seconds", "Requests", 1e-3, "method", "GET");
+        registry.histogram("request_seconds", "Requests", 1e-3, "method", "PUT").record(1);
+        get.record(2);
+        get.record(3);
+        registry.gauge("queue", "Queue \"size\"", () -> 5);
+        registry.gauge("open_seconds", "Open", 1e-9, () -> 1_500_000_000L);
+        registry.counter("rejected_total", "Rejected", () -> 7, "node", "a\"b");
+        final StringBuilder out = new StringBuilder();
+        registry.scrape(out);
+        assertEquals("# HELP open_seconds Open\n"
+                        + "# TYPE open_seconds gauge\n"
+                        + "open_seconds 1.5\n"
+                        + "# HELP queue Queue \"size\"\n"
+                        + "# TYPE queue gauge\n"
+                        + "queue 5\n"
+                        + "# HELP rejected_total Rejected\n"
+                        + "# TYPE rejected_total counter\n"
+                        + "rejected_total{node=\"a\\\"b\"} 7\n"
+                        + "# HELP request_seconds Requests\n"
+                        + "# TYPE request_seconds histogram\n"
+                        + "request_seconds_bucket{method=\"GET\",le=\"0.0\"} 0\n"
+                        + "request_seconds_bucket{method=\"GET\",le=\"0.001\"} 0\n"
+                        + "request_seconds_bucket{method=\"GET\",le=\"0.002\"} 1\n"
+                        + "request_seconds_bucket{method=\"GET\",le=\"0.003\"} 2\n"
+                        + "request_seconds_bucket{method=\"GET\",le=\"+Inf\"} 2\n"
+                        + "request_seconds_sum{method=\"GET\"} 0.005\n"
+                        + "request_seconds_count{method=\"GET\"} 2\n"
+                        + "request_seconds_bucket{method=\"PUT\",le=\"0.0\"} 0\n"
+                        + "request_seconds_bucket{method=\"PUT\",le=\"0.001\"} 1\n"
+                        + "request_seconds_bucket{method=\"PUT\",le=\"+Inf\"} 1\n"
+                        + "request_seconds_sum{method=\"PUT\"} 0.001\n"
+                        + "request_seconds_count{method=\"PUT\"} 1\n",
+                out.toString());
+        assertThrows(IllegalArgumentException.class, () -> registry.gauge("request_seconds", "Requests", () -> 1));
+        assertThrows(IllegalArgumentException.class, () -> registry.histogram("odd", "Odd", 1, "method"));
+    }
+}
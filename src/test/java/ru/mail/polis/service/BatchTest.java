@@ -0,0 +1,107 @@
+package ru.mail.polis.service;
+
+import one.nio.http.HttpClient;
+import one.nio.http.Response;
+import one.nio.net.ConnectionString;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.Files;
+import ru.mail.polis.TestBase;
+import ru.mail.polis.dao.DAO;
+import ru.mail.polis.dao.DAOFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+/**
+ * Checks the batch requests of a single node.
+ */
+class BatchTest extends TestBase {
+    private static final Duration TIMEOUT = Duration.ofMinutes(1);
+    private static File data;
+    private static DAO dao;
+    private static Service storage;
+    private static HttpClient client;
+
+    @BeforeAll
+    static void beforeAll() throws Exception {
+        final int port = randomPort();
+        data = Files.createTempDirectory();
+        dao = DAOFactory.create(data);
+        storage = ServiceFactory.create(port, dao);
+        storage.start();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(1));
+        client = new HttpClient(new ConnectionString("http://localhost:" + port + "?timeout=" + TIMEOUT.toMillis()));
+    }
+
+    @AfterAll
+    static void afterAll() throws IOException {
+        client.close();
+        storage.stop();
+        dao.close();
+        Files.recursiveDelete(data);
+    }
+
+    @Test
+    void malformed() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            assertEquals(400, client.post("/v0/batch", new byte[]{0, 0, 0, 5, 1}).getStatus());
+            assertEquals(400, client.put("/v0/batch", new byte[]{0, 0, 0, 1, 1}).getStatus());
+            assertEquals(405, client.get("/v0/batch").getStatus());
+        });
+    }
+
+    @Test
+    void putAndGet() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            final List<byte[]> keys = new ArrayList<>();
+            final List<byte[]> values = new ArrayList<>();
+            final ByteBuffer updates = ByteBuffer.allocate(64 * 1024);
+            for (int i = 0; i < 100; i++) {
+                final byte[] key = ("batch" + i).getBytes(StandardCharsets.UTF_8);
+                final byte[] value = randomValue();
+                keys.add(key);
+                values.add(value);
+                updates.putInt(key.length).put(key).putInt(value.length).put(value);
+            }
+            final byte[] removed = "batch-removed".getBytes(StandardCharsets.UTF_8);
+            assertEquals(201, client.put("/v0/entity?id=batch-removed", randomValue()).getStatus());
+            updates.putInt(removed.length).put(removed).putInt(-1);
+            assertEquals(201, client.put("/v0/batch", body(updates)).getStatus());
+
+            keys.add(removed);
+            values.add(null);
+            final ByteBuffer lookups = ByteBuffer.allocate(64 * 1024);
+            final ByteBuffer expected = ByteBuffer.allocate(64 * 1024);
+            // Reversed order, the values must follow the order of the keys
+            for (int i = keys.size() - 1; i >= 0; i--) {
+                lookups.putInt(keys.get(i).length).put(keys.get(i));
+                if (values.get(i) == null) {
+                    expected.putInt(-1);
+                } else {
+                    expected.putInt(values.get(i).length).put(values.get(i));
+                }
+            }
+            final Response response = client.post("/v0/batch", body(lookups));
+            assertEquals(200, response.getStatus());
+            assertArrayEquals(body(expected), response.getBody());
+        });
+    }
+
+    private static byte[] body(final ByteBuffer buffer) {
+        final byte[] result = new byte[buffer.position()];
+        buffer.flip().get(result);
+        return result;
+    }
+}
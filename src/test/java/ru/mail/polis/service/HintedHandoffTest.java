@@ -0,0 +1,82 @@
+package ru.mail.polis.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.Cluster;
+import ru.mail.polis.TestBase;
+import ru.mail.polis.dao.DAO;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.NoSuchElementException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+/**
+ * Checks that the writes missed by the stopped node reach it once it is started again.
+ */
+class HintedHandoffTest extends TestBase {
+    private static final Duration TIMEOUT = Duration.ofMinutes(1);
+    private static final int NODES = 3;
+    private static final int KEYS = 50;
+    private Cluster cluster;
+
+    @BeforeEach
+    void beforeEach() throws Exception {
+        cluster = Cluster.start(NODES, TIMEOUT);
+    }
+
+    @AfterEach
+    void afterEach() throws IOException {
+        cluster.close();
+    }
+
+    @Test
+    void missedWritesAreDelivered() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            // Every node is a replica of every key with the default replicas of three nodes
+            for (int i = 0; i < KEYS; i++) {
+                assertEquals(201, cluster.client(0).put("/v0/entity?id=removed" + i, randomValue()).getStatus());
+            }
+            cluster.stop(2);
+            final byte[][] values = new byte[KEYS][];
+            for (int i = 0; i < KEYS; i++) {
+                values[i] = randomValue();
+                assertEquals(201, cluster.client(i % 2).put("/v0/entity?id=hinted" + i, values[i]).getStatus());
+                assertEquals(202, cluster.client(i % 2).delete("/v0/entity?id=removed" + i).getStatus());
+            }
+            cluster.restart(2);
+
+            for (int i = 0; i < KEYS; i++) {
+                final ByteBuffer key = key("hinted" + i);
+                while (!contains(cluster.dao(2), key)) {
+                    Thread.sleep(100);
+                }
+                assertEquals(ByteBuffer.wrap(values[i]), cluster.dao(2).get(key));
+                final ByteBuffer removed = key("removed" + i);
+                while (!cluster.dao(2).getValue(removed).isRemoved()) {
+                    Thread.sleep(100);
+                }
+                assertThrows(NoSuchElementException.class, () -> cluster.dao(2).get(removed));
+            }
+        });
+    }
+
+    private static ByteBuffer key(final String id) {
+        return ByteBuffer.wrap(id.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static boolean contains(final DAO dao, final ByteBuffer key) throws IOException {
+        try {
+            dao.get(key);
+            return true;
+        } catch (NoSuchElementException e) {
+            return false;
+        }
+    }
+}
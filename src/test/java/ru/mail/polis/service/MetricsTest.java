@@ -0,0 +1,72 @@
+package ru.mail.polis.service;
+
+import one.nio.http.HttpClient;
+import one.nio.http.Response;
+import one.nio.net.ConnectionString;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.Files;
+import ru.mail.polis.TestBase;
+import ru.mail.polis.dao.DAO;
+import ru.mail.polis.dao.DAOFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the metrics exposed by the node.
+ */
+class MetricsTest extends TestBase {
+    private static final Duration TIMEOUT = Duration.ofMinutes(1);
+    private File data;
+    private DAO dao;
+    private Service storage;
+    private HttpClient client;
+
+    @BeforeEach
+    void beforeEach() throws Exception {
+        final int port = randomPort();
+        data = Files.createTempDirectory();
+        dao = DAOFactory.create(data);
+        storage = ServiceFactory.create(port, dao);
+        storage.start();
+        client = new HttpClient(new ConnectionString(endpoint(port) + "?timeout=" + TIMEOUT.toMillis()));
+        Thread.sleep(TimeUnit.SECONDS.toMillis(1));
+    }
+
+    @AfterEach
+    void afterEach() throws IOException {
+        client.close();
+        storage.stop();
+        dao.close();
+        Files.recursiveDelete(data);
+    }
+
+    @Test
+    void requestsAreCounted() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            for (int i = 0; i < 3; i++) {
+                assertEquals(201, client.put("/v0/entity?id=metrics" + i, randomValue()).getStatus());
+            }
+            assertEquals(200, client.get("/v0/entity?id=metrics0").getStatus());
+            final Response response = client.get("/v0/metrics");
+            assertEquals(200, response.getStatus());
+            final String text = new String(response.getBody(), StandardCharsets.UTF_8);
+            assertTrue(text.contains("# TYPE http_request_duration_seconds histogram\n"), text);
+            assertTrue(text.contains("http_request_duration_seconds_count{method=\"PUT\"} 3\n"), text);
+            assertTrue(text.contains("http_request_duration_seconds_count{method=\"GET\"} 1\n"), text);
+            assertTrue(text.contains("http_request_duration_seconds_count{method=\"DELETE\"} 0\n"), text);
+            assertTrue(text.contains("dao_sstables_probed_count 1\n"), text);
+            assertTrue(text.contains("\ndao_sstables 0\n"), text);
+            assertEquals(405, client.delete("/v0/metrics").getStatus());
+        });
+    }
+}
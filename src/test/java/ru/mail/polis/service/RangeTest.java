@@ -0,0 +1,100 @@
+package ru.mail.polis.service;
+
+import one.nio.http.HttpClient;
+import one.nio.http.Response;
+import one.nio.net.ConnectionString;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.Files;
+import ru.mail.polis.TestBase;
+import ru.mail.polis.dao.DAO;
+import ru.mail.polis.dao.DAOFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+/**
+ * Checks the streaming range requests of a single node.
+ */
+class RangeTest extends TestBase {
+    private static final Duration TIMEOUT = Duration.ofMinutes(1);
+    private static File data;
+    private static DAO dao;
+    private static Service storage;
+    private static HttpClient client;
+
+    @BeforeAll
+    static void beforeAll() throws Exception {
+        final int port = randomPort();
+        data = Files.createTempDirectory();
+        dao = DAOFactory.create(data);
+        storage = ServiceFactory.create(port, dao);
+        storage.start();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(1));
+        client = new HttpClient(new ConnectionString("http://localhost:" + port + "?timeout=" + TIMEOUT.toMillis()));
+    }
+
+    @AfterAll
+    static void afterAll() throws IOException {
+        client.close();
+        storage.stop();
+        dao.close();
+        Files.recursiveDelete(data);
+    }
+
+    @Test
+    void badRange() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            assertEquals(400, client.get("/v0/entities").getStatus());
+            assertEquals(400, client.get("/v0/entities?start=").getStatus());
+            assertEquals(400, client.get("/v0/entities?start=a&end=").getStatus());
+        });
+    }
+
+    @Test
+    void range() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            // Enough records for many chunks
+            final NavigableMap<String, byte[]> expected = new TreeMap<>();
+            for (int i = 0; i < 500; i++) {
+                final String key = String.format("range%04d", i);
+                final byte[] value = randomValue();
+                expected.put(key, value);
+                assertEquals(201, client.put("/v0/entity?id=" + key, value).getStatus());
+            }
+            assertEquals(201, client.put("/v0/entity?id=range0100", new byte[0]).getStatus());
+            expected.put("range0100", new byte[0]);
+            assertEquals(202, client.delete("/v0/entity?id=range0101").getStatus());
+            expected.remove("range0101");
+
+            assertRange(expected.subMap("range0050", "range0450"), "/v0/entities?start=range0050&end=range0450");
+            assertRange(expected.tailMap("range0300"), "/v0/entities?start=range0300");
+            assertRange(new TreeMap<>(), "/v0/entities?start=range0450&end=range0050");
+        });
+    }
+
+    private static void assertRange(final Map<String, byte[]> expected, final String path) throws Exception {
+        final Response response = client.get(path);
+        assertEquals(200, response.getStatus());
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (final Map.Entry<String, byte[]> entry : expected.entrySet()) {
+            body.write(entry.getKey().getBytes(StandardCharsets.UTF_8));
+            body.write('\n');
+            body.write(entry.getValue());
+            body.write('\n');
+        }
+        assertArrayEquals(body.toByteArray(), response.getBody());
+    }
+}
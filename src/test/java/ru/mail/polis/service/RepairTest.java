@@ -0,0 +1,78 @@
+package ru.mail.polis.service;
+
+import one.nio.http.HttpClient;
+import one.nio.http.Response;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.Cluster;
+import ru.mail.polis.TestBase;
+import ru.mail.polis.dao.DAO;
+import ru.mail.polis.storage.Value;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+/**
+ * Checks that the replicas converge after the anti-entropy repair.
+ */
+class RepairTest extends TestBase {
+    private static final Duration TIMEOUT = Duration.ofMinutes(1);
+    private static final int NODES = 3;
+    private static final int KEYS = 50;
+    private Cluster cluster;
+
+    @BeforeEach
+    void beforeEach() throws Exception {
+        cluster = Cluster.start(NODES, TIMEOUT);
+    }
+
+    @AfterEach
+    void afterEach() throws IOException {
+        cluster.close();
+    }
+
+    @Test
+    void replicasConverge() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            for (int i = 0; i < KEYS; i++) {
+                final String uri = "/v0/entity?id=repaired" + i;
+                assertEquals(201, cluster.client(i % NODES).put(uri + "&replicas=3/3", randomValue()).getStatus());
+                // Only the owner of the key gets the update
+                if (i % 3 == 0) {
+                    assertEquals(202, cluster.client((i + 1) % NODES).delete(uri + "&replicas=1/1").getStatus());
+                } else {
+                    final HttpClient client = cluster.client((i + 1) % NODES);
+                    assertEquals(201, client.put(uri + "&replicas=1/1", randomValue()).getStatus());
+                }
+            }
+            for (final HttpClient client : cluster.clients()) {
+                assertEquals(200, client.post("/v0/repair", new byte[0]).getStatus());
+            }
+            for (int i = 0; i < KEYS; i++) {
+                final ByteBuffer key = ByteBuffer.wrap(("repaired" + i).getBytes(StandardCharsets.UTF_8));
+                final Value expected = cluster.dao(0).getValue(key);
+                assertNotNull(expected);
+                assertEquals(i % 3 == 0, expected.isRemoved());
+                for (final DAO dao : cluster.daos()) {
+                    final Value value = dao.getValue(key);
+                    assertNotNull(value);
+                    assertEquals(expected.getTimestamp(), value.getTimestamp());
+                    assertEquals(expected.getData(), value.getData());
+                }
+            }
+            // Nothing differs any more
+            for (final HttpClient client : cluster.clients()) {
+                final Response response = client.post("/v0/repair", new byte[0]);
+                assertEquals(200, response.getStatus());
+                assertEquals("0", new String(response.getBody(), StandardCharsets.UTF_8));
+            }
+        });
+    }
+}
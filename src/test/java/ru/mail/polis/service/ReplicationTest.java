@@ -0,0 +1,163 @@
+package ru.mail.polis.service;
+
+import one.nio.http.HttpClient;
+import one.nio.http.Response;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.Cluster;
+import ru.mail.polis.TestBase;
+import ru.mail.polis.dao.DAO;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+/**
+ * Checks the quorum requests to the replicated keys.
+ */
+class ReplicationTest extends TestBase {
+    private static final Duration TIMEOUT = Duration.ofMinutes(1);
+    private static final int NODES = 3;
+    private static final int KEYS = 20;
+    private Cluster cluster;
+
+    @BeforeEach
+    void beforeEach() throws Exception {
+        cluster = Cluster.start(NODES, TIMEOUT);
+    }
+
+    @AfterEach
+    void afterEach() throws IOException {
+        cluster.close();
+    }
+
+    @Test
+    void invalidReplicas() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            assertEquals(400, cluster.client(0).get("/v0/entity?id=key&replicas=0/1").getStatus());
+            assertEquals(400, cluster.client(0).get("/v0/entity?id=key&replicas=2/1").getStatus());
+            assertEquals(400, cluster.client(0).get("/v0/entity?id=key&replicas=1/4").getStatus());
+            assertEquals(400, cluster.client(0).get("/v0/entity?id=key&replicas=1").getStatus());
+        });
+    }
+
+    @Test
+    void newestValueWins() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            for (int i = 0; i < KEYS; i++) {
+                final String uri = "/v0/entity?id=newest" + i;
+                assertEquals(201, cluster.client(i % NODES).put(uri + "&replicas=3/3", randomValue()).getStatus());
+                // Only the owner of the key gets the new value
+                final byte[] value = randomValue();
+                assertEquals(201, cluster.client((i + 1) % NODES).put(uri + "&replicas=1/1", value).getStatus());
+                for (final HttpClient client : cluster.clients()) {
+                    assertArrayEquals(value, client.get(uri + "&replicas=3/3").getBody());
+                }
+            }
+        });
+    }
+
+    @Test
+    void tombstoneWins() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            for (int i = 0; i < KEYS; i++) {
+                final String uri = "/v0/entity?id=tombstone" + i;
+                assertEquals(201, cluster.client(i % NODES).put(uri + "&replicas=3/3", randomValue()).getStatus());
+                assertEquals(202, cluster.client((i + 1) % NODES).delete(uri + "&replicas=1/1").getStatus());
+                for (final HttpClient client : cluster.clients()) {
+                    assertEquals(404, client.get(uri + "&replicas=3/3").getStatus());
+                }
+            }
+        });
+    }
+
+    @Test
+    void unavailableReplica() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            cluster.stop(2);
+            for (int i = 0; i < KEYS; i++) {
+                final String uri = "/v0/entity?id=unavailable" + i;
+                final byte[] value = randomValue();
+                assertEquals(201, cluster.client(0).put(uri + "&replicas=2/3", value).getStatus());
+                assertArrayEquals(value, cluster.client(1).get(uri + "&replicas=2/3").getBody());
+                assertEquals(504, cluster.client(1).get(uri + "&replicas=3/3").getStatus());
+                assertEquals(504, cluster.client(0).put(uri + "&replicas=3/3", value).getStatus());
+            }
+        });
+    }
+
+    @Test
+    void batchIsReplicated() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            final ByteBuffer updates = ByteBuffer.allocate(64 * 1024);
+            final byte[][] values = new byte[KEYS][];
+            for (int i = 0; i < KEYS; i++) {
+                final byte[] key = ("batch" + i).getBytes(StandardCharsets.UTF_8);
+                values[i] = randomValue();
+                updates.putInt(key.length).put(key).putInt(values[i].length).put(values[i]);
+            }
+            final byte[] body = new byte[updates.position()];
+            updates.flip().get(body);
+            assertEquals(201, cluster.client(0).put("/v0/batch?replicas=3/3", body).getStatus());
+            for (final DAO dao : cluster.daos()) {
+                for (int i = 0; i < KEYS; i++) {
+                    final ByteBuffer key = ByteBuffer.wrap(("batch" + i).getBytes(StandardCharsets.UTF_8));
+                    assertEquals(ByteBuffer.wrap(values[i]), dao.get(key));
+                }
+            }
+
+            cluster.stop(2);
+            assertEquals(201, cluster.client(0).put("/v0/batch?replicas=2/3", body).getStatus());
+            assertEquals(504, cluster.client(0).put("/v0/batch?replicas=3/3", body).getStatus());
+            assertEquals(400, cluster.client(0).put("/v0/batch?replicas=4/3", body).getStatus());
+        });
+    }
+
+    @Test
+    void batchReadIsQuorum() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            final ByteBuffer lookups = ByteBuffer.allocate(64 * 1024);
+            final byte[][] values = new byte[KEYS][];
+            for (int i = 0; i < KEYS; i++) {
+                final byte[] key = ("quorum" + i).getBytes(StandardCharsets.UTF_8);
+                final String uri = "/v0/entity?id=quorum" + i;
+                assertEquals(201, cluster.client(0).put(uri + "&replicas=3/3", randomValue()).getStatus());
+                // A single replica, which is not always the owner, gets the newer value or the tombstone
+                if (i % 2 == 0) {
+                    values[i] = randomValue();
+                    cluster.dao(i % NODES).upsert(ByteBuffer.wrap(key), ByteBuffer.wrap(values[i]));
+                } else {
+                    cluster.dao(i % NODES).remove(ByteBuffer.wrap(key));
+                }
+                lookups.putInt(key.length).put(key);
+            }
+            final byte[] body = new byte[lookups.position()];
+            lookups.flip().get(body);
+            for (final HttpClient client : cluster.clients()) {
+                final Response response = client.post("/v0/batch?replicas=3/3", body);
+                assertEquals(200, response.getStatus());
+                final ByteBuffer answers = ByteBuffer.wrap(response.getBody());
+                for (int i = 0; i < KEYS; i++) {
+                    final int size = answers.getInt();
+                    if (values[i] == null) {
+                        assertEquals(-1, size);
+                    } else {
+                        final byte[] value = new byte[size];
+                        answers.get(value);
+                        assertArrayEquals(values[i], value);
+                    }
+                }
+            }
+
+            cluster.stop(2);
+            assertEquals(200, cluster.client(0).post("/v0/batch?replicas=2/3", body).getStatus());
+            assertEquals(504, cluster.client(0).post("/v0/batch?replicas=3/3", body).getStatus());
+        });
+    }
+}
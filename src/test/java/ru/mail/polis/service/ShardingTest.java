@@ -0,0 +1,86 @@
+package ru.mail.polis.service;
+
+import one.nio.http.HttpClient;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.Cluster;
+import ru.mail.polis.TestBase;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.NoSuchElementException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the cluster of the nodes in the same JVM which split the keys between them.
+ */
+class ShardingTest extends TestBase {
+    private static final Duration TIMEOUT = Duration.ofMinutes(1);
+    private static final int NODES = 3;
+    private static final int KEYS = 100;
+    private static Cluster cluster;
+
+    @BeforeAll
+    static void beforeAll() throws Exception {
+        cluster = Cluster.start(NODES, TIMEOUT);
+    }
+
+    @AfterAll
+    static void afterAll() throws IOException {
+        cluster.close();
+    }
+
+    @Test
+    void everyNodeServesEveryKey() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            for (int i = 0; i < KEYS; i++) {
+                final String id = "shard" + i;
+                final byte[] value = randomValue();
+                assertEquals(201, cluster.client(i % NODES).put("/v0/entity?id=" + id, value).getStatus());
+                for (final HttpClient client : cluster.clients()) {
+                    assertArrayEquals(value, client.get("/v0/entity?id=" + id).getBody());
+                }
+            }
+            for (int i = 0; i < KEYS; i++) {
+                assertEquals(202, cluster.client((i + 1) % NODES).delete("/v0/entity?id=shard" + i).getStatus());
+                for (final HttpClient client : cluster.clients()) {
+                    assertEquals(404, client.get("/v0/entity?id=shard" + i).getStatus());
+                }
+            }
+        });
+    }
+
+    @Test
+    void everyKeyIsStoredOnce() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            final int[] stored = new int[NODES];
+            for (int i = 0; i < KEYS; i++) {
+                final String id = "once" + i;
+                final String uri = "/v0/entity?id=" + id + "&replicas=1/1";
+                assertEquals(201, cluster.client(0).put(uri, randomValue()).getStatus());
+                final ByteBuffer key = ByteBuffer.wrap(id.getBytes(StandardCharsets.UTF_8));
+                int copies = 0;
+                for (int node = 0; node < NODES; node++) {
+                    try {
+                        cluster.dao(node).get(key);
+                        copies++;
+                        stored[node]++;
+                    } catch (NoSuchElementException e) {
+                        // Not an owner
+                    }
+                }
+                assertEquals(1, copies);
+            }
+            for (final int count : stored) {
+                assertTrue(count > 0);
+            }
+        });
+    }
+}
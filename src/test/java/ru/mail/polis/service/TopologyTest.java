@@ -0,0 +1,82 @@
+package ru.mail.polis.service;
+
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.TestBase;
+import ru.mail.polis.service.vasekha.Topology;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the distribution of the keys by {@link Topology}.
+ */
+class TopologyTest extends TestBase {
+    private static final int KEYS = 30_000;
+
+    @Test
+    void evenDistribution() {
+        final Set<String> nodes = nodes(3);
+        final Topology topology = new Topology(nodes, endpoint(8080));
+        final Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            counts.merge(topology.owner(randomKeyBuffer()), 1, Integer::sum);
+        }
+        assertEquals(nodes, counts.keySet());
+        for (final int count : counts.values()) {
+            // Each node owns a third of the keys give or take a quarter of it
+            assertTrue(Math.abs(count - KEYS / 3) < KEYS / 12, "Unbalanced: " + counts);
+        }
+    }
+
+    @Test
+    void addedNodeTakesItsShareOnly() {
+        final Topology before = new Topology(nodes(3), endpoint(8080));
+        final Topology after = new Topology(nodes(4), endpoint(8080));
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            final ByteBuffer key = randomKeyBuffer();
+            final String owner = after.owner(key);
+            if (!owner.equals(before.owner(key))) {
+                moved++;
+                assertEquals(endpoint(8083), owner);
+            }
+        }
+        assertTrue(moved > KEYS / 8 && moved < KEYS * 3 / 8, "Moved " + moved);
+    }
+
+    @Test
+    void replicasStartWithOwner() {
+        final Set<String> nodes = nodes(5);
+        final Topology topology = new Topology(nodes, endpoint(8080));
+        for (int i = 0; i < 1_000; i++) {
+            final ByteBuffer key = randomKeyBuffer();
+            final List<String> replicas = topology.replicas(key, 3);
+            assertEquals(3, new HashSet<>(replicas).size());
+            assertEquals(topology.owner(key), replicas.get(0));
+            assertEquals(replicas.subList(0, 2), topology.replicas(key, 2));
+            assertEquals(nodes, new HashSet<>(topology.replicas(key, 5)));
+        }
+        assertThrows(IllegalArgumentException.class, () -> topology.replicas(randomKeyBuffer(), 6));
+    }
+
+    @Test
+    void foreignNode() {
+        assertThrows(IllegalArgumentException.class, () -> new Topology(nodes(3), endpoint(9090)));
+    }
+
+    private static Set<String> nodes(final int count) {
+        final Set<String> nodes = new HashSet<>();
+        for (int i = 0; i < count; i++) {
+            nodes.add(endpoint(8080 + i));
+        }
+        return nodes;
+    }
+}
@@ -0,0 +1,117 @@
+package ru.mail.polis.storage;
+
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.TestBase;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the off-heap skip list of {@link ArenaMemTable}.
+ */
+class ArenaMemTableTest extends TestBase {
+    private static final int SLAB_SIZE = 4 * 1024;
+    private static final int THREADS = 8;
+    private static final int KEYS_PER_THREAD = 2_000;
+
+    @Test
+    void concurrentPuts() throws Exception {
+        final ArenaMemTable memTable = new ArenaMemTable(SLAB_SIZE);
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new ConcurrentSkipListMap<>();
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            final Collection<Callable<Void>> tasks = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                final int thread = t;
+                tasks.add(() -> {
+                    for (int i = 0; i < KEYS_PER_THREAD; i++) {
+                        // Threads insert the interleaved keys
+                        final ByteBuffer key = key(i * THREADS + thread);
+                        final ByteBuffer value = randomValueBuffer();
+                        memTable.upsert(key, value);
+                        expected.put(key, value);
+                    }
+                    return null;
+                });
+            }
+            final List<Future<Void>> futures = executor.invokeAll(tasks);
+            for (final Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        final Iterator<Row> actual = memTable.iterator(Value.EMPTY_BUFFER);
+        for (final Map.Entry<ByteBuffer, ByteBuffer> entry : expected.entrySet()) {
+            assertTrue(actual.hasNext());
+            final Row row = actual.next();
+            assertEquals(entry.getKey(), row.getKey());
+            assertEquals(entry.getValue(), row.getValue().getData());
+            assertEquals(entry.getValue(), memTable.get(entry.getKey()).getValue().getData());
+        }
+        assertFalse(actual.hasNext());
+    }
+
+    @Test
+    void updatesAndTombstones() {
+        final ArenaMemTable memTable = new ArenaMemTable(SLAB_SIZE);
+        final ByteBuffer key = randomKeyBuffer();
+        assertNull(memTable.get(key));
+        memTable.upsert(key, randomValueBuffer());
+        final ByteBuffer value = randomValueBuffer();
+        memTable.upsert(key, value);
+        assertEquals(value, memTable.get(key).getValue().getData());
+        memTable.remove(key);
+        assertTrue(memTable.get(key).getValue().isRemoved());
+        final ByteBuffer empty = ByteBuffer.allocate(0);
+        memTable.upsert(key, empty);
+        assertEquals(empty, memTable.get(key).getValue().getData());
+        assertFalse(memTable.get(key).getValue().isRemoved());
+    }
+
+    @Test
+    void rowsLargerThanSlab() {
+        final ArenaMemTable memTable = new ArenaMemTable(SLAB_SIZE);
+        final ByteBuffer key = randomBuffer(SLAB_SIZE * 2);
+        final ByteBuffer value = randomBuffer(SLAB_SIZE * 3);
+        memTable.upsert(key, value);
+        memTable.upsert(randomKeyBuffer(), randomValueBuffer());
+        assertEquals(value, memTable.get(key).getValue().getData());
+        assertTrue(memTable.getSizeBytes() >= SLAB_SIZE * 5);
+    }
+
+    @Test
+    void olderRowIsIgnored() {
+        for (final MemTable memTable : new MemTable[]{new ArenaMemTable(SLAB_SIZE), new HeapMemTable()}) {
+            final ByteBuffer key = randomKeyBuffer();
+            final ByteBuffer value = randomValueBuffer();
+            memTable.put(Row.of(key, Value.of(2, value)));
+            memTable.put(Row.of(key, Value.of(1, randomValueBuffer())));
+            memTable.put(Row.of(key, Value.remove(1)));
+            assertEquals(value, memTable.get(key).getValue().getData());
+            memTable.put(Row.of(key, Value.remove(3)));
+            assertTrue(memTable.get(key).getValue().isRemoved());
+        }
+    }
+
+    private static ByteBuffer key(final int i) {
+        return ByteBuffer.wrap(String.format("key%07d", i).getBytes(StandardCharsets.UTF_8));
+    }
+}
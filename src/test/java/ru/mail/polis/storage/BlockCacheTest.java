@@ -0,0 +1,83 @@
+package ru.mail.polis.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.TestBase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks {@link BlockCache} and its use by {@link SSTable}.
+ */
+class BlockCacheTest extends TestBase {
+    private static final int BLOCK_SIZE = 1024;
+    private static final int KEYS_COUNT = 1_000;
+
+    @Test
+    void compressedBlocksAreCached(@TempDir File data) throws IOException {
+        final MemTable memTable = new HeapMemTable();
+        for (int i = 0; i < KEYS_COUNT; i++) {
+            memTable.upsert(key(i), ByteBuffer.wrap("value".repeat(10).getBytes(StandardCharsets.UTF_8)));
+        }
+        final Path path = data.toPath().resolve("table.db");
+        memTable.flush(path, TableOptions.DEFAULT.withCodec(Codec.LZ).withBlockSize(BLOCK_SIZE));
+        final BlockCache cache = new BlockCache(1024 * 1024);
+        final SSTable ssTable = new SSTable(path, cache);
+
+        for (int i = 0; i < KEYS_COUNT; i++) {
+            assertNotNull(ssTable.get(key(i)));
+        }
+        final long misses = cache.getMisses();
+        assertTrue(misses > 0);
+        assertTrue(cache.getSizeBytes() > 0);
+        for (int i = 0; i < KEYS_COUNT; i++) {
+            assertNotNull(ssTable.get(key(i)));
+        }
+        assertEquals(misses, cache.getMisses());
+        assertEquals(KEYS_COUNT * 2 - misses, cache.getHits());
+        assertEquals(0, cache.getEvictions());
+    }
+
+    @Test
+    void scanResistance() {
+        final int blocksPerSegment = 10;
+        final Block block = block();
+        // 16 segments of 10 blocks each
+        final BlockCache cache = new BlockCache(16L * blocksPerSegment * block.getSizeBytes());
+        final long hotTable = cache.newTableId();
+        final int hotBlocks = 16 * blocksPerSegment / 4;
+        for (int i = 0; i < hotBlocks; i++) {
+            cache.put(hotTable, i, block);
+            assertNotNull(cache.get(hotTable, i));
+        }
+
+        // Every block is read once by the scan
+        final long scannedTable = cache.newTableId();
+        for (int i = 0; i < hotBlocks * 10; i++) {
+            cache.put(scannedTable, i, block);
+        }
+        assertTrue(cache.getEvictions() > 0);
+        assertTrue(cache.getSizeBytes() <= cache.getCapacityBytes());
+        for (int i = 0; i < hotBlocks; i++) {
+            assertNotNull(cache.get(hotTable, i));
+        }
+    }
+
+    private static Block block() {
+        final BlockBuilder builder = new BlockBuilder(16);
+        builder.add(key(0), Value.of(randomBuffer(BLOCK_SIZE)));
+        return new Block(builder.finish());
+    }
+
+    private static ByteBuffer key(final int i) {
+        return ByteBuffer.wrap(String.format("key%05d", i).getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,99 @@
+package ru.mail.polis.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.TestBase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks Bloom filters of {@link SSTable}.
+ */
+class BloomFilterTest extends TestBase {
+    private static final int KEYS_COUNT = 10_000;
+
+    @Test
+    void noFalseNegatives() {
+        final List<ByteBuffer> keys = randomKeys();
+        final BloomFilter filter = create(keys, BloomFilter.bitsPerKey(0.01));
+        for (final ByteBuffer key : keys) {
+            assertTrue(filter.mightContain(key));
+        }
+    }
+
+    @Test
+    void falsePositiveRate() {
+        final double rate = 0.01;
+        final BloomFilter filter = create(randomKeys(), BloomFilter.bitsPerKey(rate));
+        int falsePositives = 0;
+        for (int i = 0; i < KEYS_COUNT; i++) {
+            if (filter.mightContain(randomKeyBuffer())) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < KEYS_COUNT * rate * 2, "Too many false positives: " + falsePositives);
+    }
+
+    @Test
+    void persisted(@TempDir File data) throws IOException {
+        final MemTable memTable = new HeapMemTable();
+        final List<ByteBuffer> keys = randomKeys();
+        for (final ByteBuffer key : keys) {
+            memTable.upsert(key, randomValueBuffer());
+        }
+        final Path path = data.toPath().resolve("table.db");
+        memTable.flush(path, TableOptions.DEFAULT.withBloomFalsePositiveRate(0.001));
+        final SSTable ssTable = new SSTable(path);
+        for (final ByteBuffer key : keys) {
+            assertTrue(ssTable.mightContain(key));
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < KEYS_COUNT; i++) {
+            if (ssTable.mightContain(randomKeyBuffer())) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < KEYS_COUNT / 100, "Too many false positives: " + falsePositives);
+    }
+
+    @Test
+    void disabled(@TempDir File data) throws IOException {
+        final MemTable memTable = new HeapMemTable();
+        memTable.upsert(randomKeyBuffer(), randomValueBuffer());
+        final Path path = data.toPath().resolve("table.db");
+        memTable.flush(path, TableOptions.DEFAULT.withBloomBitsPerKey(0));
+        assertTrue(new SSTable(path).mightContain(randomKeyBuffer()));
+    }
+
+    @Test
+    void emptyTable(@TempDir File data) throws IOException {
+        final Path path = data.toPath().resolve("table.db");
+        new HeapMemTable().flush(path, TableOptions.DEFAULT);
+        final SSTable ssTable = new SSTable(path);
+        assertFalse(ssTable.iterator(ByteBuffer.allocate(0)).hasNext());
+    }
+
+    private static List<ByteBuffer> randomKeys() {
+        final List<ByteBuffer> keys = new ArrayList<>(KEYS_COUNT);
+        for (int i = 0; i < KEYS_COUNT; i++) {
+            keys.add(randomKeyBuffer());
+        }
+        return keys;
+    }
+
+    private static BloomFilter create(final List<ByteBuffer> keys, final int bitsPerKey) {
+        final long[] hashes = new long[keys.size()];
+        for (int i = 0; i < keys.size(); i++) {
+            hashes[i] = BloomFilter.hash(keys.get(i));
+        }
+        return BloomFilter.create(hashes, hashes.length, bitsPerKey);
+    }
+}
@@ -0,0 +1,131 @@
+package ru.mail.polis.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.TestBase;
+import ru.mail.polis.dao.DAO;
+import ru.mail.polis.dao.vasekha.MyDAO;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks writing and replaying of {@link CommitLog}.
+ */
+class CommitLogTest extends TestBase {
+    private static final int THREADS = 8;
+    private static final int ROWS_PER_THREAD = 500;
+
+    @Test
+    void concurrentAppends(@TempDir File data) throws Exception {
+        final Path path = data.toPath().resolve("0.log");
+        final Map<ByteBuffer, Row> expected = new ConcurrentHashMap<>();
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try (CommitLog commitLog = new CommitLog(path, SyncMode.ALWAYS)) {
+            final Collection<Callable<Void>> tasks = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                tasks.add(() -> {
+                    for (int i = 0; i < ROWS_PER_THREAD; i++) {
+                        final Row row = i % 10 == 0
+                                ? Row.remove(randomKeyBuffer())
+                                : Row.of(randomKeyBuffer(), randomValueBuffer());
+                        commitLog.append(row);
+                        expected.put(row.getKey(), row);
+                    }
+                    return null;
+                });
+            }
+            final List<Future<Void>> futures = executor.invokeAll(tasks);
+            for (final Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        final MemTable memTable = new HeapMemTable();
+        assertEquals(THREADS * ROWS_PER_THREAD, CommitLog.replay(path, memTable));
+        for (final Row row : expected.values()) {
+            final Row actual = memTable.get(row.getKey());
+            assertEquals(row.getValue().isRemoved(), actual.getValue().isRemoved());
+            assertEquals(row.getValue().getTimestamp(), actual.getValue().getTimestamp());
+            assertEquals(row.getValue().getData(), actual.getValue().getData());
+        }
+    }
+
+    @Test
+    void tornTail(@TempDir File data) throws IOException {
+        final Path path = data.toPath().resolve("0.log");
+        final ByteBuffer first = randomKeyBuffer();
+        final ByteBuffer second = randomKeyBuffer();
+        try (CommitLog commitLog = new CommitLog(path, SyncMode.NONE)) {
+            commitLog.append(Row.of(first, randomValueBuffer()));
+            commitLog.append(Row.of(second, randomValueBuffer()));
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 1);
+        }
+
+        final MemTable memTable = new HeapMemTable();
+        assertEquals(1, CommitLog.replay(path, memTable));
+        assertEquals(first, memTable.get(first).getKey());
+    }
+
+    @Test
+    void tombstoneOfZeroTimestamp(@TempDir File data) throws IOException {
+        final Path path = data.toPath().resolve("0.log");
+        final ByteBuffer key = randomKeyBuffer();
+        try (CommitLog commitLog = new CommitLog(path, SyncMode.NONE)) {
+            commitLog.append(new Row(key, new Value(0, true, Value.EMPTY_BUFFER)));
+        }
+
+        final MemTable memTable = new HeapMemTable();
+        assertEquals(1, CommitLog.replay(path, memTable));
+        assertTrue(memTable.get(key).getValue().isRemoved());
+        assertEquals(0, memTable.get(key).getValue().getTimestamp());
+    }
+
+    @Test
+    void replayedOnOpen(@TempDir File data) throws IOException {
+        final ByteBuffer key = randomKeyBuffer();
+        final ByteBuffer value = randomValueBuffer();
+        final ByteBuffer removed = randomKeyBuffer();
+        final Path path = data.toPath().resolve("0.log");
+        // The log left by the process which has not flushed its memTable
+        try (CommitLog commitLog = new CommitLog(path, SyncMode.NONE)) {
+            commitLog.append(Row.of(key, value));
+            commitLog.append(Row.of(removed, randomValueBuffer()));
+            commitLog.append(Row.remove(removed));
+        }
+
+        try (DAO dao = new MyDAO(data, 1024 * 1024)) {
+            assertFalse(Files.exists(path));
+            assertEquals(value, dao.get(key));
+            assertThrows(NoSuchElementException.class, () -> dao.get(removed));
+        }
+        try (DAO dao = new MyDAO(data, 1024 * 1024)) {
+            assertEquals(value, dao.get(key));
+        }
+        assertTrue(Files.exists(data.toPath().resolve("0.db")));
+    }
+}
@@ -0,0 +1,193 @@
+package ru.mail.polis.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.TestBase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks reading of the block format of {@link SSTable}.
+ */
+class SSTableTest extends TestBase {
+    private static final int KEYS_COUNT = 2_000;
+
+    @Test
+    void seekEveryKey(@TempDir File data) throws IOException {
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new TreeMap<>();
+        final MemTable memTable = new HeapMemTable();
+        for (int i = 0; i < KEYS_COUNT; i += 2) {
+            final ByteBuffer key = key(i);
+            final ByteBuffer value = randomBuffer(1 + i % 100);
+            expected.put(key, value);
+            memTable.upsert(key, value);
+        }
+        final SSTable ssTable = write(data, memTable, TableOptions.DEFAULT.withBlockSize(256).withRestartInterval(4));
+
+        for (int i = -1; i <= KEYS_COUNT; i++) {
+            final ByteBuffer from = key(i);
+            final Iterator<Row> actual = ssTable.iterator(from);
+            for (final Map.Entry<ByteBuffer, ByteBuffer> entry : expected.tailMap(from).entrySet()) {
+                assertTrue(actual.hasNext());
+                final Row row = actual.next();
+                assertEquals(entry.getKey(), row.getKey());
+                assertEquals(entry.getValue(), row.getValue().getData());
+            }
+            assertFalse(actual.hasNext());
+
+            final Row row = ssTable.get(from);
+            if (expected.containsKey(from)) {
+                assertEquals(expected.get(from), row.getValue().getData());
+            } else {
+                assertNull(row);
+            }
+        }
+    }
+
+    @Test
+    void tombstones(@TempDir File data) throws IOException {
+        final MemTable memTable = new HeapMemTable();
+        for (int i = 0; i < KEYS_COUNT; i++) {
+            if (i % 3 == 0) {
+                memTable.remove(key(i));
+            } else {
+                memTable.upsert(key(i), randomValueBuffer());
+            }
+        }
+        final SSTable ssTable = write(data, memTable, TableOptions.DEFAULT);
+        for (int i = 0; i < KEYS_COUNT; i++) {
+            assertEquals(i % 3 == 0, ssTable.get(key(i)).getValue().isRemoved());
+        }
+    }
+
+    @Test
+    void cursorMatchesRows(@TempDir File data) throws IOException {
+        final MemTable memTable = new HeapMemTable();
+        for (int i = 0; i < KEYS_COUNT; i += 2) {
+            if (i % 3 == 0) {
+                memTable.remove(key(i));
+            } else {
+                memTable.upsert(key(i), randomBuffer(1 + i % 100));
+            }
+        }
+        final SSTable ssTable = write(data, memTable, TableOptions.DEFAULT.withBlockSize(256).withRestartInterval(4));
+        for (int i = -1; i <= KEYS_COUNT; i += 7) {
+            final RowCursor cursor = ssTable.cursor(key(i));
+            final Iterator<Row> rows = memTable.iterator(key(i));
+            while (rows.hasNext()) {
+                final Row row = rows.next();
+                assertTrue(cursor.isValid());
+                assertEquals(0, cursor.compareKey(row.getKey()));
+                final byte[] key = new byte[cursor.getKeySize()];
+                cursor.getKeyBuffer().duplicate().position(cursor.getKeyOffset()).get(key);
+                assertEquals(row.getKey(), ByteBuffer.wrap(key));
+                assertEquals(row.getValue().getTimestamp(), cursor.getTimestamp());
+                assertEquals(row.getValue().isRemoved(), cursor.isRemoved());
+                assertEquals(row.getValue().getData(), cursor.row().getValue().getData());
+                cursor.next();
+            }
+            assertFalse(cursor.isValid());
+        }
+    }
+
+    @Test
+    void hugeKeys(@TempDir File data) throws IOException {
+        final MemTable memTable = new HeapMemTable();
+        final ByteBuffer first = randomBuffer(64 * 1024);
+        final ByteBuffer second = randomBuffer(64 * 1024);
+        memTable.upsert(first, randomValueBuffer());
+        memTable.upsert(second, randomValueBuffer());
+        final SSTable ssTable = write(data, memTable, TableOptions.DEFAULT);
+        assertEquals(first, ssTable.get(first).getKey());
+        assertEquals(second, ssTable.get(second).getKey());
+    }
+
+    @Test
+    void codecs(@TempDir File data) throws IOException {
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new TreeMap<>();
+        final MemTable memTable = new HeapMemTable();
+        for (int i = 0; i < KEYS_COUNT; i++) {
+            // Compressible values
+            final ByteBuffer value = ByteBuffer.wrap(String.format("value%05d", i).repeat(1 + i % 20)
+                    .getBytes(StandardCharsets.UTF_8));
+            expected.put(key(i), value);
+            memTable.upsert(key(i), value);
+        }
+        long uncompressedSize = 0;
+        for (final Codec codec : Codec.values()) {
+            final Path path = data.toPath().resolve(codec + ".db");
+            memTable.flush(path, TableOptions.DEFAULT.withCodec(codec));
+            final SSTable ssTable = new SSTable(path);
+            final Iterator<Row> actual = ssTable.iterator(ByteBuffer.allocate(0));
+            for (final Map.Entry<ByteBuffer, ByteBuffer> entry : expected.entrySet()) {
+                final Row row = actual.next();
+                assertEquals(entry.getKey(), row.getKey());
+                assertEquals(entry.getValue(), row.getValue().getData());
+                assertEquals(entry.getValue(), ssTable.get(entry.getKey()).getValue().getData());
+            }
+            assertFalse(actual.hasNext());
+            if (codec == Codec.NONE) {
+                uncompressedSize = path.toFile().length();
+            } else {
+                assertTrue(path.toFile().length() < uncompressedSize / 2, codec + " does not compress");
+            }
+        }
+    }
+
+    @Test
+    void lzRoundTrip() {
+        for (int size = 0; size < 5_000; size += 97) {
+            final ByteBuffer random = randomBuffer(size + 1);
+            assertEquals(random, LzCompression.decompress(LzCompression.compress(random), random.remaining()));
+            final ByteBuffer repeated = ByteBuffer.wrap(new byte[size]);
+            for (int i = 0; i < size; i++) {
+                repeated.put(i, (byte) (i % 7));
+            }
+            assertEquals(repeated, LzCompression.decompress(LzCompression.compress(repeated), size));
+        }
+    }
+
+    @Test
+    void corruptedBlock(@TempDir File data) throws IOException {
+        final MemTable memTable = new HeapMemTable();
+        final ByteBuffer key = randomKeyBuffer();
+        memTable.upsert(key, randomValueBuffer());
+        final Path path = data.toPath().resolve("table.db");
+        memTable.flush(path, TableOptions.DEFAULT.withCodec(Codec.LZ));
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{1, 2, 3}), 10);
+        }
+        final SSTable ssTable = new SSTable(path);
+        assertThrows(UncheckedIOException.class, () -> ssTable.get(key));
+    }
+
+    private static SSTable write(
+            final File data,
+            final MemTable memTable,
+            final TableOptions options) throws IOException {
+        final Path path = data.toPath().resolve("table.db");
+        memTable.flush(path, options);
+        return new SSTable(path);
+    }
+
+    private static ByteBuffer key(final int i) {
+        return ByteBuffer.wrap(String.format("key%05d", i).getBytes(StandardCharsets.UTF_8));
+    }
+}
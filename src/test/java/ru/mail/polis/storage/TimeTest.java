@@ -0,0 +1,64 @@
+package ru.mail.polis.storage;
+
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.TestBase;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the timestamps of {@link Time}.
+ */
+class TimeTest extends TestBase {
+    private static final int THREADS = 4;
+    private static final int TIMESTAMPS = 500_000;
+
+    @Test
+    void concurrentTimestampsAreUniqueAndAscending() throws InterruptedException {
+        final long[][] timestamps = new long[THREADS][TIMESTAMPS];
+        final Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final long[] own = timestamps[t];
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < own.length; i++) {
+                    own[i] = Time.getTimeNanos();
+                }
+            });
+            threads[t].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        final long[] all = new long[THREADS * TIMESTAMPS];
+        for (int t = 0; t < THREADS; t++) {
+            for (int i = 1; i < TIMESTAMPS; i++) {
+                assertTrue(timestamps[t][i] > timestamps[t][i - 1]);
+            }
+            System.arraycopy(timestamps[t], 0, all, t * TIMESTAMPS, TIMESTAMPS);
+        }
+        Arrays.sort(all);
+        for (int i = 1; i < all.length; i++) {
+            assertTrue(all[i] > all[i - 1], "Duplicate timestamp " + all[i]);
+        }
+    }
+
+    @Test
+    void followsObservedTimestamps() {
+        final long ahead = Time.getTimeNanos() + TimeUnit.SECONDS.toNanos(10);
+        Time.observe(ahead);
+        assertEquals(ahead + 1, Time.getTimeNanos());
+        // The older timestamps do not move the clock back
+        Time.observe(ahead - TimeUnit.SECONDS.toNanos(1));
+        assertEquals(ahead + 2, Time.getTimeNanos());
+    }
+
+    @Test
+    void ignoresTimestampsFarAhead() {
+        final long farAhead = Time.getTimeNanos() + TimeUnit.DAYS.toNanos(1);
+        Time.observe(farAhead);
+        assertTrue(Time.getTimeNanos() < farAhead);
+    }
+}
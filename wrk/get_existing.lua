@@ -0,0 +1,16 @@
+-- Reads random keys among the ones written by put.lua
+-- Set the number of written keys with: wrk ... -s get_existing.lua -- <count>
+
+count=1000000
+
+init=function(args)
+	if #args > 0 then
+		count=tonumber(args[1])
+	end
+end
+
+request=function()
+	path="/v0/entity?id=key" .. math.random(0, count - 1)
+	wrk.method="GET"
+	return wrk.format(nil,path)
+end